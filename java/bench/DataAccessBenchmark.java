@@ -0,0 +1,328 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Baseline numbers for the data-access and rendering paths the menus run,
+ * one call at a time (see Microbench):
+ *
+ *    result.*   executeQueryAndReturnResult, executeQueryAndReturnColumns and
+ *               executeQueryAndPrintResult (to a discarded stdout) on the
+ *               recent-orders query, and OrderHistory's first page
+ *    cart.*     pricing a cart of 1 to 4 games (what getCost used to do),
+ *               through the catalog cache when it holds the games and with
+ *               the games invalidated, so it takes its one query
+ *    order.*    placing an order with place_order(), what placeOrder sends
+ *    catalog.*  the viewCatalog searches: a title substring, a genre sorted
+ *               by price, and the whole catalog
+ *    render.*   printing a page of orders and a page of catalog rows: with
+ *               a println(String.format(...)) per row as the menus used to
+ *               (printf) and with TableRenderer (table), to a stream set up
+ *               like System.out
+ *
+ * Logins are drawn with Zipfian skew over users that have orders and games
+ * uniformly, from a fixed seed, so runs see the same calls. Orders placed by
+ * the benchmark are deleted at the end.
+ *
+ * Point it at a database loaded with a scaled data set (DataGenerator, then
+ * BulkLoader). If the baseline file does not exist, the run's numbers are
+ * written to it; otherwise each benchmark is compared with it, and the exit
+ * code is 1 if any lost more than the tolerance below in throughput.
+ *
+ * Usage: DataAccessBenchmark <dbname> <port> <user> [baseline file] [iteration ms]
+ */
+public class DataAccessBenchmark {
+
+   private static final int WARMUP_ITERATIONS = 3;
+   private static final int MEASUREMENT_ITERATIONS = 5;
+
+   // a benchmark regresses if its throughput dropped below baseline / TOLERANCE
+   private static final double TOLERANCE = 1.25;
+
+   private static final String RECENT_ORDERS =
+      "SELECT rentalOrderID, noOfGames, totalPrice, orderTimestamp, dueDate FROM RentalOrder WHERE login = ? ORDER BY orderTimestamp DESC LIMIT 5";
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java DataAccessBenchmark <dbname> <port> <user> [baseline file] [iteration ms]");
+         return;
+      }//end if
+
+      Class.forName("org.postgresql.Driver");
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      File baselineFile = args.length > 3 ? new File(args[3]) : null;
+      long iterationMillis = args.length > 4 ? Long.parseLong(args[4]) : 1000L;
+
+      Properties baseline = new Properties();
+      if (baselineFile != null && baselineFile.exists()) {
+         FileReader reader = new FileReader(baselineFile);
+         try {
+            baseline.load(reader);
+         }finally {
+            reader.close();
+         }//end try
+      }//end if
+      boolean writeBaseline = baselineFile != null && !baselineFile.exists();
+
+      GameRental esql = new GameRental(new ConnectionPool(url, args[2], "", 1, 2, 60000L, 1000L, 60000L, 64));
+      final List<String> placed = new ArrayList<String>();
+      boolean regressed = false;
+      try {
+         final Microbench bench = new Microbench(WARMUP_ITERATIONS, MEASUREMENT_ITERATIONS, iterationMillis);
+         List<Microbench.Result> results = runAll(bench, esql, placed);
+
+         Properties measured = new Properties();
+         System.out.println();
+         System.out.println(String.format("%-24s | %12s | %10s | %10s | %10s | %9s", "Benchmark", "ops/s", "+-", "p50 us", "p99 us", "baseline"));
+         System.out.println("-------------------------------------------------------------------------------------------");
+         for (Microbench.Result result : results) {
+            String compared = "";
+            String base = baseline.getProperty(result.getName() + ".opsPerSec");
+            if (base != null) {
+               double ratio = result.getOpsPerSec() / Double.parseDouble(base);
+               compared = String.format("%+.0f%%", (ratio - 1) * 100);
+               if (ratio * TOLERANCE < 1) {
+                  compared += " !";
+                  regressed = true;
+               }
+            }//end if
+            System.out.println(String.format("%-24s | %12.1f | %10.1f | %10.1f | %10.1f | %9s", result.getName(),
+                                             result.getOpsPerSec(), result.getOpsPerSecStdDev(),
+                                             result.getLatencyMicros(0.50), result.getLatencyMicros(0.99), compared));
+            measured.setProperty(result.getName() + ".opsPerSec", String.format("%.1f", result.getOpsPerSec()));
+            measured.setProperty(result.getName() + ".p50Micros", String.format("%.1f", result.getLatencyMicros(0.50)));
+         }//end for
+
+         if (writeBaseline) {
+            FileWriter writer = new FileWriter(baselineFile);
+            try {
+               measured.store(writer, "DataAccessBenchmark baseline, " + iterationMillis + " ms iterations");
+            }finally {
+               writer.close();
+            }//end try
+            System.out.println("wrote baseline " + baselineFile);
+         }//end if
+         if (regressed) {
+            System.out.println("throughput regressed past 1/" + TOLERANCE + " of the baseline (marked !)");
+         }
+      }finally {
+         // cascades to the games and tracking rows of the orders
+         for (String orderID : placed) {
+            esql.executeUpdate("DELETE FROM RentalOrder WHERE rentalOrderID = ?", orderID);
+         }
+         esql.cleanup();
+      }//end try
+      System.exit(regressed ? 1 : 0);
+   }//end main
+
+   private static List<Microbench.Result> runAll(Microbench bench, final GameRental esql, final List<String> placed) throws Exception {
+      final List<String> logins = activeLogins(esql);
+      final List<String> gameIDs = new ArrayList<String>();
+      final List<String> titles = new ArrayList<String>();
+      for (CatalogCache.Game game : esql.getCatalogCache().all()) {
+         gameIDs.add(game.getGameID());
+         titles.add(game.getGameName());
+      }
+      if (logins.isEmpty() || gameIDs.isEmpty()) {
+         throw new IllegalStateException("Load some orders and games first");
+      }
+      System.out.println(String.format("%d games; drawing from %d logins with orders", gameIDs.size(), logins.size()));
+
+      final ZipfSampler users = new ZipfSampler(logins.size(), 0.8);
+      final SplittableRandom random = new SplittableRandom(42);
+
+      // substrings of real titles, so most searches match something
+      final List<String> searches = new ArrayList<String>();
+      Random searchRandom = new Random(42);
+      for (int i = 0; i < 64; i++) {
+         String title = titles.get(searchRandom.nextInt(titles.size()));
+         int length = Math.min(title.length(), 3 + searchRandom.nextInt(4));
+         int from = searchRandom.nextInt(title.length() - length + 1);
+         searches.add(title.substring(from, from + length));
+      }//end for
+      final String genre = esql.getCatalogCache().all().get(0).getGenre();
+      List<CatalogCache.Game> inGenre = esql.getCatalogCache().search(null, genre, CatalogCache.SORT_NONE);
+      final List<CatalogCache.Game> catalogPage = inGenre.subList(0, Math.min(20, inGenre.size()));
+      final ColumnarResult orderPage = new OrderHistory(esql, logins.get(0), 10).getPage();
+
+      List<Microbench.Result> results = new ArrayList<Microbench.Result>();
+
+      results.add(report(bench.run("result.list", new Microbench.Operation() {
+         public Object run(int i) throws Exception {
+            return esql.executeQueryAndReturnResult(RECENT_ORDERS, logins.get(users.sample(random) - 1));
+         }
+      })));
+      results.add(report(bench.run("result.columns", new Microbench.Operation() {
+         public Object run(int i) throws Exception {
+            return esql.executeQueryAndReturnColumns(RECENT_ORDERS, logins.get(users.sample(random) - 1));
+         }
+      })));
+      // the printing is measured, the terminal is not
+      PrintStream stdout = System.out;
+      Microbench.Result printed;
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+      try {
+         printed = bench.run("result.print", new Microbench.Operation() {
+            public Object run(int i) throws Exception {
+               return esql.executeQueryAndPrintResult(RECENT_ORDERS, logins.get(users.sample(random) - 1));
+            }
+         });
+      }finally {
+         System.setOut(stdout);
+      }//end try
+      results.add(report(printed));
+      results.add(report(bench.run("result.historyPage", new Microbench.Operation() {
+         public Object run(int i) throws Exception {
+            return new OrderHistory(esql, logins.get(users.sample(random) - 1), 10).getPage();
+         }
+      })));
+
+      results.add(report(bench.run("cart.price.cached", new Microbench.Operation() {
+         public Object run(int i) throws Exception {
+            Cart cart = randomCart(random, gameIDs);
+            cart.price(esql);
+            return cart.getTotalCents();
+         }
+      })));
+      results.add(report(bench.run("cart.price.query", new Microbench.Operation() {
+         public Object run(int i) throws Exception {
+            Cart cart = randomCart(random, gameIDs);
+            for (String gameID : cart.getGameIDs()) {
+               esql.getCatalogCache().invalidate(gameID);
+            }
+            cart.price(esql);
+            return cart.getTotalCents();
+         }
+      })));
+
+      results.add(report(bench.run("order.place", new Microbench.Operation() {
+         public Object run(int i) throws Exception {
+            Cart cart = randomCart(random, gameIDs);
+            String[] keys = esql.submitOrder(logins.get(users.sample(random) - 1), cart.gameIDArray(), cart.unitsArray());
+            placed.add(keys[0]);
+            return keys;
+         }
+      })));
+
+      results.add(report(bench.run("catalog.title", new Microbench.Operation() {
+         public Object run(int i) throws Exception {
+            return esql.getCatalogCache().search(searches.get(i % searches.size()), null, CatalogCache.SORT_NONE);
+         }
+      })));
+      results.add(report(bench.run("catalog.genreByPrice", new Microbench.Operation() {
+         public Object run(int i) throws Exception {
+            return esql.getCatalogCache().search(null, genre, CatalogCache.SORT_PRICE_ASC);
+         }
+      })));
+      results.add(report(bench.run("catalog.all", new Microbench.Operation() {
+         public Object run(int i) throws Exception {
+            return esql.getCatalogCache().search(null, null, CatalogCache.SORT_NONE);
+         }
+      })));
+
+      // a page printed the way the menus used to, a println(String.format(...)) per row, and with TableRenderer
+      final PrintStream console = discardingConsole();
+      results.add(report(bench.run("render.orders.printf", new Microbench.Operation() {
+         public Object run(int i) {
+            for (int row = 0; row < orderPage.size(); row++) {
+               console.println(String.format("%-20s | %-9d | %-12s | %-22s | %-22s",
+                  orderPage.getString(row, 0),
+                  orderPage.getInt(row, 1),
+                  ColumnarResult.formatCents(orderPage.getCents(row, 2)),
+                  ColumnarResult.formatTimestamp(orderPage.getMillis(row, 3)),
+                  ColumnarResult.formatTimestamp(orderPage.getMillis(row, 4))));
+            }
+            return console;
+         }
+      })));
+      results.add(report(bench.run("render.orders.table", new Microbench.Operation() {
+         public Object run(int i) throws Exception {
+            TableRenderer table = new TableRenderer(new OutputStreamWriter(console), GameRental.ORDER_TABLE_WIDTHS);
+            for (int row = 0; row < orderPage.size(); row++) {
+               GameRental.RenderOrderRow(table, orderPage, row);
+            }
+            table.flush();
+            return table;
+         }
+      })));
+      results.add(report(bench.run("render.catalog.printf", new Microbench.Operation() {
+         public Object run(int i) {
+            for (CatalogCache.Game game : catalogPage) {
+               console.println(String.format("%50s | %10s | %55s | %5s", game.getGameName(), game.getGenre(),
+                                             game.getDescription(), ColumnarResult.formatCents(game.getPriceCents())));
+            }
+            return console;
+         }
+      })));
+      results.add(report(bench.run("render.catalog.table", new Microbench.Operation() {
+         public Object run(int i) throws Exception {
+            TableRenderer table = new TableRenderer(new OutputStreamWriter(console), GameRental.CATALOG_TABLE_WIDTHS);
+            for (CatalogCache.Game game : catalogPage) {
+               GameRental.RenderCatalogRow(table, game);
+            }
+            table.flush();
+            return table;
+         }
+      })));
+      console.close();
+      return results;
+   }//end runAll
+
+   /*
+    * A stream set up like System.out (flushed on every println, behind a
+    * 128 byte buffer) that writes to /dev/null where there is one, so the
+    * system calls are counted but nothing shows.
+    */
+   private static PrintStream discardingConsole() throws IOException {
+      File devNull = new File("/dev/null");
+      OutputStream sink = devNull.exists() ? new FileOutputStream(devNull) : OutputStream.nullOutputStream();
+      return new PrintStream(new BufferedOutputStream(sink, 128), true);
+   }
+
+   /*
+    * Progress line per benchmark, so a long run shows where it is.
+    */
+   private static Microbench.Result report(Microbench.Result result) {
+      System.out.println(String.format("%-24s %d calls", result.getName(), result.getOperations()));
+      return result;
+   }
+
+   /*
+    * Logins that have orders, busiest first as far as the sample goes.
+    */
+   private static List<String> activeLogins(GameRental esql) throws Exception {
+      LinkedHashSet<String> logins = new LinkedHashSet<String>();
+      for (List<String> row : esql.executeQueryAndReturnResult("SELECT login FROM RentalOrder LIMIT 20000")) {
+         logins.add(row.get(0));
+      }
+      return new ArrayList<String>(logins);
+   }
+
+   /*
+    * 1 to 4 distinct games with 1 to 3 units each.
+    */
+   private static Cart randomCart(SplittableRandom random, List<String> gameIDs) {
+      Cart cart = new Cart();
+      int count = Math.min(gameIDs.size(), 1 + random.nextInt(4));
+      while (cart.size() < count) {
+         String gameID = gameIDs.get(random.nextInt(gameIDs.size()));
+         if (cart.getUnits(gameID) == 0) {
+            cart.add(gameID, 1 + random.nextInt(3));
+         }
+      }
+      return cart;
+   }
+
+}//end DataAccessBenchmark
@@ -0,0 +1,202 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures top-k fuzzy title lookups on a synthetic catalog of 100,000+
+ * titles generated from the words of data/catalog.csv. Queries are words of
+ * real titles with one random typo each. The "scan" column compares every
+ * query word against every word of every title; "bk-tree" is
+ * FuzzyTitleMatcher. Both rank the same way and must return the same titles.
+ *
+ * Runs in memory; no database needed.
+ *
+ * Usage: FuzzySearchBenchmark <catalog.csv> [titles] [iterations] [k]
+ */
+public class FuzzySearchBenchmark {
+
+   private interface Lookup {
+      List<String> run(String query);
+   }
+
+   // results are added here so the JIT cannot drop the lookups
+   private static volatile long _sink = 0;
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 1) {
+         System.err.println("Usage: java FuzzySearchBenchmark <catalog.csv> [titles] [iterations] [k]");
+         return;
+      }//end if
+
+      int numTitles = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+      int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+      final int k = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+      // the real titles, then variants with one word swapped and one word added
+      Random random = new Random(42);
+      List<String> base = TitleSearchBenchmark.readTitles(args[0]);
+      List<String> vocabulary = new ArrayList<String>();
+      for (String title : base) {
+         for (String word : title.split("\\s+")) {
+            if (!word.isEmpty()) {
+               vocabulary.add(word);
+            }
+         }
+      }//end for
+      final List<String> titles = new ArrayList<String>(numTitles);
+      List<String> keys = new ArrayList<String>(numTitles);
+      while (titles.size() < numTitles) {
+         String title = base.get(titles.size() % base.size());
+         if (titles.size() >= base.size()) {
+            String[] words = title.split("\\s+");
+            words[random.nextInt(words.length)] = vocabulary.get(random.nextInt(vocabulary.size()));
+            title = String.join(" ", words) + " " + vocabulary.get(random.nextInt(vocabulary.size()));
+         }
+         keys.add(Integer.toString(titles.size()));
+         titles.add(title);
+      }//end while
+
+      long buildStart = System.nanoTime();
+      final FuzzyTitleMatcher matcher = new FuzzyTitleMatcher(keys, titles);
+      long buildNanos = System.nanoTime() - buildStart;
+      System.out.println(String.format("%d titles, %d distinct words, built in %.1f ms",
+                                       titles.size(), matcher.getWordCount(), buildNanos / 1e6));
+
+      final String[][] titleWords = new String[titles.size()][];
+      for (int i = 0; i < titleWords.length; i++) {
+         titleWords[i] = FuzzyTitleMatcher.words(titles.get(i)).toArray(new String[0]);
+      }//end for
+
+      // one or two words of a real title, each with one typo
+      List<String> queries = new ArrayList<String>();
+      List<String> intended = new ArrayList<String>();
+      while (queries.size() < 500) {
+         String[] words = titleWords[random.nextInt(base.size())];
+         StringBuilder query = new StringBuilder();
+         StringBuilder clean = new StringBuilder();
+         int count = 1 + random.nextInt(2);
+         for (int w = 0; w < words.length && count > 0; w++) {
+            if (words[w].length() >= 4) {
+               query.append(query.length() > 0 ? " " : "").append(typo(words[w], random));
+               clean.append(clean.length() > 0 ? " " : "").append(words[w]);
+               count--;
+            }
+         }//end for
+         if (query.length() > 0) {
+            queries.add(query.toString());
+            intended.add(clean.toString());
+         }
+      }//end while
+
+      Lookup scan = new Lookup() {
+         public List<String> run(String query) {
+            return scanClosest(titleWords, titles, query, k);
+         }
+      };
+      Lookup bkTree = new Lookup() {
+         public List<String> run(String query) {
+            return matcher.closest(query, k);
+         }
+      };
+
+      // both must agree, and the best title should hold the words that were meant
+      int recovered = 0;
+      for (int q = 0; q < queries.size(); q++) {
+         List<String> expected = scan.run(queries.get(q));
+         List<String> actual = bkTree.run(queries.get(q));
+         if (!expected.equals(actual)) {
+            throw new IllegalStateException("Results differ for query '" + queries.get(q) + "'");
+         }
+         if (!actual.isEmpty()) {
+            LinkedHashSet<String> best = FuzzyTitleMatcher.words(titles.get(Integer.parseInt(actual.get(0))));
+            if (best.containsAll(FuzzyTitleMatcher.words(intended.get(q)))) {
+               recovered++;
+            }
+         }
+      }//end for
+      System.out.println(String.format("best title holds the intended words for %d of %d typo queries",
+                                       recovered, queries.size()));
+
+      System.out.println(String.format("%-10s | %10s | %10s | %10s", "Variant", "mean (us)", "p50 (us)", "p99 (us)"));
+      System.out.println("-----------------------------------------------------");
+      measure("scan", queries, Math.max(1, iterations / 50), scan);
+      measure("bk-tree", queries, iterations, bkTree);
+   }//end main
+
+   /*
+    * The reference answer: the same scoring as FuzzyTitleMatcher, computed by
+    * comparing the query against every title.
+    */
+   private static List<String> scanClosest(String[][] titleWords, List<String> titles, String query, int k) {
+      String[] queryWords = FuzzyTitleMatcher.words(query).toArray(new String[0]);
+      long[] scored = new long[titleWords.length];
+      int n = 0;
+      for (int doc = 0; doc < titleWords.length; doc++) {
+         int missing = 0;
+         int total = 0;
+         for (String queryWord : queryWords) {
+            int radius = FuzzyTitleMatcher.maxDistance(queryWord);
+            int best = Integer.MAX_VALUE;
+            for (String word : titleWords[doc]) {
+               int d = FuzzyTitleMatcher.distance(queryWord, word);
+               if (d <= radius && d < best) {
+                  best = d;
+               }
+            }//end for
+            if (best == Integer.MAX_VALUE) {
+               missing++;
+            } else {
+               total += best;
+            }
+         }//end for
+         if (missing < queryWords.length) {
+            scored[n++] = ((long) missing << 58) | ((long) total << 48)
+                        | ((long) Math.min(titles.get(doc).length(), 0xFFFF) << 32) | doc;
+         }
+      }//end for
+      Arrays.sort(scored, 0, n);
+      List<String> result = new ArrayList<String>();
+      for (int i = 0; i < Math.min(k, n); i++) {
+         result.add(Integer.toString((int) scored[i]));
+      }//end for
+      return result;
+   }//end scanClosest
+
+   private static String typo(String word, Random random) {
+      int at = random.nextInt(word.length() - 1);
+      char letter = (char) ('a' + random.nextInt(26));
+      switch (random.nextInt(4)) {
+         case 0:  return word.substring(0, at) + letter + word.substring(at + 1);                        // substitute
+         case 1:  return word.substring(0, at) + word.substring(at + 1);                                 // delete
+         case 2:  return word.substring(0, at) + letter + word.substring(at);                            // insert
+         default: return word.substring(0, at) + word.charAt(at + 1) + word.charAt(at) + word.substring(at + 2); // swap
+      }
+   }//end typo
+
+   private static void measure(String variant, List<String> queries, int iterations, Lookup lookup) {
+      Random random = new Random(7);
+      // warm up the JIT
+      for (int i = 0; i < Math.min(iterations, 1000); i++) {
+         _sink += lookup.run(queries.get(random.nextInt(queries.size()))).size();
+      }
+
+      long[] samples = new long[iterations];
+      long total = 0;
+      for (int i = 0; i < iterations; i++) {
+         String query = queries.get(random.nextInt(queries.size()));
+         long start = System.nanoTime();
+         _sink += lookup.run(query).size();
+         samples[i] = System.nanoTime() - start;
+         total += samples[i];
+      }//end for
+
+      Arrays.sort(samples);
+      System.out.println(String.format("%-10s | %10.1f | %10.1f | %10.1f", variant,
+                                       total / 1000.0 / iterations,
+                                       samples[iterations / 2] / 1000.0,
+                                       samples[(int) (iterations * 0.99)] / 1000.0));
+   }//end measure
+
+}//end FuzzySearchBenchmark
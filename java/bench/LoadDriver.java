@@ -0,0 +1,394 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Simulates many users working through the menus at once. Each session is a
+ * thread that logs in as its own user and then runs workflows built from the
+ * same calls the menus make, picked by weight:
+ *
+ *    browse    40  a catalog search by title substring, or by genre sorted by price
+ *    order     15  price a cart of 1 to 4 games, then place it
+ *    history   30  the first page of order history, sometimes the next one,
+ *                  then one order's details
+ *    tracking  10  customers view an order's tracking; managers also update it
+ *    login      5  log out and in again
+ *
+ * One session in twenty logs in as a manager, if there are any.
+ * Games are picked with Zipfian popularity and customers' own orders come
+ * from their history, so the database sees the skew real users produce.
+ *
+ * Sessions are closed loops with an optional exponential think time between
+ * workflows; nothing is recorded during the warm-up. The report gives per
+ * operation throughput, errors and p50/p99/p99.9 latency, then the time
+ * spent in SQL per operation (QueryStats). Orders placed are deleted at
+ * the end; tracking updates stay.
+ *
+ * The pool is configured like GameRental's, e.g. -Dgamerental.pool.maxSize.
+ *
+ * Usage: LoadDriver <dbname> <port> <user> [sessions] [seconds] [warm-up seconds] [think ms]
+ */
+public class LoadDriver {
+
+   private static final int OP_LOGIN = 0;
+   private static final int OP_BROWSE = 1;
+   private static final int OP_CART_PRICE = 2;
+   private static final int OP_ORDER_PLACE = 3;
+   private static final int OP_HISTORY_PAGE = 4;
+   private static final int OP_HISTORY_NEXT = 5;
+   private static final int OP_ORDER_DETAILS = 6;
+   private static final int OP_TRACKING_VIEW = 7;
+   private static final int OP_TRACKING_UPDATE = 8;
+   private static final String[] OP_NAMES = {
+      "login", "browse", "cart.price", "order.place", "history.page",
+      "history.next", "order.details", "tracking.view", "tracking.update" };
+
+   private static final int WORKFLOW_BROWSE = 0;
+   private static final int WORKFLOW_ORDER = 1;
+   private static final int WORKFLOW_HISTORY = 2;
+   private static final int WORKFLOW_TRACKING = 3;
+   private static final int WORKFLOW_LOGIN = 4;
+   private static final int[] WORKFLOW_WEIGHTS = { 40, 15, 30, 10, 5 };
+
+   private static final int PAGE_SIZE = 10;
+
+   /*
+    * One simulated user. Only its own thread touches its fields until it is done.
+    */
+   private static class Worker implements Runnable {
+      private final LoadDriver _driver;
+      private final String[] _credentials;
+      private final SplittableRandom _random;
+      private final Microbench.Histogram[] _latency = new Microbench.Histogram[OP_NAMES.length];
+      private final long[] _errors = new long[OP_NAMES.length];
+      private long _workflows = 0;
+
+      private Session _session = null;
+      private boolean _recording = false;
+
+      Worker(LoadDriver driver, String[] credentials, long seed) {
+         this._driver = driver;
+         this._credentials = credentials;
+         this._random = new SplittableRandom(seed);
+         for (int op = 0; op < OP_NAMES.length; op++) {
+            this._latency[op] = new Microbench.Histogram();
+         }
+      }
+
+      public void run() {
+         try {
+            this._driver._start.await();
+            logIn();
+            while (System.nanoTime() < this._driver._endNanos) {
+               this._recording = System.nanoTime() >= this._driver._recordFromNanos;
+               int workflow = pick(WORKFLOW_WEIGHTS, this._random.nextInt(100));
+               try {
+                  if (this._session == null || workflow == WORKFLOW_LOGIN) {
+                     logIn();
+                  } else if (workflow == WORKFLOW_BROWSE) {
+                     browse();
+                  } else if (workflow == WORKFLOW_ORDER) {
+                     order();
+                  } else if (workflow == WORKFLOW_HISTORY) {
+                     history();
+                  } else {
+                     tracking();
+                  }
+               }catch (Exception e) {
+                  // counted by timed(); go on with the next workflow
+               }//end try
+               if (this._recording) {
+                  this._workflows++;
+               }
+               think();
+            }//end while
+         }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }catch (Exception e) {
+            // the first login failed; the error is counted
+         }finally {
+            this._driver._done.countDown();
+         }//end try
+      }//end run
+
+      private void logIn() throws Exception {
+         this._session = (Session) timed(OP_LOGIN, new Call() {
+            public Object run() throws Exception {
+               Session session = Session.logIn(_driver._esql, _credentials[0], _credentials[1]);
+               if (session == null) {
+                  throw new IllegalStateException("Cannot log in as " + _credentials[0]);
+               }
+               return session;
+            }
+         });
+      }//end logIn
+
+      private void browse() throws Exception {
+         final CatalogCache catalog = this._driver._esql.getCatalogCache();
+         if (this._random.nextInt(10) < 6) {
+            final String search = this._driver._searches.get(this._random.nextInt(this._driver._searches.size()));
+            timed(OP_BROWSE, new Call() {
+               public Object run() throws Exception {
+                  return catalog.search(search, null, CatalogCache.SORT_NONE);
+               }
+            });
+         } else {
+            final String genre = this._driver._genres.get(this._random.nextInt(this._driver._genres.size()));
+            timed(OP_BROWSE, new Call() {
+               public Object run() throws Exception {
+                  return catalog.search(null, genre, CatalogCache.SORT_PRICE_ASC);
+               }
+            });
+         }
+      }//end browse
+
+      private void order() throws Exception {
+         final Cart cart = new Cart();
+         int count = Math.min(this._driver._gameIDs.size(), 1 + this._random.nextInt(4));
+         while (cart.size() < count) {
+            String gameID = this._driver._gameIDs.get(this._driver._gamePopularity.sample(this._random) - 1);
+            if (cart.getUnits(gameID) == 0) {
+               cart.add(gameID, 1 + this._random.nextInt(3));
+            }
+         }//end while
+         timed(OP_CART_PRICE, new Call() {
+            public Object run() throws Exception {
+               return cart.price(_driver._esql);
+            }
+         });
+         String[] keys = (String[]) timed(OP_ORDER_PLACE, new Call() {
+            public Object run() throws Exception {
+               return _driver._esql.submitOrder(_session.getLogin(), cart.gameIDArray(), cart.unitsArray());
+            }
+         });
+         this._driver._placed.add(keys[0]);
+      }//end order
+
+      private void history() throws Exception {
+         final OrderHistory history = new OrderHistory(this._driver._esql, this._session.getLogin(), PAGE_SIZE);
+         ColumnarResult page = (ColumnarResult) timed(OP_HISTORY_PAGE, new Call() {
+            public Object run() throws Exception {
+               return history.getPage();
+            }
+         });
+         if (history.hasNext() && this._random.nextBoolean()) {
+            page = (ColumnarResult) timed(OP_HISTORY_NEXT, new Call() {
+               public Object run() throws Exception {
+                  return history.next();
+               }
+            });
+         }
+         if (page.size() == 0) {
+            return;
+         }
+         final String rentalOrderID = page.getString(this._random.nextInt(page.size()), 0);
+         timed(OP_ORDER_DETAILS, new Call() {
+            public Object run() throws Exception {
+               return _driver._esql.getOrderDetails(rentalOrderID);
+            }
+         });
+      }//end history
+
+      private void tracking() throws Exception {
+         final String rentalOrderID;
+         if (this._session.hasPrivilege(Session.PRIVILEGE_UPDATE_TRACKING)) {
+            // managers work through everyone's orders
+            rentalOrderID = this._driver._orderIDs.get(this._random.nextInt(this._driver._orderIDs.size()));
+         } else {
+            ColumnarResult page = new OrderHistory(this._driver._esql, this._session.getLogin(), PAGE_SIZE).getPage();
+            if (page.size() == 0) {
+               return;
+            }
+            rentalOrderID = page.getString(this._random.nextInt(page.size()), 0);
+         }
+         final ColumnarResult tracking = (ColumnarResult) timed(OP_TRACKING_VIEW, new Call() {
+            public Object run() throws Exception {
+               return _driver._esql.getTrackingInfo(rentalOrderID);
+            }
+         });
+         if (tracking.size() == 0 || !this._session.hasPrivilege(Session.PRIVILEGE_UPDATE_TRACKING)) {
+            return;
+         }
+         final String status = GameRental.TRACKING_STATUSES.get(this._random.nextInt(GameRental.TRACKING_STATUSES.size()));
+         timed(OP_TRACKING_UPDATE, new Call() {
+            public Object run() throws Exception {
+               // trackingID, courierName, rentalOrderID, currentLocation, status, lastUpdateDate, additionalComments
+               return _driver._esql.saveTrackingInfo(tracking.getString(0, 0), tracking.getString(0, 1),
+                                                     tracking.getString(0, 3), status, tracking.getString(0, 6));
+            }
+         });
+      }//end tracking
+
+      private Object timed(int op, Call call) throws Exception {
+         long start = System.nanoTime();
+         // the statements the call runs are timed under the operation too
+         String previous = QueryStats.setOperation(OP_NAMES[op]);
+         try {
+            Object result = call.run();
+            if (this._recording) {
+               this._latency[op].record(System.nanoTime() - start);
+            }
+            return result;
+         }catch (Exception e) {
+            if (this._recording) {
+               this._errors[op]++;
+            }
+            throw e;
+         }finally {
+            QueryStats.setOperation(previous);
+         }//end try
+      }//end timed
+
+      private void think() throws InterruptedException {
+         if (this._driver._thinkMillis > 0) {
+            Thread.sleep((long) (-this._driver._thinkMillis * Math.log(1 - this._random.nextDouble())));
+         }
+      }
+   }//end Worker
+
+   private interface Call {
+      Object run() throws Exception;
+   }
+
+   private final GameRental _esql;
+   private final long _thinkMillis;
+
+   private final List<String> _gameIDs = new ArrayList<String>();
+   private final List<String> _genres = new ArrayList<String>();
+   private final List<String> _searches = new ArrayList<String>();
+   private final List<String> _orderIDs = new ArrayList<String>();
+   private ZipfSampler _gamePopularity;
+
+   private final CountDownLatch _start = new CountDownLatch(1);
+   private CountDownLatch _done;
+   private long _recordFromNanos;
+   private long _endNanos;
+
+   // orders the sessions placed, deleted at the end
+   private final ConcurrentLinkedQueue<String> _placed = new ConcurrentLinkedQueue<String>();
+
+   private LoadDriver(GameRental esql, long thinkMillis) {
+      this._esql = esql;
+      this._thinkMillis = thinkMillis;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java LoadDriver <dbname> <port> <user> [sessions] [seconds] [warm-up seconds] [think ms]");
+         return;
+      }//end if
+
+      int sessions = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+      int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 60;
+      int warmupSeconds = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+      long thinkMillis = args.length > 6 ? Long.parseLong(args[6]) : 0L;
+
+      GameRental esql = new GameRental(args[0], args[1], args[2], "");
+      LoadDriver driver = new LoadDriver(esql, thinkMillis);
+      try {
+         driver.run(sessions, seconds, warmupSeconds);
+      }finally {
+         for (String orderID : driver._placed) {
+            esql.executeUpdate("DELETE FROM RentalOrder WHERE rentalOrderID = ?", orderID);
+         }
+         esql.cleanup();
+      }//end try
+   }//end main
+
+   private void run(int sessions, int seconds, int warmupSeconds) throws Exception {
+      List<String[]> customers = new ArrayList<String[]>();
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+              "SELECT u.login, u.password FROM Users u WHERE EXISTS (SELECT 1 FROM RentalOrder r WHERE r.login = u.login) LIMIT ?", sessions)) {
+         customers.add(new String[] { row.get(0), row.get(1) });
+      }
+      List<String[]> managers = new ArrayList<String[]>();
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+              "SELECT login, password FROM Users WHERE role = ? LIMIT ?", Session.ROLE_MANAGER, sessions / 20 + 1)) {
+         managers.add(new String[] { row.get(0), row.get(1) });
+      }
+      for (List<String> row : this._esql.executeQueryAndReturnResult("SELECT rentalOrderID FROM RentalOrder LIMIT 10000")) {
+         this._orderIDs.add(row.get(0));
+      }
+      Random random = new Random(42);
+      for (CatalogCache.Game game : this._esql.getCatalogCache().all()) {
+         this._gameIDs.add(game.getGameID());
+         if (!this._genres.contains(game.getGenre())) {
+            this._genres.add(game.getGenre());
+         }
+         // substrings of real titles, so most searches match something
+         if (this._searches.size() < 256) {
+            String title = game.getGameName();
+            int length = Math.min(title.length(), 3 + random.nextInt(4));
+            int from = random.nextInt(title.length() - length + 1);
+            this._searches.add(title.substring(from, from + length));
+         }
+      }//end for
+      if (customers.isEmpty() || this._gameIDs.isEmpty()) {
+         throw new IllegalStateException("Load some users, orders and games first");
+      }
+      this._gamePopularity = new ZipfSampler(this._gameIDs.size(), 1.0);
+
+      Worker[] workers = new Worker[sessions];
+      for (int w = 0; w < sessions; w++) {
+         String[] credentials = w % 20 == 19 && !managers.isEmpty()
+            ? managers.get(w / 20 % managers.size())
+            : customers.get(w % customers.size());
+         workers[w] = new Worker(this, credentials, w);
+      }//end for
+      System.out.println(String.format("%d sessions (%d distinct customers, %d managers), %d s after a %d s warm-up, %d ms think time",
+                                       sessions, customers.size(), managers.size(), seconds, warmupSeconds, this._thinkMillis));
+
+      this._done = new CountDownLatch(sessions);
+      for (Worker worker : workers) {
+         Thread thread = new Thread(worker, "session");
+         thread.setDaemon(true);
+         thread.start();
+      }
+      long begin = System.nanoTime();
+      this._recordFromNanos = begin + warmupSeconds * 1000000000L;
+      this._endNanos = this._recordFromNanos + seconds * 1000000000L;
+      this._start.countDown();
+      this._done.await();
+      double measured = (System.nanoTime() - this._recordFromNanos) / 1e9;
+
+      long workflows = 0;
+      System.out.println(String.format("%-16s | %10s | %10s | %8s | %9s | %9s | %9s", "Operation", "calls", "ops/s", "errors", "p50 ms", "p99 ms", "p99.9 ms"));
+      System.out.println("-------------------------------------------------------------------------------------------");
+      for (int op = 0; op < OP_NAMES.length; op++) {
+         Microbench.Histogram latency = new Microbench.Histogram();
+         long errors = 0;
+         for (Worker worker : workers) {
+            latency.add(worker._latency[op]);
+            errors += worker._errors[op];
+         }
+         System.out.println(String.format("%-16s | %10d | %10.1f | %8d | %9.2f | %9.2f | %9.2f", OP_NAMES[op],
+                                          latency.getCount(), latency.getCount() / measured, errors,
+                                          latency.percentile(0.50) / 1e6, latency.percentile(0.99) / 1e6,
+                                          latency.percentile(0.999) / 1e6));
+      }//end for
+      for (Worker worker : workers) {
+         workflows += worker._workflows;
+      }
+      System.out.println(String.format("%d workflows in %.1f s: %.1f workflows/s", workflows, measured, workflows / measured));
+      System.out.println();
+      System.out.println("SQL statements per operation, warm-up included:");
+      QueryStats.printReport(System.out);
+   }//end run
+
+   /*
+    * The index whose cumulative weight first exceeds roll.
+    */
+   private static int pick(int[] weights, int roll) {
+      for (int i = 0; i < weights.length; i++) {
+         roll -= weights[i];
+         if (roll < 0) {
+            return i;
+         }
+      }//end for
+      return weights.length - 1;
+   }
+
+}//end LoadDriver
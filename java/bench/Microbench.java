@@ -0,0 +1,208 @@
+/**
+ * A small harness for timing one operation at a time, in the spirit of JMH
+ * (which the project cannot pull in without a build tool).
+ *
+ * Each benchmark first runs for a number of warm-up iterations, so the JIT
+ * has compiled the paths and caches and connections are warm, and then for a
+ * number of measured iterations of a fixed duration. Every call is timed
+ * into a log-linear histogram (at most ~6% error, fixed size however many
+ * calls there are), and every result goes into a sink the JIT cannot prove
+ * unused. The report is throughput as the mean and standard deviation over
+ * the measured iterations, plus per-call latency percentiles.
+ *
+ * One thread, one operation at a time: these are latencies of single calls,
+ * not throughput under load.
+ */
+public class Microbench {
+
+   /**
+    * The code being measured. The return value is consumed, so work that
+    * only feeds it is not optimized away.
+    */
+   public interface Operation {
+      Object run(int invocation) throws Exception;
+   }
+
+   /**
+    * What one benchmark measured.
+    */
+   public static class Result {
+      private final String _name;
+      private final long _operations;
+      private final double _opsPerSec;
+      private final double _opsPerSecStdDev;
+      private final Histogram _latency;
+
+      private Result(String name, long operations, double opsPerSec, double opsPerSecStdDev, Histogram latency) {
+         this._name = name;
+         this._operations = operations;
+         this._opsPerSec = opsPerSec;
+         this._opsPerSecStdDev = opsPerSecStdDev;
+         this._latency = latency;
+      }
+
+      public String getName() {
+         return this._name;
+      }
+
+      public long getOperations() {
+         return this._operations;
+      }
+
+      public double getOpsPerSec() {
+         return this._opsPerSec;
+      }
+
+      public double getOpsPerSecStdDev() {
+         return this._opsPerSecStdDev;
+      }
+
+      /**
+       * @param fraction e.g. 0.99 for the 99th percentile
+       * @return the latency of a call at that percentile, in microseconds
+       */
+      public double getLatencyMicros(double fraction) {
+         return this._latency.percentile(fraction) / 1e3;
+      }
+   }//end Result
+
+   // results are added here so the JIT cannot drop the operations
+   private static volatile long _sink = 0;
+
+   private final int _warmupIterations;
+   private final int _measurementIterations;
+   private final long _iterationNanos;
+
+   /**
+    * @param warmupIterations iterations run and thrown away first
+    * @param measurementIterations iterations that are measured
+    * @param iterationMillis how long each iteration runs
+    */
+   public Microbench(int warmupIterations, int measurementIterations, long iterationMillis) {
+      if (measurementIterations < 1 || iterationMillis < 1) {
+         throw new IllegalArgumentException("Need at least one measured iteration of at least 1 ms");
+      }
+      this._warmupIterations = Math.max(0, warmupIterations);
+      this._measurementIterations = measurementIterations;
+      this._iterationNanos = iterationMillis * 1000000L;
+   }//end Microbench
+
+   /**
+    * Warms up and measures one operation.
+    *
+    * @param name what the report calls it
+    * @param operation the code to time
+    * @return the measurements
+    * @throws java.lang.Exception whatever the operation throws; the benchmark stops there
+    */
+   public Result run(String name, Operation operation) throws Exception {
+      // start from a clean heap, so garbage from the last benchmark is not collected on this one's time
+      System.gc();
+
+      int invocation = 0;
+      for (int i = 0; i < this._warmupIterations; i++) {
+         invocation = iterate(operation, invocation, new Histogram(), new long[1]);
+      }
+
+      Histogram latency = new Histogram();
+      double[] opsPerSec = new double[this._measurementIterations];
+      long operations = 0;
+      for (int i = 0; i < this._measurementIterations; i++) {
+         long[] count = new long[1];
+         long start = System.nanoTime();
+         invocation = iterate(operation, invocation, latency, count);
+         opsPerSec[i] = count[0] / ((System.nanoTime() - start) / 1e9);
+         operations += count[0];
+      }//end for
+
+      double mean = 0;
+      for (double value : opsPerSec) {
+         mean += value / opsPerSec.length;
+      }
+      double variance = 0;
+      for (double value : opsPerSec) {
+         variance += (value - mean) * (value - mean);
+      }
+      double stdDev = opsPerSec.length > 1 ? Math.sqrt(variance / (opsPerSec.length - 1)) : 0;
+      return new Result(name, operations, mean, stdDev, latency);
+   }//end run
+
+   /*
+    * Calls the operation until the iteration time is up. Returns the next
+    * invocation number; count[0] gets the number of calls.
+    */
+   private int iterate(Operation operation, int invocation, Histogram latency, long[] count) throws Exception {
+      long end = System.nanoTime() + this._iterationNanos;
+      long now;
+      long sink = 0;
+      do {
+         long start = System.nanoTime();
+         Object result = operation.run(invocation++);
+         now = System.nanoTime();
+         latency.record(now - start);
+         sink += System.identityHashCode(result);
+         count[0]++;
+      } while (now < end);
+      _sink += sink;
+      return invocation;
+   }//end iterate
+
+   /*
+    * Counts values in buckets that double in width every 16 buckets, so the
+    * relative error stays under 1/16 from nanoseconds to hours. Not thread
+    * safe: give each thread its own and add() them up.
+    */
+   static class Histogram {
+      private static final int SUB_BUCKET_BITS = 4;
+      private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+      private final long[] _counts = new long[64 * SUB_BUCKETS];
+      private long _total = 0;
+
+      void record(long value) {
+         this._counts[bucket(Math.max(0, value))]++;
+         this._total++;
+      }
+
+      void add(Histogram other) {
+         for (int b = 0; b < this._counts.length; b++) {
+            this._counts[b] += other._counts[b];
+         }
+         this._total += other._total;
+      }
+
+      long getCount() {
+         return this._total;
+      }
+
+      double percentile(double fraction) {
+         long rank = (long) Math.ceil(fraction * this._total);
+         long seen = 0;
+         for (int b = 0; b < this._counts.length; b++) {
+            seen += this._counts[b];
+            if (seen >= rank && this._counts[b] > 0) {
+               return midpoint(b);
+            }
+         }//end for
+         return 0;
+      }//end percentile
+
+      private static int bucket(long value) {
+         if (value < SUB_BUCKETS) {
+            return (int) value;
+         }
+         int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+         return (exponent + 1) * SUB_BUCKETS + (int) ((value >>> exponent) - SUB_BUCKETS);
+      }
+
+      private static double midpoint(int bucket) {
+         if (bucket < SUB_BUCKETS) {
+            return bucket;
+         }
+         int exponent = bucket / SUB_BUCKETS - 1;
+         long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << exponent;
+         return low + ((1L << exponent) - 1) / 2.0;
+      }
+   }//end Histogram
+
+}//end Microbench
@@ -0,0 +1,168 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent writers placing rental orders, comparing the old client-side
+ * sequence (insert order, look up "my latest order" by login, insert games,
+ * insert tracking; all in autocommit) with one call to place_order().
+ *
+ * Several writers share each login on purpose. With the old sequence two
+ * writers for the same user can both pick up the newest order ID, so one
+ * order gets the other's games (or none). After each run every order placed
+ * is checked against the games its writer asked for, and mismatches are
+ * reported as cross-linked.
+ *
+ * Orders created by the benchmark are deleted at the end of each run.
+ *
+ * Usage: PlaceOrderBenchmark <dbname> <port> <user> [writers] [ordersPerWriter] [writersPerLogin]
+ */
+public class PlaceOrderBenchmark {
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java PlaceOrderBenchmark <dbname> <port> <user> [writers] [ordersPerWriter] [writersPerLogin]");
+         return;
+      }//end if
+
+      Class.forName("org.postgresql.Driver");
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      int writers = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+      int ordersPerWriter = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+      int writersPerLogin = args.length > 5 ? Integer.parseInt(args[5]) : 4;
+
+      ConnectionPool pool = new ConnectionPool(url, args[2], "", writers, writers, 60000L, 1000L, 60000L, 64);
+      try {
+         GameRental esql = new GameRental(pool);
+         List<String> gameIDs = new ArrayList<String>();
+         for (List<String> row : esql.executeQueryAndReturnResult("SELECT gameID FROM Catalog")) {
+            gameIDs.add(row.get(0));
+         }
+         List<String> logins = new ArrayList<String>();
+         for (List<String> row : esql.executeQueryAndReturnResult("SELECT login FROM Users ORDER BY login LIMIT ?",
+                                                                  (writers + writersPerLogin - 1) / writersPerLogin)) {
+            logins.add(row.get(0));
+         }
+
+         System.out.println(String.format("%-10s | %-8s | %-10s | %-12s | %-12s | %-8s", "Variant", "Writers", "Orders", "Orders/sec", "Cross-linked", "Errors"));
+         System.out.println("-----------------------------------------------------------------------------");
+         run("legacy", esql, logins, gameIDs, writers, ordersPerWriter, writersPerLogin);
+         run("function", esql, logins, gameIDs, writers, ordersPerWriter, writersPerLogin);
+      }finally {
+         pool.close();
+      }//end try
+   }//end main
+
+   private static void run(final String variant, final GameRental esql,
+                           final List<String> logins, final List<String> gameIDs,
+                           int writers, final int ordersPerWriter, int writersPerLogin) throws Exception {
+      // rentalOrderID -> the sorted game IDs its writer put in it
+      final Map<String, List<String>> placed = new ConcurrentHashMap<String, List<String>>();
+      final LongAdder errors = new LongAdder();
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(writers);
+
+      for (int w = 0; w < writers; w++) {
+         final String login = logins.get((w / writersPerLogin) % logins.size());
+         final long seed = w;
+         new Thread(new Runnable() {
+            public void run() {
+               Random random = new Random(seed);
+               try {
+                  start.await();
+                  for (int i = 0; i < ordersPerWriter; i++) {
+                     List<String> games = pickGames(random, gameIDs);
+                     Integer[] units = new Integer[games.size()];
+                     for (int g = 0; g < units.length; g++) {
+                        units[g] = 1 + random.nextInt(3);
+                     }
+                     try {
+                        String orderID = variant.equals("legacy")
+                           ? placeLegacy(esql, login, games, units)
+                           : esql.submitOrder(login, games.toArray(new String[0]), units)[0];
+                        placed.put(orderID, games);
+                     }catch (Exception e) {
+                        errors.increment();
+                     }//end try
+                  }//end for
+               }catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }finally {
+                  done.countDown();
+               }//end try
+            }
+         }).start();
+      }//end for
+
+      long begin = System.nanoTime();
+      start.countDown();
+      done.await();
+      double seconds = (System.nanoTime() - begin) / 1e9;
+
+      int crossLinked = 0;
+      for (Map.Entry<String, List<String>> order : placed.entrySet()) {
+         List<String> stored = new ArrayList<String>();
+         for (List<String> row : esql.executeQueryAndReturnResult("SELECT gameID FROM GamesInOrder WHERE rentalOrderID = ?", order.getKey())) {
+            stored.add(row.get(0));
+         }
+         Collections.sort(stored);
+         if (!stored.equals(order.getValue())) {
+            crossLinked++;
+         }
+      }//end for
+
+      System.out.println(String.format("%-10s | %-8d | %-10d | %-12.1f | %-12d | %-8d", variant, writers,
+                                       placed.size(), placed.size() / seconds, crossLinked, errors.sum()));
+
+      // also removes orders that errored halfway but still left a RentalOrder row
+      for (String login : logins) {
+         esql.executeUpdate("DELETE FROM RentalOrder WHERE login = ? AND orderTimestamp >= NOW() - (? * INTERVAL '1 second')",
+                            login, (int) Math.ceil(seconds) + 5);
+      }
+   }//end run
+
+   /*
+    * The sequence placeOrder used to run, statement for statement.
+    */
+   private static String placeLegacy(GameRental esql, String login, List<String> games, Integer[] units) throws Exception {
+      long cost = 0;
+      int totalGames = 0;
+      for (int i = 0; i < games.size(); i++) {
+         ColumnarResult price = esql.executeQueryAndReturnColumns("SELECT c.price FROM catalog AS c WHERE c.gameID = ?", games.get(i));
+         cost += price.getCents(0, 0) * units[i];
+         totalGames += units[i];
+      }
+      esql.executeUpdate("INSERT INTO RentalOrder(login, noOfGames, totalPrice) VALUES(?, ?, ?)",
+                         login, totalGames, ColumnarResult.fromCents(cost));
+      List<List<String>> rentalID = esql.executeQueryAndReturnResult(
+         "SELECT r.rentalOrderID FROM rentalOrder AS r WHERE login = ? ORDER BY r.orderTimestamp DESC LIMIT 1", login);
+      String orderID = rentalID.get(0).get(0);
+      for (int i = 0; i < games.size(); i++) {
+         esql.executeUpdate("INSERT INTO GamesInOrder(rentalOrderId, gameID, unitsOrdered) VALUES(?, ?, ?)",
+                            orderID, games.get(i), units[i]);
+      }
+      esql.executeUpdate("INSERT INTO TrackingInfo(rentalOrderID) VALUES(?)", orderID);
+      return orderID;
+   }//end placeLegacy
+
+   /*
+    * 1 to 4 distinct games, sorted so they compare equal to what is read back.
+    */
+   private static List<String> pickGames(Random random, List<String> gameIDs) {
+      Map<String, Boolean> picked = new HashMap<String, Boolean>();
+      int count = 1 + random.nextInt(4);
+      while (picked.size() < count) {
+         picked.put(gameIDs.get(random.nextInt(gameIDs.size())), Boolean.TRUE);
+      }
+      List<String> games = new ArrayList<String>(picked.keySet());
+      Collections.sort(games);
+      return games;
+   }
+
+}//end PlaceOrderBenchmark
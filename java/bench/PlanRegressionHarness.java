@@ -0,0 +1,406 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the query plans of the statements GameRental runs against a scaled
+ * copy of the data.
+ *
+ * The harness builds a scratch schema, plan_check, from create_tables.sql,
+ * fills it with the loaded data repeated scale times (100 by default; copies
+ * get a _k suffix on their keys, so foreign keys still line up), builds the
+ * indexes of create_indexes.sql and analyzes it. The public tables are only
+ * read. Every query shape then runs under EXPLAIN (ANALYZE, BUFFERS) with a
+ * handful of sample parameters, and the run fails if
+ *
+ *    - a plan reads a table with a sequential scan, unless the shape has to
+ *      read the whole table anyway, or
+ *    - the median execution time or buffer count of a shape grew past the
+ *      baseline file by more than the tolerance below.
+ *
+ * If the baseline file does not exist, this run's numbers are written to it
+ * and the run passes; delete the file to take a new baseline. The exit code
+ * is 1 on any failure, so the harness can gate a build.
+ *
+ * Usage: PlanRegressionHarness <dbname> <port> <user> <sql dir> [scale] [baseline file]
+ */
+public class PlanRegressionHarness {
+
+   /*
+    * A statement as GameRental sends it, and the query that picks its sample
+    * parameters from the scratch schema, one row per run. The samples are
+    * bound with the types they are selected as, so a LIMIT ? takes an int.
+    */
+   private static class Shape {
+      private final String _name;
+      private final String _sql;
+      private final String _samples;
+      private final boolean _fullScan;
+
+      private Shape(String name, String sql, String samples, boolean fullScan) {
+         this._name = name;
+         this._sql = sql;
+         this._samples = samples;
+         this._fullScan = fullScan;
+      }
+   }//end Shape
+
+   private static final String SCHEMA = "plan_check";
+
+   // runs per shape; the median is compared
+   private static final int RUNS = 15;
+
+   // a shape regresses if it is both this many times and this much worse than the baseline
+   private static final double TOLERANCE = 1.5;
+   private static final double SLACK_MS = 0.25;
+   private static final long SLACK_BUFFERS = 8;
+
+   private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+   private static final Pattern ACCESS = Pattern.compile("((?:Parallel )?(?:Seq|Index Only|Index|Bitmap Index|Bitmap Heap) Scan(?: Backward)?)(?: using (\\w+))? on (\\w+)");
+   private static final Pattern BUFFERS = Pattern.compile("Buffers: shared(?: hit=(\\d+))?(?: read=(\\d+))?");
+   private static final Pattern EXECUTION = Pattern.compile("Execution Time: ([0-9.]+) ms");
+
+   // the statements themselves, not copies: a change to one is checked on the next run
+   private static final Shape[] SHAPES = {
+      new Shape("login",
+                Session.LOGIN_QUERY,
+                "SELECT login, password FROM Users ORDER BY md5(login) LIMIT " + RUNS, false),
+      new Shape("profile",
+                Session.RELOAD_QUERY,
+                "SELECT login FROM Users ORDER BY md5(login) LIMIT " + RUNS, false),
+      new Shape("order page",
+                OrderHistory.FIRST_QUERY,
+                "SELECT login, 11 FROM RentalOrder ORDER BY md5(rentalOrderID) LIMIT " + RUNS, false),
+      new Shape("older page",
+                OrderHistory.OLDER_QUERY,
+                "SELECT login, dueDate::text, rentalOrderID, 11 FROM RentalOrder ORDER BY md5(rentalOrderID) LIMIT " + RUNS, false),
+      new Shape("newer page",
+                OrderHistory.NEWER_QUERY,
+                "SELECT login, dueDate::text, rentalOrderID, 11 FROM RentalOrder ORDER BY md5(rentalOrderID) LIMIT " + RUNS, false),
+      new Shape("recent orders",
+                GameRental.RECENT_ORDERS_QUERY,
+                "SELECT login FROM RentalOrder ORDER BY md5(rentalOrderID) LIMIT " + RUNS, false),
+      new Shape("order details",
+                GameRental.ORDER_DETAILS_QUERY,
+                "SELECT rentalOrderID FROM RentalOrder ORDER BY md5(rentalOrderID) LIMIT " + RUNS, false),
+      new Shape("tracking by id",
+                GameRental.TRACKING_BY_ID_QUERY,
+                "SELECT t.trackingID, r.login FROM TrackingInfo t JOIN RentalOrder r ON r.rentalOrderID = t.rentalOrderID "
+                + "ORDER BY md5(t.trackingID) LIMIT " + RUNS, false),
+      new Shape("tracking by order",
+                GameRental.TRACKING_BY_ORDER_QUERY,
+                "SELECT rentalOrderID FROM RentalOrder ORDER BY md5(rentalOrderID) LIMIT " + RUNS, false),
+      new Shape("update tracking",
+                GameRental.UPDATE_TRACKING_QUERY,
+                "SELECT courierName, currentLocation, status, additionalComments, trackingID FROM TrackingInfo "
+                + "ORDER BY md5(trackingID) LIMIT " + RUNS, false),
+      new Shape("update game",
+                GameRental.UPDATE_GAME_QUERY,
+                "SELECT gameName, genre, price, description, imageURL, gameID FROM Catalog ORDER BY md5(gameID) LIMIT " + RUNS, false),
+      new Shape("game by id",
+                GameRental.GAME_BY_ID_QUERY,
+                "SELECT gameID FROM Catalog ORDER BY md5(gameID) LIMIT " + RUNS, false),
+      new Shape("games by ids",
+                CatalogCache.GAMES_BY_ID_QUERY,
+                "SELECT ARRAY(SELECT gameID FROM Catalog ORDER BY md5(gameID || s) LIMIT 5)::text FROM generate_series(1, " + RUNS + ") s", false),
+      new Shape("title search",
+                GameRental.TITLE_SEARCH_QUERY,
+                "SELECT '%' || w || '%', w FROM (SELECT substr(gameName, 2, 5) AS w FROM Catalog "
+                + "ORDER BY md5(gameID) LIMIT " + RUNS + ") s", false),
+      new Shape("login list",
+                LoginSearch.ALL_QUERY,
+                "SELECT login, 21 FROM Users ORDER BY md5(login) LIMIT " + RUNS, false),
+      new Shape("login prefix",
+                LoginSearch.PREFIX_QUERY,
+                "SELECT p, substr(p, 1, 2) || chr(ascii(substr(p, 3, 1)) + 1), '', 21 FROM (SELECT substr(login, 1, 3) AS p FROM Users "
+                + "ORDER BY md5(login) LIMIT " + RUNS + ") s", false),
+      new Shape("login contains",
+                LoginSearch.SUBSTRING_QUERY,
+                "SELECT '%' || p || '%', p, substr(p, 1, 3) || chr(ascii(substr(p, 4, 1)) + 1), '', 21 FROM (SELECT substr(login, 3, 4) AS p FROM Users "
+                + "ORDER BY md5(login) LIMIT " + RUNS + ") s", false),
+      // the genre dictionary and the catalog cache read every game by design; the genre TTL
+      // and the cache keep them rare
+      new Shape("genres",
+                GenreDictionary.GENRES_QUERY,
+                "SELECT FROM generate_series(1, " + RUNS + ")", true),
+      new Shape("catalog",
+                CatalogCache.SELECT_GAMES,
+                "SELECT FROM generate_series(1, " + RUNS + ")", true),
+   };
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java PlanRegressionHarness <dbname> <port> <user> <sql dir> [scale] [baseline file]");
+         return;
+      }//end if
+
+      Class.forName("org.postgresql.Driver");
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      File sqlDir = new File(args[3]);
+      int scale = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+      File baselineFile = args.length > 5 ? new File(args[5]) : null;
+
+      Properties baseline = new Properties();
+      if (baselineFile != null && baselineFile.exists()) {
+         FileReader reader = new FileReader(baselineFile);
+         try {
+            baseline.load(reader);
+         }finally {
+            reader.close();
+         }//end try
+      }//end if
+      boolean writeBaseline = baselineFile != null && !baselineFile.exists();
+
+      Connection conn = DriverManager.getConnection(url, args[2], "");
+      int failures = 0;
+      Properties measured = new Properties();
+      try {
+         long buildStart = System.nanoTime();
+         buildSchema(conn, sqlDir, scale);
+         System.out.println(String.format("built %s at scale %d in %.1f s", SCHEMA, scale, (System.nanoTime() - buildStart) / 1e9));
+
+         System.out.println(String.format("%-17s | %9s | %8s | %-6s | %s", "Shape", "p50 (ms)", "buffers", "result", "access paths"));
+         System.out.println("--------------------------------------------------------------------------------------------");
+         for (Shape shape : SHAPES) {
+            List<Object[]> samples = rows(conn, shape._samples);
+            double[] millis = new double[samples.size()];
+            long[] buffers = new long[samples.size()];
+            List<String> problems = new ArrayList<String>();
+            String paths = "";
+            List<String> badPlan = null;
+            for (int i = 0; i < samples.size(); i++) {
+               List<String> plan = explain(conn, shape._sql, samples.get(i));
+               millis[i] = executionMillis(plan);
+               buffers[i] = rootBuffers(plan);
+               paths = accessPaths(plan);
+               Matcher seqScan = SEQ_SCAN.matcher(String.join("\n", plan));
+               if (!shape._fullScan && seqScan.find() && badPlan == null) {
+                  problems.add("sequential scan on " + seqScan.group(1));
+                  badPlan = plan;
+               }
+            }//end for
+            conn.rollback(); // undo what the update shapes changed
+
+            Arrays.sort(millis);
+            Arrays.sort(buffers);
+            double p50 = millis[millis.length / 2];
+            long p50Buffers = buffers[buffers.length / 2];
+            String key = shape._name.replace(' ', '_');
+            measured.setProperty(key + ".ms", String.format("%.3f", p50));
+            measured.setProperty(key + ".buffers", Long.toString(p50Buffers));
+
+            String baseMillis = baseline.getProperty(key + ".ms");
+            if (baseMillis != null) {
+               double limit = Math.max(Double.parseDouble(baseMillis) * TOLERANCE, Double.parseDouble(baseMillis) + SLACK_MS);
+               if (p50 > limit) {
+                  problems.add(String.format("p50 %.3f ms over the %.3f ms limit (baseline %s ms)", p50, limit, baseMillis));
+               }
+            }//end if
+            String baseBuffers = baseline.getProperty(key + ".buffers");
+            if (baseBuffers != null) {
+               long limit = Math.max((long) (Long.parseLong(baseBuffers) * TOLERANCE), Long.parseLong(baseBuffers) + SLACK_BUFFERS);
+               if (p50Buffers > limit) {
+                  problems.add(String.format("%d buffers over the %d limit (baseline %s)", p50Buffers, limit, baseBuffers));
+               }
+            }//end if
+
+            System.out.println(String.format("%-17s | %9.3f | %8d | %-6s | %s", shape._name, p50, p50Buffers,
+                                             problems.isEmpty() ? "ok" : "FAIL", paths));
+            for (String problem : problems) {
+               System.out.println("      " + problem);
+            }
+            if (badPlan != null) {
+               for (String line : badPlan) {
+                  System.out.println("      | " + line);
+               }
+            }//end if
+            failures += problems.isEmpty() ? 0 : 1;
+         }//end for
+      }finally {
+         dropSchema(conn);
+         conn.close();
+      }//end try
+
+      if (writeBaseline) {
+         FileWriter writer = new FileWriter(baselineFile);
+         try {
+            measured.store(writer, "PlanRegressionHarness baseline, scale " + scale);
+         }finally {
+            writer.close();
+         }//end try
+         System.out.println("wrote baseline " + baselineFile);
+      }//end if
+
+      if (failures > 0) {
+         System.out.println(failures + " of " + SHAPES.length + " shapes failed");
+         System.exit(1);
+      }
+      System.out.println("all " + SHAPES.length + " shapes passed");
+   }//end main
+
+   /*
+    * Creates the scratch schema from the project's own DDL, copies the data
+    * in scale times and indexes it. Statements run with the scratch schema
+    * first on the search path (public stays on it for pg_trgm); DROP
+    * statements are skipped, since one that found nothing in the fresh schema
+    * would go on to drop from public.
+    */
+   private static void buildSchema(Connection conn, File sqlDir, int scale) throws Exception {
+      conn.setAutoCommit(true);
+      Statement stmt = conn.createStatement();
+      try {
+         stmt.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+         stmt.execute("CREATE SCHEMA " + SCHEMA);
+         stmt.execute("SET search_path TO " + SCHEMA + ", public");
+         runScript(stmt, new File(sqlDir, "create_tables.sql"));
+
+         // k = 0 is the original row, the others get a _k suffix on every key
+         String copies = "(SELECT k, CASE WHEN k = 0 THEN '' ELSE '_' || k END AS sfx FROM generate_series(0, " + (scale - 1) + ") k) s";
+         stmt.execute("INSERT INTO Users SELECT u.login || s.sfx, u.password, u.role, u.favGames, u.phoneNum, u.numOverDueGames "
+                      + "FROM public.Users u, " + copies);
+         stmt.execute("INSERT INTO Catalog SELECT c.gameID || s.sfx, c.gameName || CASE WHEN s.k = 0 THEN '' ELSE ' Vol. ' || s.k END, "
+                      + "c.genre, c.price, c.description, c.imageURL FROM public.Catalog c, " + copies);
+         stmt.execute("INSERT INTO RentalOrder SELECT r.rentalOrderID || s.sfx, r.login || s.sfx, r.noOfGames, r.totalPrice, "
+                      + "r.orderTimestamp, r.dueDate FROM public.RentalOrder r, " + copies);
+         stmt.execute("INSERT INTO TrackingInfo SELECT t.trackingID || s.sfx, t.rentalOrderID || s.sfx, t.status, t.currentLocation, "
+                      + "t.courierName, t.lastUpdateDate, t.additionalComments FROM public.TrackingInfo t, " + copies);
+         stmt.execute("INSERT INTO GamesInOrder SELECT g.rentalOrderID || s.sfx, g.gameID || s.sfx, g.unitsOrdered "
+                      + "FROM public.GamesInOrder g, " + copies);
+
+         runScript(stmt, new File(sqlDir, "create_indexes.sql"));
+         for (String table : new String[] { "Users", "Catalog", "RentalOrder", "TrackingInfo", "GamesInOrder" }) {
+            stmt.execute("VACUUM ANALYZE " + table);
+         }
+      }finally {
+         stmt.close();
+      }//end try
+      conn.setAutoCommit(false);
+   }//end buildSchema
+
+   private static void dropSchema(Connection conn) {
+      try {
+         conn.rollback();
+         conn.setAutoCommit(true);
+         Statement stmt = conn.createStatement();
+         try {
+            stmt.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+         }finally {
+            stmt.close();
+         }//end try
+      } catch (SQLException e) {
+         System.err.println("Could not drop schema " + SCHEMA + ": " + e.getMessage());
+      }//end try
+   }//end dropSchema
+
+   private static void runScript(Statement stmt, File script) throws Exception {
+      StringBuilder text = new StringBuilder();
+      BufferedReader reader = new BufferedReader(new FileReader(script));
+      try {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (!line.trim().startsWith("--")) {
+               text.append(line).append('\n');
+            }
+         }//end while
+      }finally {
+         reader.close();
+      }//end try
+      for (String sql : text.toString().split(";")) {
+         sql = sql.trim();
+         if (!sql.isEmpty() && !sql.toUpperCase().startsWith("DROP ")) {
+            stmt.execute(sql);
+         }
+      }//end for
+   }//end runScript
+
+   private static List<String> explain(Connection conn, String sql, Object[] params) throws SQLException {
+      PreparedStatement stmt = conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+      try {
+         for (int i = 0; i < params.length; i++) {
+            stmt.setObject(i + 1, params[i]);
+         }
+         List<String> plan = new ArrayList<String>();
+         ResultSet rs = stmt.executeQuery();
+         while (rs.next()) {
+            plan.add(rs.getString(1));
+         }
+         return plan;
+      }finally {
+         stmt.close();
+      }//end try
+   }//end explain
+
+   private static List<Object[]> rows(Connection conn, String sql) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(sql);
+         ResultSetMetaData meta = rs.getMetaData();
+         List<Object[]> rows = new ArrayList<Object[]>();
+         while (rs.next()) {
+            Object[] row = new Object[meta.getColumnCount()];
+            for (int i = 0; i < row.length; i++) {
+               row[i] = rs.getObject(i + 1);
+            }
+            rows.add(row);
+         }//end while
+         return rows;
+      }finally {
+         stmt.close();
+      }//end try
+   }//end rows
+
+   private static double executionMillis(List<String> plan) {
+      for (String line : plan) {
+         Matcher m = EXECUTION.matcher(line);
+         if (m.find()) {
+            return Double.parseDouble(m.group(1));
+         }
+      }//end for
+      return 0;
+   }
+
+   /*
+    * Shared buffers hit and read by the whole plan: the first Buffers line,
+    * which belongs to the root node and includes its children.
+    */
+   private static long rootBuffers(List<String> plan) {
+      for (String line : plan) {
+         Matcher m = BUFFERS.matcher(line);
+         if (m.find()) {
+            long hit = m.group(1) == null ? 0 : Long.parseLong(m.group(1));
+            long read = m.group(2) == null ? 0 : Long.parseLong(m.group(2));
+            return hit + read;
+         }
+      }//end for
+      return 0;
+   }//end rootBuffers
+
+   private static String accessPaths(List<String> plan) {
+      List<String> paths = new ArrayList<String>();
+      for (String line : plan) {
+         Matcher m = ACCESS.matcher(line);
+         if (m.find()) {
+            String path = m.group(2) != null ? m.group(2) : m.group(1) + " " + m.group(3);
+            if (!paths.contains(path)) {
+               paths.add(path);
+            }
+         }
+      }//end for
+      return String.join(", ", paths);
+   }//end accessPaths
+
+}//end PlanRegressionHarness
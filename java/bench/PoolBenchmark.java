@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures query throughput through GameRental for a range of connection
+ * pool sizes. A fixed number of worker threads hammer the read paths used by
+ * the login and catalog screens; with a single connection they serialize on
+ * it, with a larger pool they run side by side on the server.
+ *
+ * Usage: PoolBenchmark <dbname> <port> <user> [threads] [seconds] [sizes]
+ *    e.g. PoolBenchmark mydb 5432 me 32 10 1,2,4,8,16
+ */
+public class PoolBenchmark {
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java PoolBenchmark <dbname> <port> <user> [threads] [seconds] [sizes]");
+         return;
+      }//end if
+
+      Class.forName("org.postgresql.Driver");
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      String user = args[2];
+      int threads = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+      int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+      String sizes = args.length > 5 ? args[5] : "1,2,4,8,16";
+
+      System.out.println(String.format("%-10s | %-8s | %-14s | %-14s", "Pool Size", "Threads", "Ops/sec", "Mean (us)"));
+      System.out.println("-------------------------------------------------------");
+      for (String size : sizes.split(",")) {
+         int poolSize = Integer.parseInt(size.trim());
+         ConnectionPool pool = new ConnectionPool(url, user, "", poolSize, poolSize,
+                                                  60000L, 1000L, 60000L, 64);
+         try {
+            GameRental esql = new GameRental(pool);
+            List<String> gameIDs = loadGameIDs(esql);
+            List<String> logins = loadLogins(esql);
+
+            run(esql, gameIDs, logins, threads, 2);  // warm up statement caches and the JIT
+            long[] result = run(esql, gameIDs, logins, threads, seconds);
+            double opsPerSec = result[0] / (double) seconds;
+            double meanMicros = result[0] == 0 ? 0.0 : result[1] / 1000.0 / result[0];
+            System.out.println(String.format("%-10d | %-8d | %-14.1f | %-14.1f", poolSize, threads, opsPerSec, meanMicros));
+         }finally {
+            pool.close();
+         }//end try
+      }//end for
+   }//end main
+
+   /*
+    * Runs the workload for the given duration. Returns {operations, total nanos}.
+    */
+   private static long[] run(final GameRental esql, final List<String> gameIDs, final List<String> logins,
+                             int threads, int seconds) throws InterruptedException {
+      final LongAdder ops = new LongAdder();
+      final LongAdder nanos = new LongAdder();
+      final long deadline = System.nanoTime() + seconds * 1000000000L;
+      final CountDownLatch done = new CountDownLatch(threads);
+
+      for (int t = 0; t < threads; t++) {
+         Thread worker = new Thread(new Runnable() {
+            public void run() {
+               ThreadLocalRandom random = ThreadLocalRandom.current();
+               try {
+                  while (System.nanoTime() < deadline) {
+                     long start = System.nanoTime();
+                     String gameID = gameIDs.get(random.nextInt(gameIDs.size()));
+                     String login = logins.get(random.nextInt(logins.size()));
+                     esql.executeQueryAndReturnResult("SELECT c.price FROM catalog AS c WHERE c.gameID = ?", gameID);
+                     esql.executeQuery("SELECT role FROM Users WHERE login = ? AND role = 'manager'", login);
+                     nanos.add(System.nanoTime() - start);
+                     ops.increment();
+                  }//end while
+               }catch (Exception e) {
+                  System.err.println("Worker failed: " + e.getMessage());
+               }finally {
+                  done.countDown();
+               }//end try
+            }
+         });
+         worker.start();
+      }//end for
+
+      done.await();
+      return new long[] { ops.sum(), nanos.sum() };
+   }//end run
+
+   private static List<String> loadGameIDs(GameRental esql) throws Exception {
+      List<String> ids = new ArrayList<String>();
+      for (List<String> row : esql.executeQueryAndReturnResult("SELECT gameID FROM Catalog")) {
+         ids.add(row.get(0));
+      }
+      return ids;
+   }
+
+   private static List<String> loadLogins(GameRental esql) throws Exception {
+      List<String> logins = new ArrayList<String>();
+      for (List<String> row : esql.executeQueryAndReturnResult("SELECT login FROM Users")) {
+         logins.add(row.get(0));
+      }
+      return logins;
+   }
+
+}//end PoolBenchmark
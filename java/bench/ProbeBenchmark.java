@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares per-call latency of the existence probes used by CreateUser,
+ * LogIn, isValidGame and the manager role checks. The "before" column is the
+ * old shape (select the rows, count them client side with executeQuery); the
+ * "after" column is the same predicate through exists() or count().
+ *
+ * Usage: ProbeBenchmark <dbname> <port> <user> [iterations]
+ */
+public class ProbeBenchmark {
+
+   private interface Probe {
+      void run(GameRental esql, String login, String gameID) throws Exception;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java ProbeBenchmark <dbname> <port> <user> [iterations]");
+         return;
+      }//end if
+
+      Class.forName("org.postgresql.Driver");
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+
+      ConnectionPool pool = new ConnectionPool(url, args[2], "", 1, 1, 60000L, 1000L, 60000L, 64);
+      try {
+         GameRental esql = new GameRental(pool);
+         List<String> logins = column(esql, "SELECT login FROM Users");
+         List<String> gameIDs = column(esql, "SELECT gameID FROM Catalog");
+
+         System.out.println(String.format("%-22s | %-8s | %10s | %10s | %10s", "Probe", "Variant", "mean (us)", "p50 (us)", "p99 (us)"));
+         System.out.println("---------------------------------------------------------------------");
+
+         measure("user exists", "before", esql, logins, gameIDs, iterations, new Probe() {
+            public void run(GameRental esql, String login, String gameID) throws Exception {
+               esql.executeQuery("SELECT u.login FROM Users AS u WHERE u.login = ?", login);
+            }
+         });
+         measure("user exists", "after", esql, logins, gameIDs, iterations, new Probe() {
+            public void run(GameRental esql, String login, String gameID) throws Exception {
+               esql.exists("SELECT 1 FROM Users AS u WHERE u.login = ?", login);
+            }
+         });
+         measure("game exists", "before", esql, logins, gameIDs, iterations, new Probe() {
+            public void run(GameRental esql, String login, String gameID) throws Exception {
+               esql.executeQuery("SELECT c.gameID FROM catalog AS c WHERE c.gameID = ?", gameID);
+            }
+         });
+         measure("game exists", "after", esql, logins, gameIDs, iterations, new Probe() {
+            public void run(GameRental esql, String login, String gameID) throws Exception {
+               esql.exists("SELECT 1 FROM catalog AS c WHERE c.gameID = ?", gameID);
+            }
+         });
+         measure("is manager", "before", esql, logins, gameIDs, iterations, new Probe() {
+            public void run(GameRental esql, String login, String gameID) throws Exception {
+               esql.executeQuery("SELECT role FROM Users WHERE login = ? AND role = 'manager'", login);
+            }
+         });
+         measure("is manager", "after", esql, logins, gameIDs, iterations, new Probe() {
+            public void run(GameRental esql, String login, String gameID) throws Exception {
+               esql.exists("SELECT 1 FROM Users WHERE login = ? AND role = 'manager'", login);
+            }
+         });
+         measure("orders of user", "before", esql, logins, gameIDs, iterations / 10, new Probe() {
+            public void run(GameRental esql, String login, String gameID) throws Exception {
+               esql.executeQuery("SELECT * FROM RentalOrder WHERE login = ?", login);
+            }
+         });
+         measure("orders of user", "after", esql, logins, gameIDs, iterations / 10, new Probe() {
+            public void run(GameRental esql, String login, String gameID) throws Exception {
+               esql.count("SELECT 1 FROM RentalOrder WHERE login = ?", login);
+            }
+         });
+      }finally {
+         pool.close();
+      }//end try
+   }//end main
+
+   private static void measure(String name, String variant, GameRental esql,
+                               List<String> logins, List<String> gameIDs,
+                               int iterations, Probe probe) throws Exception {
+      Random random = new Random(42);
+      // warm up the statement cache, server-side prepare and the JIT
+      for (int i = 0; i < Math.min(iterations, 1000); i++) {
+         probe.run(esql, logins.get(random.nextInt(logins.size())), gameIDs.get(random.nextInt(gameIDs.size())));
+      }
+
+      long[] samples = new long[iterations];
+      long total = 0;
+      for (int i = 0; i < iterations; i++) {
+         String login = logins.get(random.nextInt(logins.size()));
+         String gameID = gameIDs.get(random.nextInt(gameIDs.size()));
+         long start = System.nanoTime();
+         probe.run(esql, login, gameID);
+         samples[i] = System.nanoTime() - start;
+         total += samples[i];
+      }//end for
+
+      Arrays.sort(samples);
+      System.out.println(String.format("%-22s | %-8s | %10.1f | %10.1f | %10.1f", name, variant,
+                                       total / 1000.0 / iterations,
+                                       samples[iterations / 2] / 1000.0,
+                                       samples[(int) (iterations * 0.99)] / 1000.0));
+   }//end measure
+
+   private static List<String> column(GameRental esql, String query) throws Exception {
+      List<String> values = new ArrayList<String>();
+      for (List<String> row : esql.executeQueryAndReturnResult(query)) {
+         values.add(row.get(0));
+      }
+      return values;
+   }
+
+}//end ProbeBenchmark
@@ -0,0 +1,175 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares case-insensitive title substring search over a catalog blown up
+ * to a multiple of data/catalog.csv (100x by default). The "scan" column is
+ * what LIKE '%...%' without a usable index does: test every title. The
+ * "trigram" column is TitleIndex. Both must return the same titles.
+ *
+ * Runs in memory; no database needed.
+ *
+ * Usage: TitleSearchBenchmark <catalog.csv> [scale] [iterations]
+ */
+public class TitleSearchBenchmark {
+
+   private interface Search {
+      int run(String query);
+   }
+
+   // results are added here so the JIT cannot drop the searches
+   private static volatile long _sink = 0;
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 1) {
+         System.err.println("Usage: java TitleSearchBenchmark <catalog.csv> [scale] [iterations]");
+         return;
+      }//end if
+
+      int scale = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+      int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+      List<String> base = readTitles(args[0]);
+      final List<String> titles = new ArrayList<String>(base.size() * scale);
+      List<String> keys = new ArrayList<String>(base.size() * scale);
+      for (int k = 0; k < scale; k++) {
+         for (String title : base) {
+            titles.add(k == 0 ? title : title + " Vol. " + k);
+            keys.add(Integer.toString(keys.size()));
+         }//end for
+      }//end for
+
+      long buildStart = System.nanoTime();
+      final TitleIndex index = new TitleIndex(keys, titles);
+      long buildNanos = System.nanoTime() - buildStart;
+      System.out.println(String.format("%d titles (%d x %d), %d trigrams, built in %.1f ms",
+                                       titles.size(), base.size(), scale, index.getTrigramCount(), buildNanos / 1e6));
+
+      final String[] folded = new String[titles.size()];
+      for (int i = 0; i < folded.length; i++) {
+         folded[i] = TitleIndex.fold(titles.get(i));
+      }//end for
+
+      // substrings of real titles, so most queries match something
+      Random random = new Random(42);
+      List<String> queries = new ArrayList<String>();
+      queries.addAll(Arrays.asList("mario", "Zelda", "of the", "WAR", "star wars", "xyzzy"));
+      while (queries.size() < 200) {
+         String title = base.get(random.nextInt(base.size()));
+         int length = 3 + random.nextInt(6);
+         if (title.length() > length) {
+            int start = random.nextInt(title.length() - length);
+            queries.add(title.substring(start, start + length));
+         }
+      }//end while
+
+      // both must agree before timing anything
+      for (String query : queries) {
+         HashSet<String> scanned = new HashSet<String>();
+         String needle = TitleIndex.fold(query);
+         for (int i = 0; i < folded.length; i++) {
+            if (folded[i].contains(needle)) {
+               scanned.add(Integer.toString(i));
+            }
+         }//end for
+         if (!scanned.equals(new HashSet<String>(index.search(query, 0)))) {
+            throw new IllegalStateException("Results differ for query '" + query + "'");
+         }
+      }//end for
+
+      System.out.println(String.format("%-10s | %10s | %10s | %10s", "Variant", "mean (us)", "p50 (us)", "p99 (us)"));
+      System.out.println("-----------------------------------------------------");
+      measure("scan", queries, iterations, new Search() {
+         public int run(String query) {
+            String needle = TitleIndex.fold(query);
+            int matches = 0;
+            for (String title : folded) {
+               if (title.contains(needle)) {
+                  matches++;
+               }
+            }
+            return matches;
+         }
+      });
+      measure("trigram", queries, iterations, new Search() {
+         public int run(String query) {
+            return index.search(query, 0).size();
+         }
+      });
+   }//end main
+
+   private static void measure(String variant, List<String> queries, int iterations, Search search) {
+      Random random = new Random(7);
+      // warm up the JIT
+      for (int i = 0; i < Math.min(iterations, 2000); i++) {
+         _sink += search.run(queries.get(random.nextInt(queries.size())));
+      }
+
+      long[] samples = new long[iterations];
+      long total = 0;
+      for (int i = 0; i < iterations; i++) {
+         String query = queries.get(random.nextInt(queries.size()));
+         long start = System.nanoTime();
+         _sink += search.run(query);
+         samples[i] = System.nanoTime() - start;
+         total += samples[i];
+      }//end for
+
+      Arrays.sort(samples);
+      System.out.println(String.format("%-10s | %10.1f | %10.1f | %10.1f", variant,
+                                       total / 1000.0 / iterations,
+                                       samples[iterations / 2] / 1000.0,
+                                       samples[(int) (iterations * 0.99)] / 1000.0));
+   }//end measure
+
+   /*
+    * The gameName column of a catalog CSV export (header row, quoted fields).
+    */
+   static List<String> readTitles(String path) throws Exception {
+      List<String> titles = new ArrayList<String>();
+      BufferedReader reader = new BufferedReader(new FileReader(path));
+      try {
+         reader.readLine(); // header
+         String line;
+         while ((line = reader.readLine()) != null) {
+            List<String> fields = splitCsv(line);
+            if (fields.size() > 1) {
+               titles.add(fields.get(1));
+            }
+         }//end while
+      }finally {
+         reader.close();
+      }//end try
+      return titles;
+   }//end readTitles
+
+   private static List<String> splitCsv(String line) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); i++) {
+         char c = line.charAt(i);
+         if (c == '"') {
+            if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+               field.append('"');
+               i++;
+            } else {
+               quoted = !quoted;
+            }
+         } else if (c == ',' && !quoted) {
+            fields.add(field.toString());
+            field.setLength(0);
+         } else {
+            field.append(c);
+         }
+      }//end for
+      fields.add(field.toString());
+      return fields;
+   }//end splitCsv
+
+}//end TitleSearchBenchmark
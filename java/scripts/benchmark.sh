@@ -0,0 +1,18 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+if [ $# -lt 1 ]; then
+   echo "Usage: $0 <BenchmarkClass> [args...]"
+   exit 1
+fi
+
+# compile the program together with the benchmarks
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java $DIR/../bench/*.java
+
+#run the benchmark
+#Use your database name, port number and login as arguments, e.g.
+#  $0 PoolBenchmark $USER"_project_phase_3_DB" $PGPORT $USER
+#  $0 PlanRegressionHarness $USER"_project_phase_3_DB" $PGPORT $USER sql/src 100 plan-baseline.properties
+#  $0 DataAccessBenchmark $USER"_project_phase_3_DB" $PGPORT $USER bench-baseline.properties
+#  $0 -Dgamerental.pool.maxSize=16 LoadDriver $USER"_project_phase_3_DB" $PGPORT $USER 200 60
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar "$@"
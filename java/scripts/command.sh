@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#run commands without the menus, e.g.
+#  $0 --as <login> <password> orders limit=5
+#  $0 --format csv --file commands.txt
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar CommandRunner $USER"_project_phase_3_DB" $PGPORT $USER "$@"
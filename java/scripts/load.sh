@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#load the csv files into the (empty) tables
+#Use your database name, port number and login; the data directory defaults to data/
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BulkLoader $USER"_project_phase_3_DB" $PGPORT $USER ${1:-$DIR/../../data}
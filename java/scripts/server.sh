@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#serve the HTTP/JSON API on the given port (default 8080), e.g.
+#  $0 8080
+#  curl -X POST localhost:8080/api/login -d login=<login> -d password=<password>
+#Use your database name, port number and login
+java -Dgamerental.pool.maxSize=32 -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ApiServer $USER"_project_phase_3_DB" $PGPORT $USER "$@"
@@ -0,0 +1,513 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the rental operations as an HTTP/JSON API, on the JDK's built-in
+ * HTTP server, so one JVM serves many clients at once instead of one
+ * interactive session per process. The handlers go through RentalService,
+ * the same logic as the menus, and share one GameRental: one connection
+ * pool (gamerental.pool.maxSize), one statement cache per connection and
+ * one catalog cache for every client.
+ *
+ * Requests carry their parameters in the query string or as a form body
+ * (application/x-www-form-urlencoded); responses are JSON. A login returns
+ * a token, sent back as "Authorization: Bearer <token>"; it expires after
+ * gamerental.http.sessionIdleMillis without requests.
+ *
+ *    POST /api/login              login, password -> token, login, role
+ *    POST /api/logout
+ *    GET  /api/catalog            [title] [genre] [sort=none|asc|desc]
+ *    GET  /api/games/{gameID}
+ *    PUT  /api/games/{gameID}     [name] [genre] [price] [description] [image]   managers
+ *    POST /api/orders             game, units, repeated once per game
+ *    GET  /api/orders             [limit] [after=next from the last page]
+ *    GET  /api/orders/{rentalOrderID}
+ *    GET  /api/tracking/{trackingID}
+ *    PUT  /api/tracking/{trackingID}  [status] [location] [courier] [comments]   managers
+ *
+ * Errors are {"error": message} with 400 (bad input), 401 (no or expired
+ * token), 403 (not allowed), 404 (no such thing, or not yours), 405, 413,
+ * 415 or 500.
+ *
+ * Each request runs on a virtual thread of its own where the JDK has them
+ * (21 and later), otherwise on a fixed pool of platform threads, two per
+ * pooled connection, behind a queue of gamerental.http.queueSize requests.
+ * Either way the number of requests inside the database at once is bounded
+ * by the connection pool; the rest wait for a connection up to
+ * gamerental.pool.borrowTimeoutMillis.
+ *
+ * Usage: ApiServer <dbname> <port> <user> [http port]
+ */
+public class ApiServer {
+
+   private static final int DEFAULT_HTTP_PORT = 8080;
+
+   // connections waiting to be accepted before the OS refuses more
+   private static final int HTTP_BACKLOG = Integer.getInteger("gamerental.http.backlog", 1024);
+
+   // without virtual threads: platform threads per pooled connection, the extra ones for
+   // requests the catalog cache answers, and requests queued for them
+   private static final int HTTP_THREADS_PER_CONNECTION = 2;
+   private static final int HTTP_QUEUE_SIZE = Integer.getInteger("gamerental.http.queueSize", 1024);
+
+   private static final long SESSION_IDLE_MS = Long.getLong("gamerental.http.sessionIdleMillis", 1800000L);
+
+   // request bodies are forms of a few fields; anything much larger is refused
+   private static final int MAX_BODY_BYTES = Integer.getInteger("gamerental.http.maxBodyBytes", 65536);
+
+   private static final int ORDER_PAGE_SIZE = Integer.getInteger("gamerental.orderPageSize", 10);
+   private static final int MAX_ORDER_PAGE_SIZE = 100;
+
+   private static final String[] LOGIN_COLUMNS = { "token", "login", "role" };
+   private static final String[] UPDATED_COLUMNS = { "id", "updated" };
+   private static final String[] ERROR_COLUMNS = { "error" };
+
+   /*
+    * A logged-in client: its session and when it last made a request.
+    */
+   private static class Login {
+      private final Session _session;
+      private volatile long _lastUsed;
+
+      private Login(Session session) {
+         this._session = session;
+         this._lastUsed = System.currentTimeMillis();
+      }
+   }//end Login
+
+   /*
+    * An error the handler answers with a status of its own.
+    */
+   private static class HttpError extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+
+      private final int _status;
+
+      private HttpError(int status, String message) {
+         super(message);
+         this._status = status;
+      }
+   }//end HttpError
+
+   private final RentalService _service;
+   private final ConcurrentHashMap<String, Login> _logins = new ConcurrentHashMap<String, Login>();
+   private final SecureRandom _random = new SecureRandom();
+
+   // when the expired logins are next swept out
+   private final AtomicLong _nextSweep = new AtomicLong(0);
+
+   /**
+    * @param esql the store every request runs against
+    */
+   public ApiServer(GameRental esql) {
+      this._service = new RentalService(esql);
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java ApiServer <dbname> <port> <user> [http port]");
+         System.exit(2);
+      }//end if
+
+      int httpPort = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_HTTP_PORT;
+      final GameRental esql = new GameRental(args[0], args[1], args[2], "");
+      final ExecutorService executor = newRequestExecutor();
+      final HttpServer server = new ApiServer(esql).start(new InetSocketAddress(httpPort), executor);
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+         public void run() {
+            // lets the requests in flight finish for a second
+            server.stop(1);
+            executor.shutdown();
+            esql.cleanup();
+         }
+      });
+      System.out.println("Serving http://localhost:" + httpPort + "/api/ on "
+                         + (executor.getClass().getName().contains("ThreadPerTask") ? "virtual threads" : "a thread pool"));
+   }//end main
+
+   /**
+    * Binds the API under /api/ and starts serving.
+    *
+    * @param address where to listen
+    * @param executor what the requests run on
+    * @return the running server, for stop()
+    * @throws java.io.IOException when the address cannot be bound
+    */
+   public HttpServer start(InetSocketAddress address, ExecutorService executor) throws IOException {
+      HttpServer server = HttpServer.create(address, HTTP_BACKLOG);
+      server.setExecutor(executor);
+      server.createContext("/api/", new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            ApiServer.this.handle(exchange);
+         }
+      });
+      server.start();
+      return server;
+   }//end start
+
+   /**
+    * @return an executor starting a virtual thread per request where the JDK
+    *         has them, otherwise a bounded pool of platform threads; once its
+    *         queue is full as well, a request runs on the server's dispatcher
+    *         thread, which stops taking new ones until it is done
+    */
+   public static ExecutorService newRequestExecutor() {
+      try {
+         // looked up by reflection so the code also builds and runs before Java 21
+         Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+         return (ExecutorService) factory.invoke(null);
+      }catch (ReflectiveOperationException e) {
+         // not a thread per request: with more threads than connections they would only block in borrow()
+         int threads = HTTP_THREADS_PER_CONNECTION * GameRental.POOL_MAX_SIZE;
+         return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                                       new ArrayBlockingQueue<Runnable>(HTTP_QUEUE_SIZE),
+                                       new ThreadPoolExecutor.CallerRunsPolicy());
+      }//end try
+   }//end newRequestExecutor
+
+   private void handle(HttpExchange exchange) throws IOException {
+      int status = 200;
+      StringBuilder body = new StringBuilder(256);
+      try {
+         String method = exchange.getRequestMethod();
+         List<String> path = pathOf(exchange);
+         Map<String, List<String>> params = paramsOf(exchange);
+         status = route(exchange, method, path, params, body);
+      }catch (HttpError e) {
+         status = error(body, e._status, e.getMessage());
+      }catch (IllegalArgumentException e) {
+         status = error(body, 400, e.getMessage());
+      }catch (SecurityException e) {
+         status = error(body, 403, e.getMessage());
+      }catch (NoSuchElementException e) {
+         status = error(body, 404, e.getMessage());
+      }catch (Throwable e) {
+         // Errors too: otherwise the exchange is never answered and the client waits out its timeout
+         System.err.println(exchange.getRequestMethod() + " " + exchange.getRequestURI() + ": " + e);
+         status = error(body, 500, "Internal error");
+      }//end try
+
+      try {
+         if (body.length() == 0) {
+            exchange.sendResponseHeaders(status, -1);
+         } else {
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+         }
+      }finally {
+         exchange.close();
+      }//end try
+   }//end handle
+
+   /*
+    * Runs the request the path names. Writes the response into body (none
+    * for 204) and returns the status.
+    */
+   private int route(HttpExchange exchange, String method, List<String> path, Map<String, List<String>> params,
+                     StringBuilder body) throws Exception {
+      String resource = path.isEmpty() ? "" : path.get(0);
+      String id = path.size() == 2 ? path.get(1) : null;
+      if (path.size() > 2 || (path.size() == 2 && !resource.equals("orders") && !resource.equals("tracking")
+                                                && !resource.equals("games"))) {
+         throw new HttpError(404, "No such resource");
+      }
+
+      if (resource.equals("login") && id == null) {
+         requireMethod(exchange, method, "POST");
+         Session session = this._service.logIn(required(params, "login"), required(params, "password"));
+         if (session == null) {
+            throw new HttpError(401, "Invalid login or password");
+         }
+         String token = newToken();
+         this._logins.put(token, new Login(session));
+         sweepExpired();
+         Json.appendObject(body, LOGIN_COLUMNS, token, session.getLogin(), session.getRole());
+         return 200;
+      } else if (resource.equals("logout") && id == null) {
+         requireMethod(exchange, method, "POST");
+         String token = tokenOf(exchange);
+         if (token != null) {
+            this._logins.remove(token);
+         }
+         return 204;
+      } else if (resource.equals("catalog") && id == null) {
+         requireMethod(exchange, method, "GET");
+         appendGames(body, this._service.searchCatalog(first(params, "title"), first(params, "genre"), first(params, "sort")));
+         return 200;
+      } else if (resource.equals("games") && id != null) {
+         requireMethod(exchange, method, "GET", "PUT");
+         if (method.equals("GET")) {
+            CatalogCache.Game game = this._service.getStore().getCatalogCache().get(id);
+            if (game == null) {
+               throw new NoSuchElementException("No game " + id);
+            }
+            appendGame(body, game);
+            return 200;
+         }//end if
+         this._service.updateGame(requireSession(exchange), id, first(params, "name"), first(params, "genre"),
+                                  parsePrice(first(params, "price")), first(params, "description"), first(params, "image"));
+         Json.appendObject(body, UPDATED_COLUMNS, id, Boolean.TRUE);
+         return 200;
+      } else if (resource.equals("orders") && id == null) {
+         requireMethod(exchange, method, "GET", "POST");
+         return method.equals("GET") ? listOrders(exchange, params, body) : placeOrder(exchange, params, body);
+      } else if (resource.equals("orders")) {
+         requireMethod(exchange, method, "GET");
+         Json.appendString(body.append('{'), "rentalOrderID").append(':');
+         Json.appendString(body, id).append(',');
+         Json.appendString(body, "games").append(':');
+         Json.appendRows(body, RentalService.ORDER_DETAILS_COLUMNS, this._service.getOrderDetails(requireSession(exchange), id));
+         body.append('}');
+         return 200;
+      } else if (resource.equals("tracking") && id != null) {
+         requireMethod(exchange, method, "GET", "PUT");
+         if (method.equals("GET")) {
+            Json.appendRow(body, RentalService.TRACKING_COLUMNS, this._service.getTrackingInfo(requireSession(exchange), id), 0);
+            return 200;
+         }//end if
+         this._service.updateTracking(requireSession(exchange), id, first(params, "courier"), first(params, "location"),
+                                      first(params, "status"), first(params, "comments"));
+         Json.appendObject(body, UPDATED_COLUMNS, id, Boolean.TRUE);
+         return 200;
+      }
+      throw new HttpError(404, "No such resource");
+   }//end route
+
+   private int placeOrder(HttpExchange exchange, Map<String, List<String>> params, StringBuilder body) throws Exception {
+      Session session = requireSession(exchange);
+      List<String> games = all(params, "game");
+      List<String> units = all(params, "units");
+      if (games.isEmpty() || games.size() != units.size()) {
+         throw new IllegalArgumentException("Expected one units for each game");
+      }
+      Cart cart = new Cart();
+      for (int i = 0; i < games.size(); i++) {
+         cart.add(games.get(i), Integer.parseInt(units.get(i)));
+      }
+      String[] keys = this._service.placeOrder(session, cart);
+      Json.appendObject(body, RentalService.ORDER_PLACED_COLUMNS, keys[0], keys[1], cart.getTotalUnits(),
+                        ColumnarResult.fromCents(cart.getTotalCents()));
+      return 201;
+   }//end placeOrder
+
+   /*
+    * One page of the user's orders, newest due date first, and the cursor
+    * that continues from it (null after the last page).
+    */
+   private int listOrders(HttpExchange exchange, Map<String, List<String>> params, StringBuilder body) throws Exception {
+      Session session = requireSession(exchange);
+      String limit = first(params, "limit");
+      int pageSize = limit == null ? ORDER_PAGE_SIZE : Integer.parseInt(limit);
+      if (pageSize < 1 || pageSize > MAX_ORDER_PAGE_SIZE) {
+         throw new IllegalArgumentException("Limit must be between 1 and " + MAX_ORDER_PAGE_SIZE);
+      }
+      OrderHistory history = this._service.getOrderHistory(session, pageSize);
+      String after = first(params, "after");
+      ColumnarResult page;
+      String previous = QueryStats.setOperation("viewAllOrders");
+      try {
+         page = after == null ? history.getPage() : history.after(after);
+      }finally {
+         QueryStats.setOperation(previous);
+      }//end try
+      Json.appendString(body.append('{'), "orders").append(':');
+      Json.appendRows(body, RentalService.ORDER_COLUMNS, page).append(',');
+      Json.appendString(body, "next").append(':');
+      Json.appendValue(body, history.getNextCursor()).append('}');
+      return 200;
+   }//end listOrders
+
+   private static void appendGames(StringBuilder body, List<CatalogCache.Game> games) {
+      body.append('[');
+      for (int i = 0; i < games.size(); i++) {
+         if (i > 0) {
+            body.append(',');
+         }
+         appendGame(body, games.get(i));
+      }//end for
+      body.append(']');
+   }//end appendGames
+
+   private static void appendGame(StringBuilder body, CatalogCache.Game game) {
+      Json.appendObject(body, RentalService.GAME_COLUMNS, game.getGameID(), game.getGameName(), game.getGenre(),
+                        ColumnarResult.fromCents(game.getPriceCents()), game.getDescription(), game.getImageURL());
+   }
+
+   private static int error(StringBuilder body, int status, String message) {
+      body.setLength(0);
+      Json.appendObject(body, ERROR_COLUMNS, message == null ? "Error" : message.trim());
+      return status;
+   }
+
+   /*
+    * The session of the request's token, which counts as a use of it.
+    */
+   private Session requireSession(HttpExchange exchange) {
+      String token = tokenOf(exchange);
+      Login login = token == null ? null : this._logins.get(token);
+      long now = System.currentTimeMillis();
+      if (login == null || now - login._lastUsed > SESSION_IDLE_MS) {
+         throw new HttpError(401, "Log in first");
+      }
+      login._lastUsed = now;
+      return login._session;
+   }//end requireSession
+
+   /*
+    * Drops the logins idle for too long, at most once a minute, so tokens
+    * that are never logged out do not pile up.
+    */
+   private void sweepExpired() {
+      long now = System.currentTimeMillis();
+      long next = this._nextSweep.get();
+      if (now < next || !this._nextSweep.compareAndSet(next, now + 60000L)) {
+         return;
+      }
+      Iterator<Login> logins = this._logins.values().iterator();
+      while (logins.hasNext()) {
+         if (now - logins.next()._lastUsed > SESSION_IDLE_MS) {
+            logins.remove();
+         }
+      }//end while
+   }//end sweepExpired
+
+   private String newToken() {
+      byte[] bytes = new byte[24];
+      this._random.nextBytes(bytes);
+      StringBuilder token = new StringBuilder(48);
+      for (byte b : bytes) {
+         token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return token.toString();
+   }//end newToken
+
+   private static String tokenOf(HttpExchange exchange) {
+      String header = exchange.getRequestHeaders().getFirst("Authorization");
+      if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) {
+         return null;
+      }
+      return header.substring(7).trim();
+   }//end tokenOf
+
+   private static void requireMethod(HttpExchange exchange, String method, String... allowed) {
+      for (String m : allowed) {
+         if (m.equals(method)) {
+            return;
+         }
+      }
+      exchange.getResponseHeaders().set("Allow", String.join(", ", allowed));
+      throw new HttpError(405, "Method " + method + " not allowed");
+   }//end requireMethod
+
+   /*
+    * The path after /api/, split on slashes and decoded.
+    */
+   private static List<String> pathOf(HttpExchange exchange) {
+      String path = exchange.getRequestURI().getRawPath().substring("/api/".length());
+      List<String> segments = new ArrayList<String>();
+      for (String segment : path.split("/")) {
+         if (!segment.isEmpty()) {
+            segments.add(URLDecoder.decode(segment.replace("+", "%2B"), StandardCharsets.UTF_8));
+         }
+      }
+      return segments;
+   }//end pathOf
+
+   /*
+    * The query string's parameters, then the form body's.
+    */
+   private static Map<String, List<String>> paramsOf(HttpExchange exchange) throws IOException {
+      Map<String, List<String>> params = new HashMap<String, List<String>>();
+      parseForm(exchange.getRequestURI().getRawQuery(), params);
+      String method = exchange.getRequestMethod();
+      if (method.equals("POST") || method.equals("PUT")) {
+         String type = exchange.getRequestHeaders().getFirst("Content-Type");
+         byte[] bytes = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+         if (bytes.length > MAX_BODY_BYTES) {
+            throw new HttpError(413, "Request body over " + MAX_BODY_BYTES + " bytes");
+         }
+         if (bytes.length > 0 && type != null && !type.startsWith("application/x-www-form-urlencoded")) {
+            throw new HttpError(415, "Send the parameters as application/x-www-form-urlencoded");
+         }
+         parseForm(new String(bytes, StandardCharsets.US_ASCII), params);
+      }//end if
+      return params;
+   }//end paramsOf
+
+   private static void parseForm(String form, Map<String, List<String>> params) {
+      if (form == null || form.isEmpty()) {
+         return;
+      }
+      for (String pair : form.split("&")) {
+         if (pair.isEmpty()) {
+            continue;
+         }
+         int eq = pair.indexOf('=');
+         String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+         String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+         List<String> values = params.get(name);
+         if (values == null) {
+            values = new ArrayList<String>(1);
+            params.put(name, values);
+         }
+         values.add(value);
+      }//end for
+   }//end parseForm
+
+   private static String first(Map<String, List<String>> params, String name) {
+      List<String> values = params.get(name);
+      return values == null ? null : values.get(0);
+   }
+
+   private static List<String> all(Map<String, List<String>> params, String name) {
+      List<String> values = params.get(name);
+      return values == null ? Collections.<String>emptyList() : values;
+   }
+
+   private static String required(Map<String, List<String>> params, String name) {
+      String value = first(params, name);
+      if (value == null) {
+         throw new IllegalArgumentException("Missing " + name);
+      }
+      return value;
+   }
+
+   private static BigDecimal parsePrice(String price) {
+      if (price == null) {
+         return null;
+      }
+      try {
+         return new BigDecimal(price);
+      }catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Price must be a number");
+      }//end try
+   }//end parsePrice
+
+}//end ApiServer
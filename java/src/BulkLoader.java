@@ -0,0 +1,525 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class bulk loads the five tables from CSV files (the layout of data/,
+ * one <table>.csv per table with a header row), streaming each file to the
+ * server from the client, so the files need not be readable by the server.
+ *
+ * Tables load in dependency stages: Users and Catalog in parallel, then
+ * RentalOrder, then TrackingInfo and GamesInOrder in parallel, each table on
+ * its own connection. Around the load
+ *
+ *    - secondary indexes (not primary keys or constraints) are dropped and
+ *      rebuilt in parallel afterwards, which beats maintaining them row by row,
+ *    - user triggers are disabled: those in triggers.sql would otherwise
+ *      overwrite the loaded roles and regenerate order and tracking IDs, and
+ *      fire a catalog notification per game; one notification is sent at
+ *      the end instead,
+ *    - rentalorder_seq is moved past the highest loaded order number,
+ *    - every table is analyzed, so the planner sees the new row counts.
+ *
+ * Files are streamed through the driver's COPY API when the driver has one
+ * (8.4 and later; looked up reflectively so older drivers still load this
+ * class). Otherwise rows go in multi-row INSERT batches. Both use constant
+ * memory whatever the file size. -Dgamerental.load.useInserts=true forces the
+ * INSERT path.
+ *
+ * Usage: BulkLoader <dbname> <port> <user> <data dir>
+ */
+public class BulkLoader {
+
+   // tables in the same stage have no foreign keys between them and load in parallel
+   private static final String[][] STAGES = {
+      { "Users", "Catalog" },
+      { "RentalOrder" },
+      { "TrackingInfo", "GamesInOrder" },
+   };
+
+   private static final String[] TABLES = { "Users", "Catalog", "RentalOrder", "TrackingInfo", "GamesInOrder" };
+
+   // threads for the loads, index builds and analyzes, -Dgamerental.load.threads
+   private static final int THREADS = Integer.getInteger("gamerental.load.threads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+   private static final boolean USE_INSERTS = Boolean.getBoolean("gamerental.load.useInserts");
+
+   // rows per INSERT statement on the fallback path
+   private static final int ROWS_PER_INSERT = 500;
+
+   private static final String INDEX_QUERY =
+      "SELECT c.relname, pg_get_indexdef(i.indexrelid) FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid "
+      + "WHERE i.indrelid = ?::regclass AND NOT EXISTS (SELECT 1 FROM pg_constraint k WHERE k.conindid = i.indexrelid)";
+
+   private final String _url;
+   private final String _user;
+   private final File _dataDir;
+   private final boolean _copy;
+
+   /**
+    * @param url the JDBC url of the database to load
+    * @param user the database user
+    * @param dataDir the directory holding users.csv, catalog.csv, ...
+    */
+   public BulkLoader(String url, String user, File dataDir) {
+      this._url = url;
+      this._user = user;
+      this._dataDir = dataDir;
+      this._copy = !USE_INSERTS && copySupported();
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java BulkLoader <dbname> <port> <user> <data dir>");
+         return;
+      }//end if
+
+      Class.forName("org.postgresql.Driver");
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      try {
+         new BulkLoader(url, args[2], new File(args[3])).load();
+      } catch (Exception e) {
+         System.err.println("Load failed: " + e.getMessage());
+         for (Throwable also : e.getSuppressed()) {
+            System.err.println("  and: " + also.getMessage());
+         }
+         System.exit(1);
+      }//end try
+   }//end main
+
+   /**
+    * Loads every table, then rebuilds indexes and analyzes. Triggers and
+    * indexes are restored even if a table fails to load, or dropping the
+    * indexes or disabling the triggers fails part way.
+    *
+    * @throws java.lang.Exception when a table, index or analyze fails
+    */
+   public void load() throws Exception {
+      for (String table : TABLES) {
+         if (!csvFile(table).isFile()) {
+            throw new IOException("Missing " + csvFile(table));
+         }
+      }//end for
+
+      System.out.println("loading " + this._dataDir + " with " + (this._copy ? "COPY" : "batched INSERT") + ", " + THREADS + " threads");
+      ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+      Connection conn = connect();
+      try {
+         List<String[]> indexes = secondaryIndexes(conn);
+         List<String> droppedDefs = new ArrayList<String>();
+         long loadStart = System.nanoTime();
+         long totalRows = 0;
+         Throwable failure = null;
+         try {
+            dropIndexes(conn, indexes, droppedDefs);
+            setTriggers(conn, false);
+            System.out.println(String.format("%-13s | %12s | %9s | %12s", "Table", "rows", "seconds", "rows/s"));
+            System.out.println("--------------------------------------------------------");
+            for (String[] stage : STAGES) {
+               List<Future<Long>> loads = new ArrayList<Future<Long>>();
+               for (final String table : stage) {
+                  loads.add(executor.submit(new Callable<Long>() {
+                     public Long call() throws Exception {
+                        return loadTable(table);
+                     }
+                  }));
+               }//end for
+               // a failed table stops the load before the tables that depend on it
+               totalRows += sum(loads);
+            }//end for
+         }catch (Throwable e) {
+            failure = e;
+            throw e;
+         }finally {
+            restoreSchema(conn, executor, droppedDefs, failure);
+         }//end try
+         double loadSeconds = (System.nanoTime() - loadStart) / 1e9;
+
+         long analyzeStart = System.nanoTime();
+         List<Future<Long>> analyzes = new ArrayList<Future<Long>>();
+         for (final String table : TABLES) {
+            analyzes.add(executor.submit(new Callable<Long>() {
+               public Long call() throws Exception {
+                  execute("ANALYZE " + table);
+                  return 0L;
+               }
+            }));
+         }//end for
+         sum(analyzes);
+         advanceOrderSequence(conn);
+         execute(conn, "NOTIFY " + CatalogCache.CHANNEL);
+
+         System.out.println(String.format("loaded %d rows in %.2f s (%.0f rows/s, index rebuild included), analyzed in %.2f s",
+                                          totalRows, loadSeconds, totalRows / loadSeconds, (System.nanoTime() - analyzeStart) / 1e9));
+      }finally {
+         conn.close();
+         executor.shutdown();
+      }//end try
+   }//end load
+
+   private long loadTable(String table) throws Exception {
+      long start = System.nanoTime();
+      long rows;
+      Connection conn = connect();
+      try {
+         Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile(table)), StandardCharsets.UTF_8), 1 << 16);
+         try {
+            rows = this._copy ? copyIn(conn, table, reader) : insertAll(conn, table, reader);
+         }finally {
+            reader.close();
+         }//end try
+      }finally {
+         conn.close();
+      }//end try
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("%-13s | %12d | %9.2f | %12.0f", table, rows, seconds, rows / seconds));
+      return rows;
+   }//end loadTable
+
+   /*
+    * Streams the file through CopyManager.copyIn(String, Reader).
+    */
+   private static long copyIn(Connection conn, String table, Reader reader) throws Exception {
+      Class<?> baseConnection = Class.forName("org.postgresql.core.BaseConnection");
+      Class<?> copyManager = Class.forName("org.postgresql.copy.CopyManager");
+      Object manager = copyManager.getConstructor(baseConnection).newInstance(conn);
+      try {
+         Object rows = copyManager.getMethod("copyIn", String.class, Reader.class)
+            .invoke(manager, "COPY " + table + " FROM STDIN WITH DELIMITER ',' CSV HEADER", reader);
+         return ((Number) rows).longValue();
+      } catch (InvocationTargetException e) {
+         throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }//end try
+   }//end copyIn
+
+   /*
+    * The fallback: multi-row INSERTs of ROWS_PER_INSERT rows, in one
+    * transaction. Every value is bound as a string and cast to its column's
+    * type, like COPY would read it.
+    */
+   private static long insertAll(Connection conn, String table, Reader reader) throws Exception {
+      List<String> types = new ArrayList<String>();
+      Statement probe = conn.createStatement();
+      try {
+         ResultSetMetaData meta = probe.executeQuery("SELECT * FROM " + table + " WHERE false").getMetaData();
+         for (int c = 1; c <= meta.getColumnCount(); c++) {
+            types.add(meta.getColumnTypeName(c));
+         }
+      }finally {
+         probe.close();
+      }//end try
+
+      CsvReader csv = new CsvReader(reader);
+      csv.next(); // header
+      conn.setAutoCommit(false);
+      PreparedStatement full = conn.prepareStatement(insertSql(table, types, ROWS_PER_INSERT));
+      long rows = 0;
+      try {
+         List<String[]> batch = new ArrayList<String[]>(ROWS_PER_INSERT);
+         String[] row;
+         while ((row = csv.next()) != null) {
+            if (row.length != types.size()) {
+               throw new SQLException(table + " line " + (rows + 2) + " has " + row.length + " fields, expected " + types.size());
+            }
+            batch.add(row);
+            if (batch.size() == ROWS_PER_INSERT) {
+               bind(full, batch).executeUpdate();
+               rows += batch.size();
+               batch.clear();
+            }
+         }//end while
+         if (!batch.isEmpty()) {
+            PreparedStatement last = conn.prepareStatement(insertSql(table, types, batch.size()));
+            try {
+               bind(last, batch).executeUpdate();
+            }finally {
+               last.close();
+            }//end try
+            rows += batch.size();
+         }//end if
+         conn.commit();
+      } catch (Exception e) {
+         conn.rollback();
+         throw e;
+      }finally {
+         full.close();
+      }//end try
+      return rows;
+   }//end insertAll
+
+   private static String insertSql(String table, List<String> types, int numRows) {
+      StringBuilder row = new StringBuilder("(");
+      for (int c = 0; c < types.size(); c++) {
+         row.append(c > 0 ? ", " : "").append("CAST(? AS ").append(types.get(c)).append(")");
+      }
+      row.append(")");
+      StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" VALUES ");
+      for (int r = 0; r < numRows; r++) {
+         sql.append(r > 0 ? ", " : "").append(row);
+      }
+      return sql.toString();
+   }//end insertSql
+
+   private static PreparedStatement bind(PreparedStatement stmt, List<String[]> batch) throws SQLException {
+      int param = 1;
+      for (String[] row : batch) {
+         for (String value : row) {
+            stmt.setString(param++, value);
+         }
+      }//end for
+      return stmt;
+   }//end bind
+
+   /*
+    * The secondary indexes of every table, as {name, definition}: read
+    * before anything is dropped, so the definitions are never lost.
+    */
+   private static List<String[]> secondaryIndexes(Connection conn) throws SQLException {
+      List<String[]> indexes = new ArrayList<String[]>();
+      PreparedStatement stmt = conn.prepareStatement(INDEX_QUERY);
+      try {
+         for (String table : TABLES) {
+            stmt.setString(1, table.toLowerCase());
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+               indexes.add(new String[] { rs.getString(1), rs.getString(2) });
+            }
+            rs.close();
+         }//end for
+      }finally {
+         stmt.close();
+      }//end try
+      return indexes;
+   }//end secondaryIndexes
+
+   /*
+    * Drops the indexes, adding each definition to dropped as soon as its
+    * index is gone: if a DROP fails part way, exactly those are rebuilt.
+    */
+   private static void dropIndexes(Connection conn, List<String[]> indexes, List<String> dropped) throws SQLException {
+      for (String[] index : indexes) {
+         execute(conn, "DROP INDEX " + index[0]);
+         dropped.add(index[1]);
+      }
+      System.out.println("dropped " + dropped.size() + " secondary indexes");
+   }//end dropIndexes
+
+   /*
+    * Re-enables the triggers and rebuilds the dropped indexes, each even if
+    * the other fails. When the load itself failed, that failure is the one
+    * reported and these are added to it as suppressed; otherwise the first
+    * of these is thrown.
+    */
+   private void restoreSchema(Connection conn, ExecutorService executor, List<String> indexDefs, Throwable failure) throws Exception {
+      Exception restoreFailure = null;
+      try {
+         setTriggers(conn, true);
+      } catch (Exception e) {
+         restoreFailure = e;
+      }//end try
+      try {
+         rebuildIndexes(executor, indexDefs);
+      } catch (Exception e) {
+         if (restoreFailure == null) {
+            restoreFailure = e;
+         } else {
+            restoreFailure.addSuppressed(e);
+         }
+      }//end try
+      if (restoreFailure == null) {
+         return;
+      }
+      if (failure != null) {
+         failure.addSuppressed(restoreFailure);
+         return;
+      }
+      throw restoreFailure;
+   }//end restoreSchema
+
+   private void rebuildIndexes(ExecutorService executor, List<String> indexDefs) throws Exception {
+      long start = System.nanoTime();
+      List<Future<Long>> builds = new ArrayList<Future<Long>>();
+      for (final String def : indexDefs) {
+         builds.add(executor.submit(new Callable<Long>() {
+            public Long call() throws Exception {
+               execute(def);
+               return 0L;
+            }
+         }));
+      }//end for
+      sum(builds);
+      System.out.println(String.format("rebuilt %d indexes in %.2f s", indexDefs.size(), (System.nanoTime() - start) / 1e9));
+   }//end rebuildIndexes
+
+   private static void setTriggers(Connection conn, boolean enabled) throws SQLException {
+      for (String table : TABLES) {
+         execute(conn, "ALTER TABLE " + table + (enabled ? " ENABLE" : " DISABLE") + " TRIGGER USER");
+      }
+   }//end setTriggers
+
+   /*
+    * New orders take their number from rentalorder_seq (see triggers.sql);
+    * it must start above every order number just loaded.
+    */
+   private static void advanceOrderSequence(Connection conn) throws SQLException {
+      execute(conn, "DO $$ BEGIN "
+              + "IF to_regclass('rentalorder_seq') IS NOT NULL THEN "
+              + "PERFORM setval('rentalorder_seq', m) FROM (SELECT max(substring(rentalOrderID FROM '[0-9]+$')::bigint) AS m FROM RentalOrder) o "
+              + "WHERE m >= (SELECT last_value FROM rentalorder_seq); "
+              + "END IF; END $$");
+   }//end advanceOrderSequence
+
+   private void execute(String sql) throws SQLException {
+      Connection conn = connect();
+      try {
+         execute(conn, sql);
+      }finally {
+         conn.close();
+      }//end try
+   }
+
+   private static void execute(Connection conn, String sql) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try {
+         stmt.execute(sql);
+      }finally {
+         stmt.close();
+      }//end try
+   }
+
+   private Connection connect() throws SQLException {
+      return DriverManager.getConnection(this._url, this._user, "");
+   }
+
+   private File csvFile(String table) {
+      return new File(this._dataDir, table.toLowerCase() + ".csv");
+   }
+
+   /*
+    * Waits for every task and adds up their results; rethrows the first
+    * failure once all have finished, with any others suppressed in it.
+    */
+   private static long sum(List<Future<Long>> tasks) throws Exception {
+      long total = 0;
+      Exception failure = null;
+      for (Future<Long> task : tasks) {
+         try {
+            total += task.get();
+         } catch (ExecutionException e) {
+            Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            if (failure == null) {
+               failure = cause;
+            } else {
+               failure.addSuppressed(cause);
+            }
+         }//end try
+      }//end for
+      if (failure != null) {
+         throw failure;
+      }
+      return total;
+   }//end sum
+
+   private static boolean copySupported() {
+      try {
+         Class.forName("org.postgresql.copy.CopyManager");
+         return true;
+      } catch (ClassNotFoundException e) {
+         return false;
+      }//end try
+   }
+
+   /*
+    * Reads CSV records the way COPY ... CSV does: fields may be quoted, a
+    * quote inside quotes is doubled, quoted fields may span lines, and an
+    * unquoted empty field is NULL while "" is an empty string.
+    */
+   private static class CsvReader {
+      private final Reader _in;
+      private int _pending = -2;
+
+      private CsvReader(Reader in) {
+         this._in = in;
+      }
+
+      /*
+       * @return the next record's fields, or null at the end of the input
+       */
+      private String[] next() throws IOException {
+         int c = read();
+         if (c == -1) {
+            return null;
+         }
+         List<String> fields = new ArrayList<String>();
+         StringBuilder field = new StringBuilder();
+         boolean quoted = false;
+         boolean wasQuoted = false;
+         while (true) {
+            if (quoted) {
+               if (c == -1) {
+                  throw new IOException("Unterminated quoted field");
+               } else if (c == '"') {
+                  int after = read();
+                  if (after == '"') {
+                     field.append('"');
+                  } else {
+                     quoted = false;
+                     c = after;
+                     continue;
+                  }
+               } else {
+                  field.append((char) c);
+               }
+            } else if (c == '"') {
+               quoted = true;
+               wasQuoted = true;
+            } else if (c == ',' || c == '\n' || c == '\r' || c == -1) {
+               fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+               field.setLength(0);
+               wasQuoted = false;
+               if (c != ',') {
+                  if (c == '\r') {
+                     int after = read();
+                     if (after != '\n') {
+                        this._pending = after;
+                     }
+                  }
+                  return fields.toArray(new String[0]);
+               }
+            } else {
+               field.append((char) c);
+            }
+            c = read();
+         }//end while
+      }//end next
+
+      private int read() throws IOException {
+         if (this._pending != -2) {
+            int c = this._pending;
+            this._pending = -2;
+            return c;
+         }
+         return this._in.read();
+      }
+   }//end CsvReader
+
+}//end BulkLoader
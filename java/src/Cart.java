@@ -0,0 +1,133 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class collects the games of a rental order before it is placed.
+ *
+ * Game IDs are gathered first and then validated and priced all at once
+ * (see price()), instead of one existence check and one price lookup per
+ * game. The total is computed in memory, in cents. The server re-prices
+ * the order from Catalog when it is placed.
+ */
+public class Cart {
+
+   // gameID -> units, in the order games were added; re-adding a game adds units
+   private final LinkedHashMap<String, Integer> _lines = new LinkedHashMap<String, Integer>();
+
+   // gameID -> price in cents, filled in by price()
+   private final Map<String, Long> _prices = new HashMap<String, Long>();
+
+   /**
+    * Adds units of a game to the cart.
+    *
+    * @param gameID the game to add
+    * @param units how many units, must be positive
+    */
+   public void add(String gameID, int units) {
+      if (units <= 0) {
+         throw new IllegalArgumentException("Units ordered must be positive");
+      }
+      Integer current = this._lines.get(gameID);
+      this._lines.put(gameID, current == null ? units : current + units);
+   }//end add
+
+   public void remove(String gameID) {
+      this._lines.remove(gameID);
+      this._prices.remove(gameID);
+   }
+
+   public boolean isEmpty() {
+      return this._lines.isEmpty();
+   }
+
+   /**
+    * @return the number of distinct games in the cart
+    */
+   public int size() {
+      return this._lines.size();
+   }
+
+   public List<String> getGameIDs() {
+      return new ArrayList<String>(this._lines.keySet());
+   }
+
+   public int getUnits(String gameID) {
+      Integer units = this._lines.get(gameID);
+      return units == null ? 0 : units;
+   }
+
+   public int getTotalUnits() {
+      int total = 0;
+      for (int units : this._lines.values()) {
+         total += units;
+      }
+      return total;
+   }
+
+   /**
+    * Looks up every game in the cart at once through the catalog cache,
+    * which reads any games it does not hold with a single query, and
+    * remembers the price of each known game.
+    *
+    * @param esql the store to query
+    * @return the game IDs that are not in the catalog, in cart order; empty if all are valid
+    * @throws java.sql.SQLException when the lookup fails
+    */
+   public List<String> price(GameRental esql) throws SQLException {
+      this._prices.clear();
+      if (this._lines.isEmpty()) {
+         return Collections.emptyList();
+      }
+
+      Map<String, CatalogCache.Game> games = esql.getCatalogCache().getAll(this._lines.keySet());
+      for (CatalogCache.Game game : games.values()) {
+         this._prices.put(game.getGameID(), game.getPriceCents());
+      }
+
+      List<String> unknown = new ArrayList<String>();
+      for (String gameID : this._lines.keySet()) {
+         if (!this._prices.containsKey(gameID)) {
+            unknown.add(gameID);
+         }
+      }
+      return unknown;
+   }//end price
+
+   /**
+    * @return gameID -> price in cents for the games found by the last price() call
+    */
+   public Map<String, Long> getPrices() {
+      return Collections.unmodifiableMap(this._prices);
+   }
+
+   /**
+    * @return the total cost of the cart in cents, using the prices from the last price() call
+    */
+   public long getTotalCents() {
+      long total = 0;
+      for (Map.Entry<String, Integer> line : this._lines.entrySet()) {
+         Long price = this._prices.get(line.getKey());
+         if (price != null) {
+            total += price * line.getValue();
+         }
+      }
+      return total;
+   }//end getTotalCents
+
+   public String[] gameIDArray() {
+      return this._lines.keySet().toArray(new String[0]);
+   }
+
+   /**
+    * @return units per game, parallel to gameIDArray()
+    */
+   public Integer[] unitsArray() {
+      return this._lines.values().toArray(new Integer[0]);
+   }
+
+}//end Cart
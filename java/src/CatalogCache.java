@@ -0,0 +1,639 @@
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class keeps an in-process copy of the Catalog table, which is read
+ * on almost every screen but rarely changes.
+ *
+ * Games are cached by gameID and loaded on demand (read-through): a lookup
+ * that misses fetches just the missing rows, and listing or searching the
+ * catalog loads the whole table once. Two secondary indexes are kept over
+ * the complete catalog, gameIDs by genre and gameIDs by price, so filtering
+ * and sorting by price never goes back to the database. Genres are
+ * dictionary-encoded (see GenreDictionary), so the genre index is keyed by
+ * int code and genre filters compare ints. Title searches go through a
+ * trigram index (see TitleIndex) built over the cached titles, and a
+ * fuzzy matcher (see FuzzyTitleMatcher) suggests titles for typos.
+ *
+ * Coherence: a trigger on Catalog sends NOTIFY catalog_changed with the
+ * gameID that changed. A background thread LISTENs on its own connection
+ * and marks those games stale, so every application instance drops edits
+ * made by any other. Stale games are re-read in one batch the next time
+ * they are needed. An empty payload, a driver that cannot deliver payloads
+ * or a lost listener connection drops the whole cache instead.
+ *
+ * Thread safe. The cached games are an immutable snapshot published through
+ * a volatile field, so lookups and searches never lock. Reads from the
+ * database happen under a separate reload lock, one at a time: a thread
+ * that needs games nobody has cached waits for them and then uses the
+ * snapshot the first one published, while a thread that only finds games
+ * stale keeps reading the snapshot it has until that reload is done.
+ */
+public class CatalogCache {
+
+   /**
+    * One Catalog row. Prices are in cents.
+    */
+   public static class Game {
+      private final String _gameID;
+      private final String _gameName;
+      private final String _genre;
+      private final int _genreCode;
+      private final long _priceCents;
+      private final String _description;
+      private final String _imageURL;
+
+      public Game(String gameID, String gameName, String genre, int genreCode, long priceCents, String description, String imageURL) {
+         this._gameID = gameID;
+         this._gameName = gameName;
+         this._genre = genre;
+         this._genreCode = genreCode;
+         this._priceCents = priceCents;
+         this._description = description;
+         this._imageURL = imageURL;
+      }
+
+      public String getGameID() {
+         return this._gameID;
+      }
+
+      public String getGameName() {
+         return this._gameName;
+      }
+
+      public String getGenre() {
+         return this._genre;
+      }
+
+      /**
+       * @return the genre's code in the cache's GenreDictionary
+       */
+      public int getGenreCode() {
+         return this._genreCode;
+      }
+
+      public long getPriceCents() {
+         return this._priceCents;
+      }
+
+      public String getDescription() {
+         return this._description;
+      }
+
+      public String getImageURL() {
+         return this._imageURL;
+      }
+   }//end Game
+
+   /*
+    * The cached games as of one load. Never changed once published: a
+    * reload copies the games into a new snapshot and swaps that in.
+    */
+   private static class Snapshot {
+      // gameID -> game, in the order the database returned them
+      private final LinkedHashMap<String, Game> _byId;
+
+      // secondary indexes over _byId
+      private final Map<Integer, TreeSet<String>> _byGenre = new HashMap<Integer, TreeSet<String>>();
+      private final TreeMap<Long, TreeSet<String>> _byPrice = new TreeMap<Long, TreeSet<String>>();
+
+      // true when _byId is the whole table
+      private final boolean _complete;
+
+      // the invalidateAll() generation the games were read in
+      private final long _generation;
+
+      // trigram index and fuzzy matcher over the titles, built on first use;
+      // two threads may both build one, which only costs the extra work
+      private volatile TitleIndex _titleIndex = null;
+      private volatile FuzzyTitleMatcher _fuzzyMatcher = null;
+
+      private Snapshot(LinkedHashMap<String, Game> byId, boolean complete, long generation) {
+         this._byId = byId;
+         this._complete = complete;
+         this._generation = generation;
+         for (Game game : byId.values()) {
+            indexSet(this._byGenre, game.getGenreCode()).add(game.getGameID());
+            indexSet(this._byPrice, game.getPriceCents()).add(game.getGameID());
+         }//end for
+      }
+
+      private TitleIndex titleIndex() {
+         TitleIndex titleIndex = this._titleIndex;
+         if (titleIndex == null) {
+            List<String> gameIDs = new ArrayList<String>(this._byId.size());
+            List<String> titles = new ArrayList<String>(this._byId.size());
+            collectTitles(gameIDs, titles);
+            titleIndex = new TitleIndex(gameIDs, titles);
+            this._titleIndex = titleIndex;
+         }//end if
+         return titleIndex;
+      }//end titleIndex
+
+      private FuzzyTitleMatcher fuzzyMatcher() {
+         FuzzyTitleMatcher fuzzyMatcher = this._fuzzyMatcher;
+         if (fuzzyMatcher == null) {
+            List<String> gameIDs = new ArrayList<String>(this._byId.size());
+            List<String> titles = new ArrayList<String>(this._byId.size());
+            collectTitles(gameIDs, titles);
+            fuzzyMatcher = new FuzzyTitleMatcher(gameIDs, titles);
+            this._fuzzyMatcher = fuzzyMatcher;
+         }//end if
+         return fuzzyMatcher;
+      }//end fuzzyMatcher
+
+      private void collectTitles(List<String> gameIDs, List<String> titles) {
+         for (Game game : this._byId.values()) {
+            gameIDs.add(game.getGameID());
+            titles.add(game.getGameName());
+         }//end for
+      }
+   }//end Snapshot
+
+   // search() orderings, matching the catalog menu's price sort choices
+   public static final int SORT_NONE = 1;
+   public static final int SORT_PRICE_ASC = 2;
+   public static final int SORT_PRICE_DESC = 3;
+
+   // NOTIFY channel the catalog_changed trigger publishes on
+   public static final String CHANNEL = "catalog_changed";
+
+   static final String SELECT_GAMES =
+      "SELECT gameID, gameName, genre, price, description, imageURL FROM Catalog";
+
+   // the games a lookup missed, in one query
+   static final String GAMES_BY_ID_QUERY = SELECT_GAMES + " WHERE gameID = ANY(?::varchar[])";
+
+   private static final Snapshot EMPTY = new Snapshot(new LinkedHashMap<String, Game>(), false, -1);
+
+   private final GameRental _esql;
+   private final GenreDictionary _genres;
+
+   // the published games; replaced by load() under _reloadLock, or reset by invalidateAll()
+   private volatile Snapshot _snapshot = EMPTY;
+
+   // held while reading games from the database and publishing them
+   private final ReentrantLock _reloadLock = new ReentrantLock();
+
+   // bumped by invalidateAll(); snapshots read in an older generation are dropped
+   private final AtomicLong _generation = new AtomicLong(0);
+
+   // gameIDs that changed since they were cached -> when they were marked;
+   // a reload only clears the marks it saw before reading, never a newer one
+   private final ConcurrentHashMap<String, Long> _stale = new ConcurrentHashMap<String, Long>();
+   private final AtomicLong _staleStamps = new AtomicLong(0);
+
+   private final LongAdder _hits = new LongAdder();
+   private final LongAdder _misses = new LongAdder();
+   private final LongAdder _invalidations = new LongAdder();
+
+   private Thread _listener = null;
+   private volatile boolean _closed = false;
+
+   /**
+    * Creates an empty cache. Nothing is read until the first lookup.
+    *
+    * @param esql the store the catalog is read from
+    * @param genreTtlMillis how long the list of genres is reused before it is read again
+    */
+   public CatalogCache(GameRental esql, long genreTtlMillis) {
+      this._esql = esql;
+      this._genres = new GenreDictionary(esql, genreTtlMillis);
+   }//end CatalogCache
+
+   /**
+    * @return the dictionary genres are encoded with; its genre list is
+    *         invalidated together with this cache
+    */
+   public GenreDictionary getGenreDictionary() {
+      return this._genres;
+   }
+
+   /**
+    * Looks up one game, reading it from the database if it is not cached.
+    *
+    * @param gameID the game to look up
+    * @return the game, or null if it is not in the catalog
+    * @throws java.sql.SQLException when the lookup fails
+    */
+   public Game get(String gameID) throws SQLException {
+      return getAll(Collections.singletonList(gameID)).get(gameID);
+   }
+
+   /**
+    * Looks up several games, reading every missing one with a single query.
+    *
+    * @param gameIDs the games to look up
+    * @return gameID -> game for the games that exist, in request order
+    * @throws java.sql.SQLException when the lookup fails
+    */
+   public Map<String, Game> getAll(Collection<String> gameIDs) throws SQLException {
+      Snapshot snapshot = current();
+      List<String> missing = missing(snapshot, gameIDs);
+      this._misses.add(missing.size());
+      this._hits.add(gameIDs.size() - missing.size());
+      if (!missing.isEmpty() && !(reloading() && snapshot._byId.keySet().containsAll(missing))) {
+         snapshot = load(missing);
+      }
+
+      Map<String, Game> found = new LinkedHashMap<String, Game>();
+      for (String gameID : gameIDs) {
+         Game game = snapshot._byId.get(gameID);
+         if (game != null) {
+            found.put(gameID, game);
+         }
+      }//end for
+      return found;
+   }//end getAll
+
+   /**
+    * @return every game in the catalog
+    * @throws java.sql.SQLException when the catalog could not be loaded
+    */
+   public List<Game> all() throws SQLException {
+      return new ArrayList<Game>(ensureComplete()._byId.values());
+   }
+
+   /**
+    * Filters the catalog in memory. A name filter is answered by the title
+    * index and, unless a price sort is asked for, keeps its ranking.
+    *
+    * @param nameContains substring the game name must contain, ignoring case, or null
+    * @param genre exact genre, or null for any
+    * @param sort SORT_NONE, SORT_PRICE_ASC or SORT_PRICE_DESC
+    * @return the matching games
+    * @throws java.sql.SQLException when the catalog could not be loaded
+    */
+   public List<Game> search(String nameContains, String genre, int sort) throws SQLException {
+      Metrics.CATALOG_SEARCHES.increment();
+      Snapshot snapshot = ensureComplete();
+
+      int genreCode = GenreDictionary.UNKNOWN;
+      if (genre != null) {
+         genreCode = this._genres.lookup(genre);
+         if (!snapshot._byGenre.containsKey(genreCode)) {
+            return new ArrayList<Game>();
+         }
+      }
+
+      List<Game> result = new ArrayList<Game>();
+      if (nameContains != null) {
+         // ranked title matches, then the genre filter and sort on top
+         for (String gameID : snapshot.titleIndex().search(nameContains, 0)) {
+            Game game = snapshot._byId.get(gameID);
+            if (genre == null || game.getGenreCode() == genreCode) {
+               result.add(game);
+            }
+         }//end for
+         if (sort == SORT_PRICE_ASC) {
+            result.sort(Comparator.comparingLong(Game::getPriceCents));
+         } else if (sort == SORT_PRICE_DESC) {
+            result.sort(Comparator.comparingLong(Game::getPriceCents).reversed());
+         }
+      } else if (sort == SORT_PRICE_ASC || sort == SORT_PRICE_DESC) {
+         // walk the price index in order, keeping the genre
+         NavigableMap<Long, TreeSet<String>> byPrice =
+            sort == SORT_PRICE_ASC ? snapshot._byPrice : snapshot._byPrice.descendingMap();
+         for (TreeSet<String> atPrice : byPrice.values()) {
+            for (String gameID : atPrice) {
+               Game game = snapshot._byId.get(gameID);
+               if (genre == null || game.getGenreCode() == genreCode) {
+                  result.add(game);
+               }
+            }//end for
+         }//end for
+      } else {
+         Collection<String> candidates = genre != null ? snapshot._byGenre.get(genreCode) : snapshot._byId.keySet();
+         for (String gameID : candidates) {
+            result.add(snapshot._byId.get(gameID));
+         }//end for
+      }
+      return result;
+   }//end search
+
+   /**
+    * Finds the games whose titles are closest to a possibly mistyped query,
+    * for when search() finds nothing (see FuzzyTitleMatcher).
+    *
+    * @param query what the user typed
+    * @param k the most games to return
+    * @return the closest games, best first
+    * @throws java.sql.SQLException when the catalog could not be loaded
+    */
+   public List<Game> closest(String query, int k) throws SQLException {
+      Snapshot snapshot = ensureComplete();
+      List<Game> result = new ArrayList<Game>();
+      for (String gameID : snapshot.fuzzyMatcher().closest(query, k)) {
+         result.add(snapshot._byId.get(gameID));
+      }//end for
+      return result;
+   }//end closest
+
+   /**
+    * Re-reads one game right away, e.g. after this instance edited it.
+    *
+    * @param gameID the game to refresh
+    * @throws java.sql.SQLException when the game could not be read
+    */
+   public void refresh(String gameID) throws SQLException {
+      this._genres.invalidate();
+      markStale(gameID);
+      load(Collections.singletonList(gameID));
+   }
+
+   /**
+    * Marks one game as changed; it is re-read the next time it is needed.
+    */
+   public void invalidate(String gameID) {
+      this._invalidations.increment();
+      this._genres.invalidate();
+      // marked even when not cached: a load under way may be about to publish the old row
+      markStale(gameID);
+   }//end invalidate
+
+   /**
+    * Drops everything; the catalog is read again on the next lookup.
+    */
+   public void invalidateAll() {
+      this._invalidations.increment();
+      this._genres.invalidate();
+      // marks are cleared before the generation moves on, so a game marked
+      // after this point stays marked in whatever is loaded next
+      this._stale.clear();
+      this._generation.incrementAndGet();
+      this._snapshot = EMPTY;
+   }//end invalidateAll
+
+   public int size() {
+      return current()._byId.size();
+   }
+
+   public long getHits() {
+      return this._hits.sum();
+   }
+
+   public long getMisses() {
+      return this._misses.sum();
+   }
+
+   public long getInvalidations() {
+      return this._invalidations.sum();
+   }
+
+   /**
+    * Starts the background thread that LISTENs for catalog_changed
+    * notifications on a dedicated connection.
+    *
+    * @param pollIntervalMillis how often the listener checks for notifications
+    */
+   public synchronized void startListening(final long pollIntervalMillis) {
+      if (this._listener != null || this._closed) {
+         return;
+      }
+      this._listener = new Thread(new Runnable() {
+         public void run() {
+            listen(pollIntervalMillis);
+         }
+      }, "catalog-cache-listener");
+      this._listener.setDaemon(true);
+      this._listener.start();
+   }//end startListening
+
+   /**
+    * Stops the listener and closes its connection.
+    */
+   public void close() {
+      this._closed = true;
+      Thread listener;
+      synchronized (this) {
+         listener = this._listener;
+      }
+      if (listener != null) {
+         listener.interrupt();
+      }
+   }//end close
+
+   /*
+    * The published snapshot, or EMPTY if invalidateAll() ran since it was read.
+    */
+   private Snapshot current() {
+      Snapshot snapshot = this._snapshot;
+      return snapshot._generation == this._generation.get() ? snapshot : EMPTY;
+   }
+
+   /*
+    * The games in gameIDs that are stale or, unless the snapshot is the
+    * whole table, not in it.
+    */
+   private List<String> missing(Snapshot snapshot, Collection<String> gameIDs) {
+      List<String> missing = new ArrayList<String>();
+      for (String gameID : gameIDs) {
+         if (this._stale.containsKey(gameID) || (!snapshot._complete && !snapshot._byId.containsKey(gameID))) {
+            missing.add(gameID);
+         }
+      }//end for
+      return missing;
+   }//end missing
+
+   /*
+    * True while another thread reads from the database. Games it finds
+    * stale are then served from the current snapshot, as if looked up a
+    * moment earlier, instead of queueing behind that read.
+    */
+   private boolean reloading() {
+      return this._reloadLock.isLocked() && !this._reloadLock.isHeldByCurrentThread();
+   }
+
+   private void markStale(String gameID) {
+      this._stale.put(gameID, this._staleStamps.incrementAndGet());
+   }
+
+   /*
+    * A snapshot of the whole table with nothing stale in it.
+    */
+   private Snapshot ensureComplete() throws SQLException {
+      Snapshot snapshot = current();
+      if (snapshot._complete && (this._stale.isEmpty() || reloading())) {
+         this._hits.increment();
+         return snapshot;
+      }
+      return load(null);
+   }//end ensureComplete
+
+   /*
+    * Reads games from the database and publishes a new snapshot holding
+    * them: the whole table when gameIDs is null, otherwise those games.
+    * Runs under the reload lock, and what is still missing is worked out
+    * again once it is held, so threads that queued up behind a load reuse
+    * it instead of repeating it. Games no longer in the catalog are dropped.
+    */
+   private Snapshot load(Collection<String> gameIDs) throws SQLException {
+      this._reloadLock.lock();
+      try {
+         long generation = this._generation.get();
+         Snapshot snapshot = current();
+         Map<String, Long> seen;
+         final LinkedHashMap<String, Game> byId;
+         if (!snapshot._complete && gameIDs == null) {
+            seen = new HashMap<String, Long>(this._stale);
+            byId = new LinkedHashMap<String, Game>();
+            // streamed, so loading a large catalog never holds all of it twice
+            this._esql.executeQueryAndStream(SELECT_GAMES, new RowHandler() {
+               public void handleRows(ColumnarResult rows) {
+                  for (int i = 0; i < rows.size(); i++) {
+                     Game game = gameOf(rows, i);
+                     byId.put(game.getGameID(), game);
+                  }//end for
+               }
+            });
+            this._misses.increment();
+         } else {
+            List<String> missing = missing(snapshot, gameIDs == null ? this._stale.keySet() : gameIDs);
+            if (missing.isEmpty()) {
+               return snapshot;
+            }
+            seen = new HashMap<String, Long>();
+            for (String gameID : missing) {
+               Long stamp = this._stale.get(gameID);
+               if (stamp != null) {
+                  seen.put(gameID, stamp);
+               }
+            }//end for
+            ColumnarResult rows = this._esql.executeQueryAndReturnColumns(
+               GAMES_BY_ID_QUERY, (Object) missing.toArray(new String[0]));
+            byId = new LinkedHashMap<String, Game>(snapshot._byId);
+            for (String gameID : missing) {
+               byId.remove(gameID);
+            }//end for
+            for (int i = 0; i < rows.size(); i++) {
+               Game game = gameOf(rows, i);
+               byId.put(game.getGameID(), game);
+            }//end for
+         }//end if
+
+         Snapshot loaded = new Snapshot(byId, snapshot._complete || gameIDs == null, generation);
+         this._snapshot = loaded;
+         for (Map.Entry<String, Long> entry : seen.entrySet()) {
+            this._stale.remove(entry.getKey(), entry.getValue());
+         }//end for
+         return loaded;
+      }finally {
+         this._reloadLock.unlock();
+      }//end try
+   }//end load
+
+   private static <K> TreeSet<String> indexSet(Map<K, TreeSet<String>> index, K key) {
+      TreeSet<String> ids = index.get(key);
+      if (ids == null) {
+         ids = new TreeSet<String>();
+         index.put(key, ids);
+      }
+      return ids;
+   }
+
+   private Game gameOf(ColumnarResult rows, int row) {
+      int genreCode = this._genres.code(rows.getString(row, 2));
+      return new Game(rows.getString(row, 0), rows.getString(row, 1), this._genres.name(genreCode), genreCode,
+                      rows.getCents(row, 3), rows.getString(row, 4), rows.getString(row, 5));
+   }
+
+   /*
+    * Listener loop. Notifications only arrive with a round trip on older
+    * drivers, so each poll runs a trivial query before collecting them.
+    * Whenever the connection is (re)opened the whole cache is dropped,
+    * since notifications sent while nobody listened are lost.
+    */
+   private void listen(long pollIntervalMillis) {
+      Connection connection = null;
+      try {
+         while (!this._closed) {
+            try {
+               if (connection == null) {
+                  connection = this._esql.getPool().openUnpooled();
+                  Statement stmt = connection.createStatement();
+                  try {
+                     stmt.execute("LISTEN " + CHANNEL);
+                  }finally {
+                     stmt.close();
+                  }//end try
+                  invalidateAll();
+               }//end if
+
+               Statement stmt = connection.createStatement();
+               try {
+                  stmt.execute("SELECT 1");
+               }finally {
+                  stmt.close();
+               }//end try
+
+               PGNotification[] notifications = ((PGConnection) connection).getNotifications();
+               if (notifications != null) {
+                  for (PGNotification notification : notifications) {
+                     String gameID = payloadOf(notification);
+                     if (gameID == null || gameID.isEmpty()) {
+                        invalidateAll();
+                     } else {
+                        invalidate(gameID);
+                     }
+                  }//end for
+               }//end if
+            }catch (SQLException e) {
+               closeQuietly(connection);
+               connection = null;
+               invalidateAll();
+            }//end try
+            Thread.sleep(pollIntervalMillis);
+         }//end while
+      }catch (InterruptedException e) {
+         // closed.
+      }finally {
+         closeQuietly(connection);
+      }//end try
+   }//end listen
+
+   /*
+    * The notification payload (the gameID), or null on drivers that predate
+    * payloads. Looked up reflectively so older drivers still load this class.
+    */
+   private static String payloadOf(PGNotification notification) {
+      try {
+         Method getParameter = PGNotification.class.getMethod("getParameter");
+         Object payload = getParameter.invoke(notification);
+         return payload == null ? null : payload.toString();
+      }catch (Exception e) {
+         return null;
+      }//end try
+   }//end payloadOf
+
+   private static void closeQuietly(Connection connection) {
+      if (connection == null) {
+         return;
+      }
+      try {
+         connection.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end CatalogCache
@@ -0,0 +1,358 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * This class holds a query result column by column, with every column read
+ * through its native JDBC getter and stored in a primitive array:
+ *
+ *    INTEGER, SMALLINT        -> int[]
+ *    BIGINT                   -> long[]
+ *    NUMERIC, DECIMAL         -> long[] of cents (hundredths), when the
+ *                                column's scale is at most 2 (prices)
+ *    other NUMERIC, DECIMAL   -> BigDecimal[], so nothing is rounded
+ *    TIMESTAMP, DATE          -> long[] of epoch milliseconds
+ *    anything else            -> String[]
+ *
+ * Callers get numbers without re-parsing strings, and a result with many
+ * rows costs a handful of arrays instead of a List of Lists of Strings.
+ * Row and column indexes are 0-based, like the List results.
+ */
+public class ColumnarResult {
+
+   public static final int TYPE_STRING = 0;
+   public static final int TYPE_INT = 1;
+   public static final int TYPE_LONG = 2;
+   public static final int TYPE_CENTS = 3;
+   public static final int TYPE_TIMESTAMP = 4;
+   public static final int TYPE_DECIMAL = 5;
+
+   // how timestamps are rendered, matching PostgreSQL's text output
+   private static final DateTimeFormatter TIMESTAMP_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+   private final String[] _names;
+   private final int[] _types;
+
+   // one of int[], long[], String[] or BigDecimal[] per column, grown together
+   private final Object[] _columns;
+   private final BitSet[] _nulls;
+   private int _size = 0;
+
+   private ColumnarResult(String[] names, int[] types) {
+      this._names = names;
+      this._types = types;
+      this._columns = new Object[types.length];
+      this._nulls = new BitSet[types.length];
+      for (int c = 0; c < types.length; c++) {
+         this._columns[c] = allocate(types[c], 16);
+         this._nulls[c] = new BitSet();
+      }//end for
+   }
+
+   /**
+    * Reads every remaining row of the result set into columns.
+    *
+    * @param rs the result set, positioned before its first row
+    * @return the typed result
+    * @throws java.sql.SQLException when reading a column fails
+    */
+   public static ColumnarResult read(ResultSet rs) throws SQLException {
+      ResultSetMetaData rsmd = rs.getMetaData();
+      int numCol = rsmd.getColumnCount();
+      String[] names = new String[numCol];
+      int[] types = new int[numCol];
+      for (int c = 0; c < numCol; c++) {
+         names[c] = rsmd.getColumnName(c + 1);
+         types[c] = typeOf(rsmd.getColumnType(c + 1), rsmd.getPrecision(c + 1), rsmd.getScale(c + 1));
+      }//end for
+
+      ColumnarResult result = new ColumnarResult(names, types);
+      while (rs.next()) {
+         result.appendRow(rs);
+      }//end while
+      return result;
+   }//end read
+
+   public int size() {
+      return this._size;
+   }
+
+   /**
+    * @return a copy of the rows from (inclusive) to to (exclusive)
+    */
+   public ColumnarResult slice(int from, int to) {
+      if (from < 0 || to > this._size || from > to) {
+         throw new IndexOutOfBoundsException("Rows " + from + " to " + to + " of " + this._size);
+      }
+      ColumnarResult copy = new ColumnarResult(this._names, this._types);
+      // keep at least one slot, so the copy grows like any other result
+      int end = from + Math.max(to - from, 1);
+      for (int c = 0; c < this._columns.length; c++) {
+         Object column = this._columns[c];
+         if (column instanceof int[]) {
+            copy._columns[c] = Arrays.copyOfRange((int[]) column, from, end);
+         } else if (column instanceof long[]) {
+            copy._columns[c] = Arrays.copyOfRange((long[]) column, from, end);
+         } else {
+            copy._columns[c] = Arrays.copyOfRange((Object[]) column, from, end);
+         }
+         copy._nulls[c] = this._nulls[c].get(from, to);
+      }//end for
+      copy._size = to - from;
+      return copy;
+   }//end slice
+
+   public int getColumnCount() {
+      return this._types.length;
+   }
+
+   public String getColumnName(int col) {
+      return this._names[col];
+   }
+
+   public int getColumnType(int col) {
+      return this._types[col];
+   }
+
+   public boolean isNull(int row, int col) {
+      return this._nulls[col].get(row);
+   }
+
+   public int getInt(int row, int col) {
+      return intColumn(col)[row];
+   }
+
+   public long getLong(int row, int col) {
+      return longColumn(col)[row];
+   }
+
+   /**
+    * @return a cents column's value; a wider NUMERIC is rounded to cents,
+    *         as the caller asked for cents
+    */
+   public long getCents(int row, int col) {
+      if (this._types[col] == TYPE_DECIMAL) {
+         BigDecimal value = getDecimal(row, col);
+         return value == null ? 0L : toCents(value);
+      }
+      return longColumn(col)[row];
+   }
+
+   /**
+    * @return a NUMERIC column's value, whether it is held as cents or not; null if NULL
+    */
+   public BigDecimal getDecimal(int row, int col) {
+      if (this._types[col] == TYPE_CENTS) {
+         return isNull(row, col) ? null : fromCents(getCents(row, col));
+      }
+      return decimalColumn(col)[row];
+   }
+
+   public long getMillis(int row, int col) {
+      return longColumn(col)[row];
+   }
+
+   public String getString(int row, int col) {
+      return stringColumn(col)[row];
+   }
+
+   /**
+    * @return the backing array of an INTEGER column; only the first size() entries are valid
+    */
+   public int[] intColumn(int col) {
+      return (int[]) this._columns[col];
+   }
+
+   /**
+    * @return the backing array of a BIGINT, cents or timestamp column; only the first size() entries are valid
+    */
+   public long[] longColumn(int col) {
+      return (long[]) this._columns[col];
+   }
+
+   /**
+    * @return the backing array of a string column; only the first size() entries are valid
+    */
+   public String[] stringColumn(int col) {
+      return (String[]) this._columns[col];
+   }
+
+   /**
+    * @return the backing array of a NUMERIC column wider than cents; only the first size() entries are valid
+    */
+   public BigDecimal[] decimalColumn(int col) {
+      return (BigDecimal[]) this._columns[col];
+   }
+
+   /**
+    * Renders any cell as text, the way it would have appeared as a String
+    * result. Meant for display code, not for computing with values.
+    */
+   public String format(int row, int col) {
+      if (isNull(row, col)) {
+         return null;
+      }
+      switch (this._types[col]) {
+         case TYPE_INT:       return Integer.toString(getInt(row, col));
+         case TYPE_LONG:      return Long.toString(getLong(row, col));
+         case TYPE_CENTS:     return formatCents(getCents(row, col));
+         case TYPE_TIMESTAMP: return formatTimestamp(getMillis(row, col));
+         case TYPE_DECIMAL:   return getDecimal(row, col).toPlainString();
+         default:             return getString(row, col);
+      }
+   }//end format
+
+   /**
+    * Reads a NUMERIC column of the current row as a whole number of cents.
+    */
+   public static long readCents(ResultSet rs, int column) throws SQLException {
+      BigDecimal value = rs.getBigDecimal(column);
+      return value == null ? 0L : toCents(value);
+   }
+
+   /**
+    * Reads a TIMESTAMP column of the current row as epoch milliseconds.
+    */
+   public static long readMillis(ResultSet rs, int column) throws SQLException {
+      Timestamp value = rs.getTimestamp(column);
+      return value == null ? 0L : value.getTime();
+   }
+
+   public static long toCents(BigDecimal value) {
+      return value.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+   }
+
+   public static BigDecimal fromCents(long cents) {
+      return BigDecimal.valueOf(cents, 2);
+   }
+
+   /**
+    * Formats cents as a decimal amount with two places, e.g. 4990 -> "49.90".
+    */
+   public static String formatCents(long cents) {
+      long abs = Math.abs(cents);
+      long fraction = abs % 100;
+      StringBuilder sb = new StringBuilder(12);
+      if (cents < 0) {
+         sb.append('-');
+      }
+      sb.append(abs / 100).append('.');
+      if (fraction < 10) {
+         sb.append('0');
+      }
+      return sb.append(fraction).toString();
+   }//end formatCents
+
+   public static String formatTimestamp(long millis) {
+      return TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(millis));
+   }
+
+   private void appendRow(ResultSet rs) throws SQLException {
+      int row = this._size;
+      if (row == capacity()) {
+         grow();
+      }
+
+      for (int c = 0; c < this._types.length; c++) {
+         int column = c + 1;
+         switch (this._types[c]) {
+            case TYPE_INT:
+               intColumn(c)[row] = rs.getInt(column);
+               break;
+            case TYPE_LONG:
+               longColumn(c)[row] = rs.getLong(column);
+               break;
+            case TYPE_CENTS:
+               longColumn(c)[row] = readCents(rs, column);
+               break;
+            case TYPE_TIMESTAMP:
+               longColumn(c)[row] = readMillis(rs, column);
+               break;
+            case TYPE_DECIMAL:
+               decimalColumn(c)[row] = rs.getBigDecimal(column);
+               break;
+            default:
+               stringColumn(c)[row] = rs.getString(column);
+               break;
+         }
+         if (rs.wasNull()) {
+            this._nulls[c].set(row);
+         }
+      }//end for
+      this._size++;
+   }//end appendRow
+
+   private int capacity() {
+      if (this._types.length == 0) {
+         return Integer.MAX_VALUE;
+      }
+      Object column = this._columns[0];
+      if (column instanceof int[]) {
+         return ((int[]) column).length;
+      } else if (column instanceof long[]) {
+         return ((long[]) column).length;
+      }
+      return ((Object[]) column).length;
+   }
+
+   private void grow() {
+      int newCapacity = capacity() * 2;
+      for (int c = 0; c < this._columns.length; c++) {
+         Object column = this._columns[c];
+         if (column instanceof int[]) {
+            this._columns[c] = Arrays.copyOf((int[]) column, newCapacity);
+         } else if (column instanceof long[]) {
+            this._columns[c] = Arrays.copyOf((long[]) column, newCapacity);
+         } else {
+            this._columns[c] = Arrays.copyOf((Object[]) column, newCapacity);
+         }
+      }//end for
+   }//end grow
+
+   private static Object allocate(int type, int capacity) {
+      switch (type) {
+         case TYPE_INT:       return new int[capacity];
+         case TYPE_LONG:
+         case TYPE_CENTS:
+         case TYPE_TIMESTAMP: return new long[capacity];
+         case TYPE_DECIMAL:   return new BigDecimal[capacity];
+         default:             return new String[capacity];
+      }
+   }
+
+   /*
+    * The storage for a column. Only NUMERICs declared with a scale of 2 or
+    * less fit in cents exactly; an unconstrained NUMERIC (a computed one,
+    * say) reports a precision of 0 or a scale past 2 and is kept as is.
+    */
+   private static int typeOf(int sqlType, int precision, int scale) {
+      switch (sqlType) {
+         case Types.INTEGER:
+         case Types.SMALLINT:
+         case Types.TINYINT:
+            return TYPE_INT;
+         case Types.BIGINT:
+            return TYPE_LONG;
+         case Types.NUMERIC:
+         case Types.DECIMAL:
+            return precision > 0 && scale >= 0 && scale <= 2 ? TYPE_CENTS : TYPE_DECIMAL;
+         case Types.TIMESTAMP:
+         case Types.TIMESTAMP_WITH_TIMEZONE:
+         case Types.DATE:
+            return TYPE_TIMESTAMP;
+         default:
+            return TYPE_STRING;
+      }
+   }//end typeOf
+
+}//end ColumnarResult
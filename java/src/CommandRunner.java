@@ -0,0 +1,399 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs GameRental operations without the menus, for scripts: one command
+ * from the command line, or a file of commands, one per line. Every command
+ * goes through RentalService, the menus' logic without the console, on one
+ * connection that stays open (and keeps its prepared statements) for the
+ * whole run.
+ *
+ * Commands; options are key=value, values with spaces go in double quotes.
+ * Only the options listed for a command are parsed as options, so any other
+ * argument, a password with an = in it say, is passed through as it is:
+ *
+ *    login <login> <password>          act as this user from here on
+ *    profile
+ *    catalog [title=] [genre=] [sort=none|asc|desc]
+ *    order <gameID> <units> [<gameID> <units> ...]
+ *    orders [limit=]                   newest due date first
+ *    order-info <rentalOrderID>        one of your own orders
+ *    tracking <trackingID>             one of your own orders' tracking
+ *    update-tracking <trackingID> [status=] [location=] [courier=] [comments=]
+ *    update-game <gameID> [name=] [genre=] [price=] [description=] [image=]
+ *
+ * The update commands need the manager privileges and change only the
+ * fields given. Results go to stdout as JSON lines (one object per row, the
+ * default) or CSV (a header whenever the columns change). Errors go to
+ * stderr as "line N: message" and the run goes on with the next command;
+ * the exit code is 1 if any command failed. In a file, blank lines and
+ * lines starting with # are skipped.
+ *
+ * Usage: CommandRunner <dbname> <port> <user> [--format json|csv] [--as <login> <password>]
+ *                      (--file <path or -> | <command> [args...])
+ */
+public class CommandRunner {
+
+   public static final int FORMAT_JSON = 0;
+   public static final int FORMAT_CSV = 1;
+
+   private static final String[] PROFILE_COLUMNS = { "login", "role", "phoneNumber", "favGames", "numOverDueGames" };
+   private static final String[] UPDATED_COLUMNS = { "id", "updated" };
+
+   // command -> the key=value options it takes; commands not listed take none
+   private static final Map<String, List<String>> OPTIONS = new HashMap<String, List<String>>();
+   static {
+      OPTIONS.put("catalog", Arrays.asList("title", "genre", "sort"));
+      OPTIONS.put("orders", Arrays.asList("limit"));
+      OPTIONS.put("update-tracking", Arrays.asList("status", "location", "courier", "comments"));
+      OPTIONS.put("update-game", Arrays.asList("name", "genre", "price", "description", "image"));
+   }
+
+   private final RentalService _service;
+   private final int _format;
+   private final PrintStream _out;
+
+   private Session _session = null;
+
+   // the columns of the last CSV header written
+   private String[] _header = null;
+
+   /**
+    * @param esql the store to run the commands against
+    * @param format FORMAT_JSON or FORMAT_CSV
+    * @param out where the results go
+    */
+   public CommandRunner(GameRental esql, int format, PrintStream out) {
+      this._service = new RentalService(esql);
+      this._format = format;
+      this._out = out;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java CommandRunner <dbname> <port> <user> [--format json|csv] [--as <login> <password>] (--file <path or -> | <command> [args...])");
+         System.exit(2);
+      }//end if
+
+      int format = FORMAT_JSON;
+      String file = null;
+      String[] as = null;
+      int a = 3;
+      while (a < args.length && args[a].startsWith("--")) {
+         if (args[a].equals("--format") && a + 1 < args.length) {
+            format = args[a + 1].equalsIgnoreCase("csv") ? FORMAT_CSV : FORMAT_JSON;
+            a += 2;
+         } else if (args[a].equals("--as") && a + 2 < args.length) {
+            as = new String[] { "login", args[a + 1], args[a + 2] };
+            a += 3;
+         } else if (args[a].equals("--file") && a + 1 < args.length) {
+            file = args[a + 1];
+            a += 2;
+         } else {
+            System.err.println("Unknown option " + args[a]);
+            System.exit(2);
+         }
+      }//end while
+
+      Class.forName("org.postgresql.Driver");
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      // one connection, reused by every command
+      GameRental esql = new GameRental(new ConnectionPool(url, args[2], "", 1, 1, 300000L, 1000L, 30000L,
+                                                          Integer.getInteger("gamerental.statementCacheSize", 64)));
+      int failures = 0;
+      try {
+         CommandRunner runner = new CommandRunner(esql, format, System.out);
+         if (as != null) {
+            failures += runner.run(as, 0) ? 0 : 1;
+         }
+         if (file != null) {
+            BufferedReader reader = file.equals("-")
+               ? new BufferedReader(new InputStreamReader(System.in))
+               : new BufferedReader(new FileReader(file));
+            try {
+               failures += runner.runAll(reader);
+            }finally {
+               reader.close();
+            }//end try
+         } else if (a < args.length) {
+            failures += runner.run(Arrays.copyOfRange(args, a, args.length), 0) ? 0 : 1;
+         }
+         System.out.flush();
+      }finally {
+         esql.cleanup();
+      }//end try
+      System.exit(failures > 0 ? 1 : 0);
+   }//end main
+
+   /**
+    * Runs every command read, one per line.
+    *
+    * @return how many commands failed
+    * @throws java.io.IOException when reading fails
+    */
+   public int runAll(BufferedReader reader) throws java.io.IOException {
+      int failures = 0;
+      int lineNumber = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+         lineNumber++;
+         String trimmed = line.trim();
+         if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            continue;
+         }
+         try {
+            failures += run(tokenize(trimmed), lineNumber) ? 0 : 1;
+         }catch (IllegalArgumentException e) {
+            System.err.println("line " + lineNumber + ": " + e.getMessage());
+            failures++;
+         }//end try
+      }//end while
+      return failures;
+   }//end runAll
+
+   /**
+    * Runs one command, reporting a failure on stderr.
+    *
+    * @param command the command name and its arguments
+    * @param lineNumber where it came from, for the error message; 0 for the command line
+    * @return true if it succeeded
+    */
+   public boolean run(String[] command, int lineNumber) {
+      try {
+         execute(command);
+         return true;
+      }catch (Throwable e) {
+         // an Error (a driver missing a method, say) fails this command, not the whole batch;
+         // its class name says more than its message
+         String message = e instanceof Exception && e.getMessage() != null ? e.getMessage().trim() : e.toString();
+         System.err.println((lineNumber > 0 ? "line " + lineNumber + ": " : "") + command[0] + ": " + message);
+         return false;
+      }//end try
+   }//end run
+
+   private void execute(String[] command) throws Exception {
+      String name = command[0];
+      List<String> known = OPTIONS.containsKey(name) ? OPTIONS.get(name) : new ArrayList<String>();
+      List<String> positional = new ArrayList<String>();
+      Map<String, String> options = new HashMap<String, String>();
+      for (int i = 1; i < command.length; i++) {
+         int eq = command[i].indexOf('=');
+         if (eq > 0 && known.contains(command[i].substring(0, eq))) {
+            options.put(command[i].substring(0, eq), command[i].substring(eq + 1));
+         } else {
+            positional.add(command[i]);
+         }
+      }//end for
+
+      if (name.equals("login")) {
+         requireArguments(positional, 2);
+         Session session = this._service.logIn(positional.get(0), positional.get(1));
+         if (session == null) {
+            throw new IllegalArgumentException("Invalid login or password");
+         }
+         this._session = session;
+      } else if (name.equals("catalog")) {
+         requireArguments(positional, 0);
+         catalog(options);
+      } else if (name.equals("profile")) {
+         Session session = requireSession();
+         row(PROFILE_COLUMNS, session.getLogin(), session.getRole(), session.getPhoneNumber(),
+             session.getFavoriteGames(), session.getNumOverDueGames());
+      } else if (name.equals("order")) {
+         order(positional);
+      } else if (name.equals("orders")) {
+         requireArguments(positional, 0);
+         orders(options);
+      } else if (name.equals("order-info")) {
+         requireArguments(positional, 1);
+         rows(RentalService.ORDER_DETAILS_COLUMNS, this._service.getOrderDetails(requireSession(), positional.get(0)));
+      } else if (name.equals("tracking")) {
+         requireArguments(positional, 1);
+         rows(RentalService.TRACKING_COLUMNS, this._service.getTrackingInfo(requireSession(), positional.get(0)));
+      } else if (name.equals("update-tracking")) {
+         updateTracking(positional, options);
+      } else if (name.equals("update-game")) {
+         updateGame(positional, options);
+      } else {
+         throw new IllegalArgumentException("Unknown command");
+      }
+   }//end execute
+
+   private void catalog(Map<String, String> options) throws SQLException {
+      List<CatalogCache.Game> games = this._service.searchCatalog(options.get("title"), options.get("genre"), options.get("sort"));
+      for (CatalogCache.Game game : games) {
+         row(RentalService.GAME_COLUMNS, game.getGameID(), game.getGameName(), game.getGenre(),
+             ColumnarResult.fromCents(game.getPriceCents()), game.getDescription(), game.getImageURL());
+      }
+   }//end catalog
+
+   private void order(List<String> positional) throws Exception {
+      Session session = requireSession();
+      if (positional.isEmpty() || positional.size() % 2 != 0) {
+         throw new IllegalArgumentException("Expected <gameID> <units> pairs");
+      }
+      Cart cart = new Cart();
+      for (int i = 0; i < positional.size(); i += 2) {
+         cart.add(positional.get(i), parseUnits(positional.get(i + 1)));
+      }
+      String[] keys = this._service.placeOrder(session, cart);
+      row(RentalService.ORDER_PLACED_COLUMNS, keys[0], keys[1], cart.getTotalUnits(), ColumnarResult.fromCents(cart.getTotalCents()));
+   }//end order
+
+   private void orders(Map<String, String> options) throws SQLException {
+      int limit = options.containsKey("limit") ? Integer.parseInt(options.get("limit")) : Integer.MAX_VALUE;
+      // the whole history may be asked for, so it is written as it is fetched
+      this._service.streamOrderHistory(requireSession(), limit, new RowHandler() {
+         public void handleRows(ColumnarResult rows) {
+            for (int row = 0; row < rows.size(); row++) {
+               rowOf(RentalService.ORDER_COLUMNS, rows, row);
+            }
+         }
+      });
+   }//end orders
+
+   private void updateTracking(List<String> positional, Map<String, String> options) throws SQLException {
+      Session session = requireSession();
+      if (positional.size() != 1) {
+         throw new IllegalArgumentException("Expected <trackingID>");
+      }
+      this._service.updateTracking(session, positional.get(0), options.get("courier"), options.get("location"),
+                                   options.get("status"), options.get("comments"));
+      row(UPDATED_COLUMNS, positional.get(0), 1);
+   }//end updateTracking
+
+   private void updateGame(List<String> positional, Map<String, String> options) throws SQLException {
+      Session session = requireSession();
+      if (positional.size() != 1) {
+         throw new IllegalArgumentException("Expected <gameID>");
+      }
+      BigDecimal price = null;
+      if (options.containsKey("price")) {
+         try {
+            price = new BigDecimal(options.get("price"));
+         }catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Price must be a number");
+         }//end try
+      }
+      this._service.updateGame(session, positional.get(0), options.get("name"), options.get("genre"), price,
+                               options.get("description"), options.get("image"));
+      row(UPDATED_COLUMNS, positional.get(0), 1);
+   }//end updateGame
+
+   private Session requireSession() {
+      if (this._session == null) {
+         throw new IllegalArgumentException("Log in first");
+      }
+      return this._session;
+   }
+
+   private static void requireArguments(List<String> positional, int count) {
+      if (positional.size() != count) {
+         throw new IllegalArgumentException("Expected " + count + " argument(s)");
+      }
+   }
+
+   private static int parseUnits(String units) {
+      try {
+         return Integer.parseInt(units);
+      }catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Units must be a whole number, got " + units);
+      }//end try
+   }
+
+   private void rows(String[] names, ColumnarResult result) {
+      for (int row = 0; row < result.size(); row++) {
+         rowOf(names, result, row);
+      }
+   }
+
+   private void rowOf(String[] names, ColumnarResult result, int row) {
+      row(names, Json.values(result, row, names.length));
+   }
+
+   /*
+    * Writes one result row in the chosen format. Numbers are written bare,
+    * everything else as a string.
+    */
+   private void row(String[] names, Object... values) {
+      StringBuilder line = new StringBuilder(128);
+      if (this._format == FORMAT_CSV) {
+         if (this._header != names) {
+            for (int i = 0; i < names.length; i++) {
+               line.append(i > 0 ? "," : "").append(names[i]);
+            }
+            this._out.println(line);
+            line.setLength(0);
+            this._header = names;
+         }//end if
+         for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+               line.append(',');
+            }
+            if (values[i] instanceof Number) {
+               line.append(values[i]);
+            } else if (values[i] != null) {
+               line.append('"').append(values[i].toString().replace("\"", "\"\"")).append('"');
+            }
+         }//end for
+      } else {
+         Json.appendObject(line, names, values);
+      }
+      this._out.println(line);
+   }//end row
+
+   /**
+    * Splits a command line on whitespace. Double quotes group words, and
+    * inside them a backslash escapes the next character; key="a b" gives
+    * the single argument key=a b.
+    *
+    * @throws java.lang.IllegalArgumentException on an unclosed quote
+    */
+   static String[] tokenize(String line) {
+      List<String> tokens = new ArrayList<String>();
+      StringBuilder token = new StringBuilder();
+      boolean inToken = false;
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); i++) {
+         char c = line.charAt(i);
+         if (quoted) {
+            if (c == '\\' && i + 1 < line.length()) {
+               token.append(line.charAt(++i));
+            } else if (c == '"') {
+               quoted = false;
+            } else {
+               token.append(c);
+            }
+         } else if (c == '"') {
+            quoted = true;
+            inToken = true;
+         } else if (Character.isWhitespace(c)) {
+            if (inToken) {
+               tokens.add(token.toString());
+               token.setLength(0);
+               inToken = false;
+            }
+         } else {
+            token.append(c);
+            inToken = true;
+         }
+      }//end for
+      if (quoted) {
+         throw new IllegalArgumentException("Unclosed quote");
+      }
+      if (inToken) {
+         tokens.add(token.toString());
+      }
+      return tokens.toArray(new String[0]);
+   }//end tokenize
+
+}//end CommandRunner
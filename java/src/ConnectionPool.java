@@ -0,0 +1,363 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class defines a small pool of physical PostgreSQL connections that
+ * many callers (threads, user sessions) can share.
+ *
+ * Borrowing is lock free in the common case: a permit is taken from a
+ * semaphore that caps the pool at its maximum size, then the most recently
+ * returned idle connection is popped from a concurrent deque. Only when the
+ * pool is exhausted does a caller block, up to the borrow timeout.
+ *
+ * Connections that sat idle longer than the validation interval are checked
+ * before being handed out. A background thread closes connections that have
+ * been idle longer than the idle timeout, but never shrinks the pool below
+ * its minimum size.
+ */
+public class ConnectionPool {
+
+   /**
+    * A physical connection together with the prepared statements cached on
+    * it. Only the caller that borrowed it may use it until it is released.
+    */
+   public static class PooledConnection {
+      private final Connection _connection;
+      private final StatementCache _statementCache;
+      private volatile long _lastReleasedNanos;
+
+      private PooledConnection(Connection connection, int statementCacheSize) {
+         this._connection = connection;
+         this._statementCache = new StatementCache(connection, statementCacheSize);
+         this._lastReleasedNanos = System.nanoTime();
+      }
+
+      public Connection getConnection() {
+         return this._connection;
+      }
+
+      public StatementCache getStatementCache() {
+         return this._statementCache;
+      }
+
+      private long idleNanos(long now) {
+         return now - this._lastReleasedNanos;
+      }
+
+      private void close() {
+         this._statementCache.close();
+         try {
+            this._connection.close();
+         }catch (SQLException e) {
+            // ignored.
+         }//end try
+      }
+   }//end PooledConnection
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _idleTimeoutNanos;
+   private final long _validationIntervalNanos;
+   private final long _borrowTimeoutMillis;
+   private final int _statementCacheSize;
+
+   // idle connections, most recently released first.
+   private final ConcurrentLinkedDeque<PooledConnection> _idle = new ConcurrentLinkedDeque<PooledConnection>();
+
+   // one permit per connection that may still be handed out.
+   private final Semaphore _permits;
+
+   // physical connections currently open (idle + borrowed).
+   private final AtomicInteger _total = new AtomicInteger();
+
+   // borrows that had to wait, and those that gave up waiting
+   private final LongAdder _waits = new LongAdder();
+   private final LongAdder _timeouts = new LongAdder();
+
+   private final ScheduledExecutorService _evictor;
+   private volatile boolean _closed = false;
+
+   /**
+    * Creates the pool and opens its minimum number of connections
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize connections kept open even when idle
+    * @param maxSize upper bound on open connections
+    * @param idleTimeoutMillis idle time after which a connection above minSize is closed
+    * @param validationIntervalMillis idle time after which a connection is validated on borrow
+    * @param borrowTimeoutMillis how long borrow() waits when the pool is exhausted
+    * @param statementCacheSize prepared statements cached per connection
+    * @throws java.sql.SQLException when the initial connections cannot be opened
+    */
+   public ConnectionPool(String url, String user, String passwd,
+                         int minSize, int maxSize,
+                         long idleTimeoutMillis, long validationIntervalMillis,
+                         long borrowTimeoutMillis, int statementCacheSize) throws SQLException {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+         throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+      }
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._minSize = minSize;
+      this._maxSize = maxSize;
+      this._idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+      this._validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+      this._borrowTimeoutMillis = borrowTimeoutMillis;
+      this._statementCacheSize = statementCacheSize;
+      this._permits = new Semaphore(maxSize);
+
+      try {
+         fillToMinimum();
+      }catch (SQLException e) {
+         close();
+         throw e;
+      }//end try
+
+      this._evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      long period = Math.max(1000L, Math.min(idleTimeoutMillis, 30000L));
+      this._evictor.scheduleWithFixedDelay(new Runnable() {
+         public void run() {
+            evictIdle();
+         }
+      }, period, period, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Takes a connection out of the pool, opening a new one if no idle
+    * connection is available and the pool is below its maximum size.
+    * Every successful borrow must be paired with a release.
+    *
+    * @return a connection for the exclusive use of the caller
+    * @throws java.sql.SQLException when no connection became available in time
+    */
+   public PooledConnection borrow() throws SQLException {
+      if (this._closed) {
+         throw new SQLException("Connection pool is closed");
+      }
+
+      if (!this._permits.tryAcquire()) {
+         this._waits.increment();
+         try {
+            if (!this._permits.tryAcquire(this._borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+               this._timeouts.increment();
+               throw new SQLException("Timed out after " + this._borrowTimeoutMillis
+                                      + "ms waiting for a database connection");
+            }
+         }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+         }//end try
+      }//end if
+
+      try {
+         long now = System.nanoTime();
+         PooledConnection pc;
+         while ((pc = this._idle.pollFirst()) != null) {
+            if (pc.idleNanos(now) < this._validationIntervalNanos || isUsable(pc)) {
+               return pc;
+            }
+            destroy(pc);
+         }//end while
+         return open();
+      }catch (SQLException e) {
+         this._permits.release();
+         throw e;
+      }catch (RuntimeException e) {
+         this._permits.release();
+         throw e;
+      }//end try
+   }//end borrow
+
+   /**
+    * Returns a borrowed connection to the pool. Connections left in a
+    * transaction are rolled back; closed connections are discarded.
+    *
+    * @param pc the connection obtained from borrow()
+    */
+   public void release(PooledConnection pc) {
+      if (pc == null) {
+         return;
+      }
+      try {
+         if (this._closed || pc._connection.isClosed()) {
+            destroy(pc);
+            return;
+         }
+         if (!pc._connection.getAutoCommit()) {
+            pc._connection.rollback();
+            pc._connection.setAutoCommit(true);
+         }
+         pc._lastReleasedNanos = System.nanoTime();
+         this._idle.offerFirst(pc);
+      }catch (SQLException e) {
+         destroy(pc);
+      }finally {
+         this._permits.release();
+      }//end try
+   }//end release
+
+   /**
+    * Opens a physical connection that is not managed by the pool, for
+    * long-lived uses such as LISTEN that would otherwise pin a pooled
+    * connection forever. The caller owns it and must close it.
+    *
+    * @return a new connection to the pool's database
+    * @throws java.sql.SQLException when the connection cannot be opened
+    */
+   public Connection openUnpooled() throws SQLException {
+      if (this._closed) {
+         throw new SQLException("Connection pool is closed");
+      }
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }//end openUnpooled
+
+   public int getMinSize() {
+      return this._minSize;
+   }
+
+   public int getMaxSize() {
+      return this._maxSize;
+   }
+
+   /**
+    * @return the number of open physical connections
+    */
+   public int getTotalCount() {
+      return this._total.get();
+   }
+
+   /**
+    * @return the number of connections currently borrowed
+    */
+   public int getActiveCount() {
+      return this._maxSize - this._permits.availablePermits();
+   }
+
+   /**
+    * @return the number of threads waiting in borrow()
+    */
+   public int getWaitingCount() {
+      return this._permits.getQueueLength();
+   }
+
+   /**
+    * @return how many borrow() calls found every connection in use and waited
+    */
+   public long getWaitCount() {
+      return this._waits.sum();
+   }
+
+   /**
+    * @return how many borrow() calls timed out waiting
+    */
+   public long getTimeoutCount() {
+      return this._timeouts.sum();
+   }
+
+   /**
+    * Closes every idle connection and stops the evictor. Connections still
+    * borrowed are closed when they are released.
+    */
+   public void close() {
+      this._closed = true;
+      if (this._evictor != null) {
+         this._evictor.shutdownNow();
+      }
+      PooledConnection pc;
+      while ((pc = this._idle.pollFirst()) != null) {
+         destroy(pc);
+      }//end while
+   }//end close
+
+   private PooledConnection open() throws SQLException {
+      Connection connection = DriverManager.getConnection(this._url, this._user, this._passwd);
+      this._total.incrementAndGet();
+      return new PooledConnection(connection, this._statementCacheSize);
+   }//end open
+
+   private void destroy(PooledConnection pc) {
+      this._total.decrementAndGet();
+      pc.close();
+   }//end destroy
+
+   private boolean isUsable(PooledConnection pc) {
+      try {
+         return pc._connection.isValid(5);
+      }catch (Throwable t) {
+         // drivers without isValid() fall back to a trivial round trip
+         try {
+            Statement stmt = pc._connection.createStatement();
+            try {
+               stmt.execute("SELECT 1");
+            }finally {
+               stmt.close();
+            }//end try
+            return true;
+         }catch (SQLException e) {
+            return false;
+         }//end try
+      }//end try
+   }//end isUsable
+
+   private void fillToMinimum() throws SQLException {
+      while (!this._closed && this._total.get() < this._minSize) {
+         if (!this._permits.tryAcquire()) {
+            return; // everything is borrowed, nothing to top up
+         }
+         try {
+            this._idle.offerLast(open());
+         }finally {
+            this._permits.release();
+         }//end try
+      }//end while
+   }//end fillToMinimum
+
+   /*
+    * Closes connections idle for longer than the idle timeout, oldest first,
+    * while the pool stays above its minimum size.
+    */
+   private void evictIdle() {
+      long now = System.nanoTime();
+      Iterator<PooledConnection> it = this._idle.descendingIterator();
+      while (it.hasNext() && this._total.get() > this._minSize) {
+         PooledConnection pc = it.next();
+         if (pc.idleNanos(now) < this._idleTimeoutNanos) {
+            break; // everything closer to the head was used more recently
+         }
+         if (this._idle.removeLastOccurrence(pc)) {
+            destroy(pc);
+         }
+      }//end while
+
+      try {
+         fillToMinimum();
+      }catch (SQLException e) {
+         System.err.println("Connection pool could not reopen minimum connections: " + e.getMessage());
+      }//end try
+   }//end evictIdle
+
+}//end ConnectionPool
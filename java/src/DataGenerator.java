@@ -0,0 +1,462 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes a synthetic data set in the layout of data/ (users.csv,
+ * catalog.csv, rentalorder.csv, gamesinorder.csv, trackinginfo.csv), for
+ * BulkLoader to load. Scale 1 is about the size of the bundled data: 500
+ * users, 500 games, 3,000 orders and 3,800 order lines. Users and orders grow
+ * linearly with the scale, the catalog with its square root; scale 26,000 is
+ * about 100M order lines.
+ *
+ * The data is skewed like real rentals: games are picked by Zipfian
+ * popularity and orders by Zipfian users, so a few titles and a few heavy
+ * renters dominate. Popularity ranks are scattered over the IDs, so the
+ * popular games are not simply the first ones. The other distributions
+ * (lines per order, units, genres, prices, statuses) follow the bundled data.
+ *
+ * Every row is a pure function of the seed and its position: rows are
+ * generated in fixed-size chunks, each with its own random stream, so the
+ * output is identical whatever the number of threads. Chunks are generated
+ * in parallel and written in order, with only a bounded number of them in
+ * memory at a time, so memory use does not grow with the scale. Every order
+ * references users and games that exist, one tracking row per order.
+ *
+ * Skew exponents: -Dgamerental.gen.gameSkew (default 1.0) and
+ * -Dgamerental.gen.userSkew (default 0.8).
+ *
+ * Usage: DataGenerator <output dir> [scale] [seed] [threads]
+ */
+public class DataGenerator {
+
+   /*
+    * Fills the output files of one chunk of rows [first, end).
+    */
+   private interface ChunkWriter {
+      void write(long first, long end, SplittableRandom random, StringBuilder[] out);
+   }
+
+   private static final double GAME_SKEW = Double.parseDouble(System.getProperty("gamerental.gen.gameSkew", "1.0"));
+   private static final double USER_SKEW = Double.parseDouble(System.getProperty("gamerental.gen.userSkew", "0.8"));
+
+   private static final int CHUNK_ROWS = 20000;
+
+   // the bundled data's numbering starts at 1000
+   private static final long FIRST_ORDER = 1000;
+
+   // seconds since the epoch: 2012-01-01 to 2025-01-01
+   private static final long FIRST_ORDER_TIME = 1325376000L;
+   private static final long ORDER_TIME_SPAN = 1735689600L - FIRST_ORDER_TIME;
+   private static final int RENTAL_DAYS = 30;
+
+   // salts keep the random streams of the tables apart
+   private static final long USERS = 1;
+   private static final long CATALOG = 2;
+   private static final long ORDERS = 3;
+
+   // genres weighted like the bundled catalog
+   private static final String[] GENRES = {
+      "Action", "Shooter", "Platform", "Sports", "Role-Playing", "Misc",
+      "Racing", "Fighting", "Simulation", "Puzzle", "Adventure", "Strategy" };
+   private static final int[] GENRE_WEIGHTS = { 94, 75, 59, 57, 56, 43, 38, 29, 22, 11, 9, 7 };
+
+   private static final String[] PLATFORMS = { "PS4", "PS5", "Switch", "Xbox One", "PC", "Wii", "3DS", "GBA" };
+   private static final String[] PUBLISHERS = { "Nintendo", "Sony", "Microsoft", "Ubisoft", "EA", "Activision", "Sega", "Capcom", "THQ", "Konami" };
+
+   private static final String[] TITLE_WORDS_1 = {
+      "Super", "Final", "Dark", "Grand", "Mega", "Shadow", "Crystal", "Iron", "Neon", "Lost",
+      "Eternal", "Wild", "Silent", "Cosmic", "Royal", "Broken", "Hidden", "Frozen", "Burning", "Last" };
+   private static final String[] TITLE_WORDS_2 = {
+      "Legends", "Quest", "Racer", "Kingdom", "Warriors", "Odyssey", "Tactics", "Arena", "Frontier", "Saga",
+      "Dungeon", "Galaxy", "Island", "Chronicles", "Empire", "Hunter", "Rally", "League", "Heroes", "Tales" };
+
+   private static final String[] FIRST_NAMES = {
+      "james", "mary", "robert", "patricia", "john", "jennifer", "michael", "linda", "david", "elizabeth",
+      "william", "barbara", "richard", "susan", "joseph", "jessica", "thomas", "sarah", "chris", "karen" };
+   private static final String[] LAST_NAMES = {
+      "smith", "johnson", "williams", "brown", "jones", "garcia", "miller", "davis", "rodriguez", "martinez",
+      "hernandez", "lopez", "gonzalez", "wilson", "anderson", "thomas", "taylor", "moore", "jackson", "martin" };
+
+   private static final String[] STATUSES = {
+      "In Transit", "Returned to Sender", "Delayed", "Attempted Delivery", "Ready for Pickup",
+      "Out for Delivery", "Delivered", "Arrived at Facility" };
+   private static final String[] COURIERS = { "DHL", "USPS", "TNT", "FedEx", "UPS" };
+   private static final String[] CITIES = {
+      "New York,NY", "Los Angeles,CA", "Chicago,IL", "Houston,TX", "Phoenix,AZ", "Philadelphia,PA",
+      "San Antonio,TX", "San Diego,CA", "Dallas,TX", "San Jose,CA", "Austin,TX", "Seattle,WA", "Denver,CO" };
+
+   // share of orders with 1, 2, 3, 4 and 5 lines in the bundled data, in ten-thousandths
+   private static final int[] LINES_PER_ORDER = { 7758, 1892, 296, 46, 8 };
+
+   private static final char[] ALPHANUMERIC = "ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz23456789".toCharArray();
+
+   private final long _seed;
+   private final int _threads;
+   private final long _numUsers;
+   private final long _numGames;
+   private final long _numOrders;
+
+   private final ZipfSampler _gamePopularity;
+   private final ZipfSampler _userActivity;
+
+   /**
+    * @param scale 1 for about the size of the bundled data
+    * @param seed the same seed and scale always give the same files
+    * @param threads how many chunks are generated at once
+    */
+   public DataGenerator(double scale, long seed, int threads) {
+      if (!(scale > 0)) {
+         throw new IllegalArgumentException("Scale must be positive, got " + scale);
+      }
+      this._seed = seed;
+      this._threads = Math.max(1, threads);
+      this._numUsers = Math.max(1, Math.round(500 * scale));
+      this._numGames = Math.max(5, Math.round(500 * Math.sqrt(scale)));
+      this._numOrders = Math.max(1, Math.round(3000 * scale));
+      if (this._numUsers > Integer.MAX_VALUE || this._numGames > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException("Scale too large: " + scale);
+      }
+      this._gamePopularity = new ZipfSampler((int) this._numGames, GAME_SKEW);
+      this._userActivity = new ZipfSampler((int) this._numUsers, USER_SKEW);
+   }//end DataGenerator
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 1) {
+         System.err.println("Usage: java DataGenerator <output dir> [scale] [seed] [threads]");
+         return;
+      }//end if
+
+      File dir = new File(args[0]);
+      double scale = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+      long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+      int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+         throw new IOException("Cannot create " + dir);
+      }
+      new DataGenerator(scale, seed, threads).writeAll(dir);
+   }//end main
+
+   /**
+    * Writes the five CSV files into dir, replacing any already there.
+    *
+    * @throws java.lang.Exception when a file cannot be written
+    */
+   public void writeAll(File dir) throws Exception {
+      System.out.println(String.format("%d users, %d games, %d orders; %d threads", this._numUsers, this._numGames, this._numOrders, this._threads));
+      System.out.println(String.format("%-28s | %12s | %9s | %12s", "Files", "rows", "seconds", "rows/s"));
+      System.out.println("-----------------------------------------------------------------------");
+      ExecutorService executor = Executors.newFixedThreadPool(this._threads);
+      try {
+         generate(executor, dir, new String[] { "users.csv" },
+                  new String[] { "\"login\",\"password\",\"role\",\"favGames\",\"phoneNumber\",\"numOverDueGames\"" },
+                  USERS, this._numUsers, new ChunkWriter() {
+            public void write(long first, long end, SplittableRandom random, StringBuilder[] out) {
+               writeUsers(first, end, random, out[0]);
+            }
+         });
+         generate(executor, dir, new String[] { "catalog.csv" },
+                  new String[] { "\"gameID\",\"gameName\",\"genre\",\"price\",\"description\",\"imageURL\"" },
+                  CATALOG, this._numGames, new ChunkWriter() {
+            public void write(long first, long end, SplittableRandom random, StringBuilder[] out) {
+               writeGames(first, end, out[0]);
+            }
+         });
+         generate(executor, dir, new String[] { "rentalorder.csv", "gamesinorder.csv", "trackinginfo.csv" },
+                  new String[] { "\"rentalorderid\",\"login\",\"noOfGames\",\"totalprice\",\"orderTimestamp\",\"dueDate\"",
+                                 "\"rentalorderid\",\"gameID\",\"unitsOrdered\"",
+                                 "\"trackingID\",\"rentalorderid\",\"status\",\"currentLocation\",\"courierName\",\"lastUpdateDate\",\"additionalComments\"" },
+                  ORDERS, this._numOrders, new ChunkWriter() {
+            public void write(long first, long end, SplittableRandom random, StringBuilder[] out) {
+               writeOrders(first, end, random, out[0], out[1], out[2]);
+            }
+         });
+      }finally {
+         executor.shutdown();
+      }//end try
+   }//end writeAll
+
+   /*
+    * Generates count rows in chunks on the executor and writes the chunks to
+    * the files in order. At most two chunks per thread are pending at once.
+    */
+   private void generate(ExecutorService executor, File dir, String[] files, String[] headers,
+                         final long table, long count, final ChunkWriter writer) throws Exception {
+      long start = System.nanoTime();
+      OutputStream[] outs = new OutputStream[files.length];
+      long[] lines = new long[files.length];
+      try {
+         for (int f = 0; f < files.length; f++) {
+            outs[f] = new BufferedOutputStream(new FileOutputStream(new File(dir, files[f])), 1 << 20);
+            outs[f].write((headers[f] + "\n").getBytes(StandardCharsets.UTF_8));
+         }//end for
+
+         ArrayDeque<Future<byte[][]>> pending = new ArrayDeque<Future<byte[][]>>();
+         final int numFiles = files.length;
+         for (long first = 0; first < count || !pending.isEmpty(); first += CHUNK_ROWS) {
+            if (first < count) {
+               final long chunkFirst = first;
+               final long chunkEnd = Math.min(count, first + CHUNK_ROWS);
+               pending.add(executor.submit(new Callable<byte[][]>() {
+                  public byte[][] call() {
+                     StringBuilder[] out = new StringBuilder[numFiles];
+                     for (int f = 0; f < numFiles; f++) {
+                        out[f] = new StringBuilder(1 << 16);
+                     }
+                     writer.write(chunkFirst, chunkEnd, chunkRandom(table, chunkFirst / CHUNK_ROWS), out);
+                     byte[][] bytes = new byte[numFiles][];
+                     for (int f = 0; f < numFiles; f++) {
+                        bytes[f] = out[f].toString().getBytes(StandardCharsets.UTF_8);
+                     }
+                     return bytes;
+                  }
+               }));
+            }//end if
+            if (pending.size() >= 2 * this._threads || first + CHUNK_ROWS >= count) {
+               byte[][] chunk = await(pending.poll());
+               for (int f = 0; f < numFiles; f++) {
+                  outs[f].write(chunk[f]);
+                  lines[f] += countLines(chunk[f]);
+               }
+            }//end if
+         }//end for
+      }finally {
+         for (OutputStream out : outs) {
+            if (out != null) {
+               out.close();
+            }
+         }
+      }//end try
+
+      double seconds = (System.nanoTime() - start) / 1e9;
+      for (int f = 0; f < files.length; f++) {
+         System.out.println(String.format("%-28s | %12d | %9.2f | %12.0f", files[f], lines[f], seconds, lines[f] / seconds));
+      }
+   }//end generate
+
+   private void writeUsers(long first, long end, SplittableRandom random, StringBuilder out) {
+      for (long u = first; u < end; u++) {
+         int roll = random.nextInt(1000);
+         String role = roll < 12 ? "manager" : roll < 42 ? "employee" : "customer";
+         out.append('"').append(login(u)).append("\",\"");
+         for (int i = 0; i < 8 + random.nextInt(3); i++) {
+            out.append(ALPHANUMERIC[random.nextInt(ALPHANUMERIC.length)]);
+         }
+         out.append("\",\"").append(role).append("\",\"");
+         // up to three favorites, popular games more often
+         int numFavorites = random.nextInt(4);
+         for (int i = 0; i < numFavorites; i++) {
+            out.append(i > 0 ? "," : "").append(gameName(popularGame(random)));
+         }
+         out.append("\",\"+1-").append(100 + random.nextInt(900)).append('-')
+            .append(100 + random.nextInt(900)).append('-').append(1000 + random.nextInt(9000)).append("\",");
+         // a few users have overdue games
+         out.append(random.nextInt(20) == 0 ? 1 + random.nextInt(3) : 0).append('\n');
+      }//end for
+   }//end writeUsers
+
+   /*
+    * Games need no random stream: everything about a game is a hash of its
+    * number, so orders can price a game without the catalog in memory.
+    */
+   private void writeGames(long first, long end, StringBuilder out) {
+      for (long g = first; g < end; g++) {
+         long hash = hash(CATALOG, g);
+         out.append('"').append(gameID(g)).append("\",\"").append(gameName(g)).append("\",\"")
+            .append(genre(hash)).append("\",");
+         appendCents(out, priceCents(g));
+         out.append(",\"Platform: ").append(PLATFORMS[(int) ((hash >>> 20) % PLATFORMS.length)])
+            .append(";  Publisher: ").append(PUBLISHERS[(int) ((hash >>> 28) % PUBLISHERS.length)])
+            .append("\",\"\"\n");
+      }//end for
+   }//end writeGames
+
+   private void writeOrders(long first, long end, SplittableRandom random,
+                            StringBuilder orders, StringBuilder lines, StringBuilder tracking) {
+      long[] games = new long[LINES_PER_ORDER.length];
+      for (long o = first; o < end; o++) {
+         String orderID = "gamerentalorder" + (FIRST_ORDER + o);
+         long orderTime = FIRST_ORDER_TIME + (long) (random.nextDouble() * ORDER_TIME_SPAN);
+
+         // distinct games, so (rentalOrderID, gameID) stays unique
+         int numLines = pick(LINES_PER_ORDER, random.nextInt(10000)) + 1;
+         numLines = (int) Math.min(numLines, this._numGames);
+         int numUnits = 0;
+         long totalCents = 0;
+         for (int l = 0; l < numLines; l++) {
+            long game;
+            boolean repeated;
+            do {
+               game = popularGame(random);
+               repeated = false;
+               for (int p = 0; p < l; p++) {
+                  repeated |= games[p] == game;
+               }
+            } while (repeated);
+            games[l] = game;
+            int units = 1 + random.nextInt(5);
+            numUnits += units;
+            totalCents += units * priceCents(game);
+            lines.append('"').append(orderID).append("\",\"").append(gameID(game)).append("\",").append(units).append('\n');
+         }//end for
+
+         orders.append('"').append(orderID).append("\",\"").append(login(activeUser(random))).append("\",")
+            .append(numUnits).append(',');
+         appendCents(orders, totalCents);
+         orders.append(",\"");
+         appendTimestamp(orders, orderTime);
+         orders.append("\",\"");
+         appendDate(orders, orderTime / 86400 + RENTAL_DAYS);
+         orders.append("\"\n");
+
+         tracking.append("\"trackingid").append(FIRST_ORDER + o).append("\",\"").append(orderID).append("\",\"")
+            .append(STATUSES[random.nextInt(STATUSES.length)]).append("\",\"")
+            .append(CITIES[random.nextInt(CITIES.length)]).append("\",\"")
+            .append(COURIERS[random.nextInt(COURIERS.length)]).append("\",\"");
+         appendTimestamp(tracking, orderTime + random.nextInt(5 * 86400));
+         tracking.append("\",\"\"\n");
+      }//end for
+   }//end writeOrders
+
+   private long popularGame(SplittableRandom random) {
+      return scatter(this._gamePopularity.sample(random) - 1, this._numGames);
+   }
+
+   private long activeUser(SplittableRandom random) {
+      return scatter(this._userActivity.sample(random) - 1, this._numUsers);
+   }
+
+   /*
+    * Maps popularity rank r (0-based) to an ID: multiplying by a prime
+    * larger than n is a permutation of 0..n-1.
+    */
+   private static long scatter(long rank, long n) {
+      return rank * (1000000007L % n) % n;
+   }
+
+   private static String login(long u) {
+      return FIRST_NAMES[(int) (u % FIRST_NAMES.length)] + LAST_NAMES[(int) (u / FIRST_NAMES.length % LAST_NAMES.length)] + u;
+   }
+
+   private static String gameID(long g) {
+      return String.format("game%04d", g + 1);
+   }
+
+   /*
+    * Unique per game: every pair of title words once, then again with a number.
+    */
+   private static String gameName(long g) {
+      int pairs = TITLE_WORDS_1.length * TITLE_WORDS_2.length;
+      String name = TITLE_WORDS_1[(int) (g % TITLE_WORDS_1.length)] + " " + TITLE_WORDS_2[(int) (g / TITLE_WORDS_1.length % TITLE_WORDS_2.length)];
+      return g < pairs ? name : name + " " + (g / pairs + 1);
+   }
+
+   private String genre(long hash) {
+      int total = 0;
+      for (int weight : GENRE_WEIGHTS) {
+         total += weight;
+      }
+      return GENRES[pick(GENRE_WEIGHTS, (int) ((hash >>> 1) % total))];
+   }
+
+   /*
+    * 15.99 to 50.99, like the bundled catalog
+    */
+   private long priceCents(long g) {
+      return 1599 + 100 * ((hash(CATALOG, g) >>> 40) % 36);
+   }
+
+   /*
+    * The index whose cumulative weight first exceeds roll.
+    */
+   private static int pick(int[] weights, int roll) {
+      for (int i = 0; i < weights.length; i++) {
+         roll -= weights[i];
+         if (roll < 0) {
+            return i;
+         }
+      }//end for
+      return weights.length - 1;
+   }
+
+   private SplittableRandom chunkRandom(long table, long chunk) {
+      return new SplittableRandom(hash(table, chunk));
+   }
+
+   /*
+    * SplitMix64 of the seed, a table salt and a position.
+    */
+   private long hash(long table, long position) {
+      long z = this._seed + table * 0x9E3779B97F4A7C15L + position * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+
+   private static void appendCents(StringBuilder out, long cents) {
+      out.append(cents / 100).append('.');
+      long fraction = cents % 100;
+      out.append(fraction < 10 ? "0" : "").append(fraction);
+   }
+
+   private static void appendDate(StringBuilder out, long epochDay) {
+      // civil-from-days (Howard Hinnant), cheaper than java.time per row
+      long z = epochDay + 719468;
+      long era = Math.floorDiv(z, 146097);
+      long doe = z - era * 146097;
+      long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+      long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+      long mp = (5 * doy + 2) / 153;
+      long day = doy - (153 * mp + 2) / 5 + 1;
+      long month = mp < 10 ? mp + 3 : mp - 9;
+      long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+      out.append(year).append('-');
+      pad2(out, month);
+      out.append('-');
+      pad2(out, day);
+   }//end appendDate
+
+   private static void appendTimestamp(StringBuilder out, long epochSecond) {
+      appendDate(out, Math.floorDiv(epochSecond, 86400));
+      long second = Math.floorMod(epochSecond, 86400);
+      out.append(' ');
+      pad2(out, second / 3600);
+      out.append(':');
+      pad2(out, second / 60 % 60);
+      out.append(':');
+      pad2(out, second % 60);
+   }
+
+   private static void pad2(StringBuilder out, long value) {
+      out.append(value < 10 ? "0" : "").append(value);
+   }
+
+   private static long countLines(byte[] bytes) {
+      long lines = 0;
+      for (byte b : bytes) {
+         if (b == '\n') {
+            lines++;
+         }
+      }
+      return lines;
+   }
+
+   private static <T> T await(Future<T> future) throws Exception {
+      try {
+         return future.get();
+      } catch (ExecutionException e) {
+         throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }//end try
+   }
+
+}//end DataGenerator
@@ -0,0 +1,400 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class finds the titles closest to a mistyped query, for when a
+ * substring search comes back empty.
+ *
+ * Titles are split into lower-cased words. The distinct words go into a
+ * BK-tree keyed by Levenshtein distance, and every word keeps the sorted list
+ * of titles it appears in. For each word of the query the tree yields the
+ * vocabulary words within a small edit distance (0 for words of up to two
+ * characters, 1 up to four, 2 beyond; a swapped pair of letters costs 2),
+ * visiting only the subtrees the triangle inequality cannot rule out. The
+ * titles of those words are then scored, so work grows with the number of
+ * near-miss words, not with the number of titles.
+ *
+ * A title's score, best first: fewer query words left unmatched, then the
+ * smaller sum of edit distances of the matched words, then the shorter title.
+ *
+ * Immutable once built, so it can be shared between threads. A query
+ * borrows its scoring buffers (four ints per title) from a small pool and
+ * gives them back, so the buffers kept grow with the queries running at
+ * once, up to MAX_POOLED_SCRATCH, not with every thread that ever searched.
+ */
+public class FuzzyTitleMatcher {
+
+   /*
+    * A BK-tree node: a vocabulary word and its children, indexed by their
+    * distance to it.
+    */
+   private static class Node {
+      private final int _word;
+      private Node[] _children = null;
+
+      private Node(int word) {
+         this._word = word;
+      }
+
+      private Node child(int distance) {
+         return this._children != null && distance < this._children.length ? this._children[distance] : null;
+      }
+
+      private void setChild(int distance, Node node) {
+         if (this._children == null) {
+            this._children = new Node[distance + 1];
+         } else if (distance >= this._children.length) {
+            this._children = Arrays.copyOf(this._children, distance + 1);
+         }
+         this._children[distance] = node;
+      }
+   }//end Node
+
+   /*
+    * Score accumulators, one slot per title, reused between queries. A slot
+    * belongs to the current query only if its stamp matches, so nothing has
+    * to be cleared between queries.
+    */
+   private static class Scratch {
+      private final int[] _lastQuery;
+      private final int[] _lastWord;
+      private final int[] _matched;
+      private final int[] _total;
+      private int[] _touched = new int[64];
+      private int _numTouched = 0;
+      private int _stamp = 0;
+
+      private Scratch(int numTitles) {
+         this._lastQuery = new int[numTitles];
+         this._lastWord = new int[numTitles];
+         this._matched = new int[numTitles];
+         this._total = new int[numTitles];
+      }
+
+      private void begin() {
+         this._numTouched = 0;
+         if (++this._stamp == 0) {
+            Arrays.fill(this._lastQuery, 0);
+            this._stamp = 1;
+         }
+      }
+
+      /*
+       * Records that query word w is within distance d of the title; only
+       * the first, and so the closest, match per word counts.
+       */
+      private void match(int doc, int w, int d) {
+         if (this._lastQuery[doc] != this._stamp) {
+            this._lastQuery[doc] = this._stamp;
+            this._lastWord[doc] = -1;
+            this._matched[doc] = 0;
+            this._total[doc] = 0;
+            if (this._numTouched == this._touched.length) {
+               this._touched = Arrays.copyOf(this._touched, this._numTouched * 2);
+            }
+            this._touched[this._numTouched++] = doc;
+         }
+         if (this._lastWord[doc] != w) {
+            this._lastWord[doc] = w;
+            this._matched[doc]++;
+            this._total[doc] += d;
+         }
+      }
+   }//end Scratch
+
+   // query words beyond this are ignored, which keeps the score packable in a long
+   private static final int MAX_QUERY_WORDS = 15;
+
+   // scoring buffers kept between queries; more run at once get fresh ones
+   private static final int MAX_POOLED_SCRATCH = Integer.getInteger("gamerental.fuzzyScratchPool", 4);
+
+   private final ConcurrentLinkedQueue<Scratch> _scratch = new ConcurrentLinkedQueue<Scratch>();
+   private final AtomicInteger _pooled = new AtomicInteger(0);
+
+   private final String[] _keys;
+   private final int[] _titleLengths;
+
+   // word id -> word, and word id -> ascending positions of the titles containing it
+   private final String[] _words;
+   private final int[][] _postings;
+
+   private final Node _root;
+
+   /**
+    * Builds the matcher
+    *
+    * @param keys what closest() returns for each title, e.g. the gameID
+    * @param titles the titles to match against, parallel to keys
+    */
+   public FuzzyTitleMatcher(List<String> keys, List<String> titles) {
+      if (keys.size() != titles.size()) {
+         throw new IllegalArgumentException("Got " + keys.size() + " keys but " + titles.size() + " titles");
+      }
+      int n = titles.size();
+      this._keys = keys.toArray(new String[n]);
+      this._titleLengths = new int[n];
+
+      Map<String, Integer> wordIds = new HashMap<String, Integer>();
+      List<String> words = new ArrayList<String>();
+      List<int[]> postings = new ArrayList<int[]>();
+      List<Integer> postingSizes = new ArrayList<Integer>();
+      for (int doc = 0; doc < n; doc++) {
+         String title = titles.get(doc) == null ? "" : titles.get(doc);
+         this._titleLengths[doc] = title.length();
+         for (String word : words(title)) {
+            Integer id = wordIds.get(word);
+            if (id == null) {
+               id = words.size();
+               wordIds.put(word, id);
+               words.add(word);
+               postings.add(new int[2]);
+               postingSizes.add(0);
+            }
+            int[] list = postings.get(id);
+            int size = postingSizes.get(id);
+            if (size == list.length) {
+               list = Arrays.copyOf(list, size * 2);
+               postings.set(id, list);
+            }
+            list[size] = doc;
+            postingSizes.set(id, size + 1);
+         }//end for
+      }//end for
+
+      this._words = words.toArray(new String[0]);
+      this._postings = new int[this._words.length][];
+      for (int id = 0; id < this._words.length; id++) {
+         this._postings[id] = Arrays.copyOf(postings.get(id), postingSizes.get(id));
+      }//end for
+
+      Node root = null;
+      for (int id = 0; id < this._words.length; id++) {
+         if (root == null) {
+            root = new Node(id);
+         } else {
+            insert(root, id);
+         }
+      }//end for
+      this._root = root;
+   }//end FuzzyTitleMatcher
+
+   public int size() {
+      return this._keys.length;
+   }
+
+   /**
+    * @return the number of distinct words in the titles
+    */
+   public int getWordCount() {
+      return this._words.length;
+   }
+
+   /**
+    * Finds the titles closest to the query.
+    *
+    * @param query what the user typed
+    * @param k the most titles to return
+    * @return the keys of the closest titles, best first; empty if no word of
+    *         the query is within reach of any title word
+    */
+   public List<String> closest(String query, int k) {
+      List<String> queryWords = new ArrayList<String>(words(query));
+      if (queryWords.size() > MAX_QUERY_WORDS) {
+         queryWords = queryWords.subList(0, MAX_QUERY_WORDS);
+      }
+      int numWords = queryWords.size();
+      if (this._root == null || numWords == 0 || k <= 0) {
+         return new ArrayList<String>();
+      }
+
+      Scratch scratch = borrowScratch();
+      try {
+         return closest(queryWords, k, scratch);
+      }finally {
+         returnScratch(scratch);
+      }
+   }//end closest
+
+   /*
+    * Scores the titles against the query words into scratch and returns
+    * the keys of the k best.
+    */
+   private List<String> closest(List<String> queryWords, int k, Scratch scratch) {
+      int numWords = queryWords.size();
+      scratch.begin();
+
+      for (int w = 0; w < numWords; w++) {
+         String queryWord = queryWords.get(w);
+         List<int[]> near = within(queryWord, maxDistance(queryWord));
+         // closest words first, so a title's first match for this word is its best
+         near.sort(new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+               return Integer.compare(a[1], b[1]);
+            }
+         });
+         for (int[] match : near) {
+            for (int doc : this._postings[match[0]]) {
+               scratch.match(doc, w, match[1]);
+            }//end for
+         }//end for
+      }//end for
+
+      // one sort key per title: unmatched words, total distance, title length, position;
+      // only the k smallest are kept, in order
+      long[] top = new long[Math.min(k, scratch._numTouched)];
+      int count = 0;
+      for (int i = 0; i < scratch._numTouched; i++) {
+         int doc = scratch._touched[i];
+         int missing = numWords - scratch._matched[doc];
+         long key = ((long) missing << 58)
+                  | ((long) Math.min(scratch._total[doc], 0x3FF) << 48)
+                  | ((long) Math.min(this._titleLengths[doc], 0xFFFF) << 32)
+                  | doc;
+         if (count < top.length || key < top[count - 1]) {
+            int at = count < top.length ? count++ : count - 1;
+            while (at > 0 && top[at - 1] > key) {
+               top[at] = top[at - 1];
+               at--;
+            }//end while
+            top[at] = key;
+         }
+      }//end for
+
+      List<String> result = new ArrayList<String>(count);
+      for (int i = 0; i < count; i++) {
+         result.add(this._keys[(int) (top[i] & 0xFFFFFFFFL)]);
+      }//end for
+      return result;
+   }//end closest
+
+   private Scratch borrowScratch() {
+      Scratch scratch = this._scratch.poll();
+      if (scratch == null) {
+         return new Scratch(this._keys.length);
+      }
+      this._pooled.decrementAndGet();
+      return scratch;
+   }
+
+   /*
+    * Keeps the buffers for the next query unless the pool is full.
+    */
+   private void returnScratch(Scratch scratch) {
+      if (this._pooled.incrementAndGet() <= MAX_POOLED_SCRATCH) {
+         this._scratch.offer(scratch);
+      } else {
+         this._pooled.decrementAndGet();
+      }
+   }//end returnScratch
+
+   /**
+    * @return the distinct lower-cased words of a text, in order
+    */
+   public static LinkedHashSet<String> words(String text) {
+      LinkedHashSet<String> words = new LinkedHashSet<String>();
+      String folded = TitleIndex.fold(text);
+      int start = -1;
+      for (int i = 0; i <= folded.length(); i++) {
+         boolean inWord = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+         if (inWord && start < 0) {
+            start = i;
+         } else if (!inWord && start >= 0) {
+            words.add(folded.substring(start, i));
+            start = -1;
+         }
+      }//end for
+      return words;
+   }//end words
+
+   /**
+    * How far a query word may be from a title word and still match it.
+    */
+   public static int maxDistance(String word) {
+      if (word.length() <= 2) {
+         return 0;
+      }
+      return word.length() <= 4 ? 1 : 2;
+   }
+
+   /**
+    * Levenshtein distance: the fewest single-character insertions,
+    * deletions and substitutions turning one string into the other.
+    */
+   public static int distance(String a, String b) {
+      if (a.length() < b.length()) {
+         String swap = a;
+         a = b;
+         b = swap;
+      }
+      int[] previous = new int[b.length() + 1];
+      int[] current = new int[b.length() + 1];
+      for (int j = 0; j <= b.length(); j++) {
+         previous[j] = j;
+      }
+      for (int i = 1; i <= a.length(); i++) {
+         current[0] = i;
+         char ca = a.charAt(i - 1);
+         for (int j = 1; j <= b.length(); j++) {
+            int substitution = previous[j - 1] + (ca == b.charAt(j - 1) ? 0 : 1);
+            current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+         }//end for
+         int[] swap = previous;
+         previous = current;
+         current = swap;
+      }//end for
+      return previous[b.length()];
+   }//end distance
+
+   private void insert(Node root, int word) {
+      Node node = root;
+      while (true) {
+         int d = distance(this._words[word], this._words[node._word]);
+         if (d == 0) {
+            return; // already in the tree
+         }
+         Node child = node.child(d);
+         if (child == null) {
+            node.setChild(d, new Node(word));
+            return;
+         }
+         node = child;
+      }//end while
+   }//end insert
+
+   /*
+    * {word id, distance} of every vocabulary word within radius of the query
+    * word. A child at distance c from a node at distance d can only hold
+    * words within radius if |c - d| <= radius.
+    */
+   private List<int[]> within(String queryWord, int radius) {
+      List<int[]> near = new ArrayList<int[]>();
+      ArrayDeque<Node> pending = new ArrayDeque<Node>();
+      pending.push(this._root);
+      while (!pending.isEmpty()) {
+         Node node = pending.pop();
+         int d = distance(queryWord, this._words[node._word]);
+         if (d <= radius) {
+            near.add(new int[] { node._word, d });
+         }
+         if (node._children != null) {
+            int from = Math.max(1, d - radius);
+            int to = Math.min(node._children.length - 1, d + radius);
+            for (int c = from; c <= to; c++) {
+               if (node._children[c] != null) {
+                  pending.push(node._children[c]);
+               }
+            }//end for
+         }//end if
+      }//end while
+      return near;
+   }//end within
+
+}//end FuzzyTitleMatcher
@@ -11,16 +11,19 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.math.BigDecimal;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.SortedSet;
@@ -43,8 +46,103 @@ import java.util.Collections;
  */
 public class GameRental {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by every caller.
+   private ConnectionPool _pool = null;
+
+   // upper bound on open prepared statements per connection, -Dgamerental.statementCacheSize
+   private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("gamerental.statementCacheSize", 64);
+
+   // connection pool tuning, -Dgamerental.pool.<setting>
+   private static final int POOL_MIN_SIZE = Integer.getInteger("gamerental.pool.minSize", 1);
+   static final int POOL_MAX_SIZE = Integer.getInteger("gamerental.pool.maxSize", 8);
+   private static final long POOL_IDLE_TIMEOUT_MS = Long.getLong("gamerental.pool.idleTimeoutMillis", 300000L);
+   private static final long POOL_VALIDATION_INTERVAL_MS = Long.getLong("gamerental.pool.validationIntervalMillis", 1000L);
+   private static final long POOL_BORROW_TIMEOUT_MS = Long.getLong("gamerental.pool.borrowTimeoutMillis", 30000L);
+
+   // rows fetched per round trip by executeQueryAndStream, -Dgamerental.streamFetchSize
+   private static final int STREAM_FETCH_SIZE = Integer.getInteger("gamerental.streamFetchSize", 256);
+
+   // the cursor executeQueryAndStream declares; a connection streams one query at a time
+   private static final String STREAM_CURSOR = "gamerental_stream";
+
+   // in-process copy of the Catalog table, created on first use.
+   private CatalogCache _catalogCache = null;
+
+   // how often the catalog cache checks for catalog_changed notifications, -Dgamerental.catalog.pollMillis
+   private static final long CATALOG_POLL_MS = Long.getLong("gamerental.catalog.pollMillis", 500L);
+
+   // serves /metrics on localhost when set, -Dgamerental.metrics.port
+   private static final int METRICS_PORT = Integer.getInteger("gamerental.metrics.port", 0);
+   private MetricsServer _metricsServer = null;
+
+   // closest titles offered when a title search finds nothing
+   private static final int FUZZY_SUGGESTIONS = 5;
+
+   // logins listed per page by the manager's user search
+   private static final int LOGIN_PAGE_SIZE = 20;
+
+   // orders listed per page by the rental history and the order pickers, -Dgamerental.orderPageSize
+   private static final int ORDER_PAGE_SIZE = Integer.getInteger("gamerental.orderPageSize", 10);
+
+   // how long the genre menu's list of genres is reused, -Dgamerental.catalog.genreTtlMillis
+   private static final long GENRE_TTL_MS = Long.getLong("gamerental.catalog.genreTtlMillis", 60000L);
+
+   // column widths of the order and catalog listings, as for String.format: negative is left aligned
+   static final int[] ORDER_TABLE_WIDTHS = { -20, -9, -12, -22, -22 };
+   static final int[] CATALOG_TABLE_WIDTHS = { 50, 10, 55, 5 };
+
+   // the heading of an order listing whose rows are numbered
+   private static final String ORDER_PICK_HEADER =
+      String.format("%-23s | %-9s | %-12s | %-22s | %-22s", "Order ID", "Num Games", "Total Price", "Order Time", "Due Date");
+
+   // statements shared by the menus and by callers without a terminal; package-private
+   // so PlanRegressionHarness checks the plans of exactly these
+   static final String ORDER_DETAILS_QUERY =
+      "SELECT t.trackingID, g.gameID, c.gameName, g.unitsOrdered "
+      + "FROM RentalOrder r "
+      + "LEFT JOIN TrackingInfo t ON t.rentalOrderID = r.rentalOrderID "
+      + "LEFT JOIN GamesInOrder g ON g.rentalOrderID = r.rentalOrderID "
+      + "LEFT JOIN Catalog c ON c.gameID = g.gameID "
+      + "WHERE r.rentalOrderID = ? "
+      + "ORDER BY g.gameID";
+
+   static final String TRACKING_COLUMNS =
+      "SELECT t.trackingID, t.courierName, t.rentalOrderID, t.currentLocation, t.status, t.lastUpdateDate, t.additionalComments FROM TrackingInfo t ";
+
+   static final String TRACKING_BY_ORDER_QUERY = TRACKING_COLUMNS + "WHERE t.rentalOrderID = ?";
+
+   static final String TRACKING_BY_ID_QUERY = TRACKING_COLUMNS
+      + "WHERE t.trackingID = ? AND EXISTS (SELECT 1 FROM RentalOrder r WHERE r.login = ? AND r.rentalOrderID = t.rentalOrderID)";
+
+   // a NULL parameter leaves its column as it is
+   static final String UPDATE_TRACKING_QUERY =
+      "UPDATE TrackingInfo SET courierName = COALESCE(?, courierName), currentLocation = COALESCE(?, currentLocation), "
+      + "status = COALESCE(?, status), additionalComments = COALESCE(?, additionalComments) WHERE trackingID = ?";
+
+   static final String UPDATE_GAME_QUERY =
+      "UPDATE Catalog SET gameName = COALESCE(?, gameName), genre = COALESCE(?, genre), price = COALESCE(CAST(? AS decimal(10,2)), price), "
+      + "description = COALESCE(?, description), imageURL = COALESCE(?, imageURL) WHERE gameID = ?";
+
+   // statements of single menus
+   static final String RECENT_ORDERS_QUERY =
+      "SELECT rentalOrderID, noOfGames, totalPrice, orderTimestamp, dueDate FROM RentalOrder WHERE login = ? ORDER BY orderTimestamp DESC LIMIT 5";
+
+   static final String GAME_BY_ID_QUERY = "SELECT * FROM Catalog WHERE gameID = ?";
+
+   // case-insensitive, served by the trigram index on gameName, closest titles first
+   static final String TITLE_SEARCH_QUERY =
+      "SELECT * FROM Catalog WHERE gameName ILIKE ? ORDER BY similarity(gameName, ?) DESC, gameName";
+
+   // the statuses a tracking row can be set to
+   static final List<String> TRACKING_STATUSES = Collections.unmodifiableList(Arrays.asList(
+      "Delayed",
+      "In Transit",
+      "Arrived at Facility",
+      "Out for Delivery",
+      "Returned to Sender",
+      "Attempted Delivery",
+      "Ready for Pickup",
+      "Delivered"));
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -68,32 +166,90 @@ public class GameRental {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the pool, which obtains the first physical connection(s)
+         this._pool = new ConnectionPool(url, user, passwd,
+                                         POOL_MIN_SIZE, Math.max(POOL_MIN_SIZE, POOL_MAX_SIZE),
+                                         POOL_IDLE_TIMEOUT_MS, POOL_VALIDATION_INTERVAL_MS,
+                                         POOL_BORROW_TIMEOUT_MS, STATEMENT_CACHE_SIZE);
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
          System.out.println("Make sure you started postgres on this machine");
          System.exit(-1);
       }//end catch
+      if (METRICS_PORT > 0){
+         try{
+            this._metricsServer = MetricsServer.start(this, METRICS_PORT);
+            System.out.println("Metrics at http://localhost:" + METRICS_PORT + "/metrics");
+         }catch (IOException e){
+            // the store works without them
+            System.err.println("Metrics not served: " + e.getMessage() );
+         }//end catch
+      }//end if
    }//end GameRental
 
+   /**
+    * Creates a new instance of GameRental store on top of an existing pool.
+    * Useful for tools that share one pool or size it explicitly.
+    *
+    * @param pool the connection pool queries are run on
+    */
+   public GameRental(ConnectionPool pool) {
+      this._pool = pool;
+   }//end GameRental
+
+   /**
+    * @return the connection pool backing this instance
+    */
+   public ConnectionPool getPool() {
+      return this._pool;
+   }
+
+   /**
+    * Returns the catalog cache, creating it and starting its change
+    * listener on first use.
+    *
+    * @return the catalog cache shared by everything using this instance
+    */
+   public synchronized CatalogCache getCatalogCache() {
+      if (this._catalogCache == null) {
+         this._catalogCache = new CatalogCache(this, GENRE_TTL_MS);
+         this._catalogCache.startListening(CATALOG_POLL_MS);
+      }//end if
+      return this._catalogCache;
+   }//end getCatalogCache
+
+   /**
+    * @return the catalog cache if something has used it yet, otherwise null
+    */
+   public synchronized CatalogCache peekCatalogCache() {
+      return this._catalogCache;
+   }
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL string, using ? for parameters
+    * @param params the values bound to the ? placeholders, in order
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      long start = System.nanoTime ();
+      int rowCount = -1;
+      try{
+         // fetches the cached statement and binds the parameters
+         PreparedStatement stmt = prepare (conn, sql, params);
 
-      // close the instruction
-      stmt.close ();
+         // issues the update instruction
+         rowCount = stmt.executeUpdate ();
+         return rowCount;
+      }finally{
+         QueryStats.record (sql, params, start, rowCount);
+         this._pool.release (conn);
+      }//end try
    }//end executeUpdate
 
    /**
@@ -101,42 +257,54 @@ public class GameRental {
     * method issues the query to the DBMS and outputs the results to
     * standard out.
     *
-    * @param query the input query string
+    * @param query the input query string, using ? for parameters
+    * @param params the values bound to the ? placeholders, in order
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      long start = System.nanoTime ();
+      int rowCount = -1;
+      try{
+         // fetches the cached statement and binds the parameters
+         PreparedStatement stmt = prepare (conn, query, params);
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close();
-      return rowCount;
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            /*
+             ** obtains the metadata object for the returned result set.  The metadata
+             ** contains row and column info.
+             */
+            ResultSetMetaData rsmd = rs.getMetaData ();
+            int numCol = rsmd.getColumnCount ();
+            int printed = 0;
+
+            // iterates through the result set and output them to standard out.
+            boolean outputHeader = true;
+            while (rs.next()){
+               if(outputHeader){
+                  for(int i = 1; i <= numCol; i++){
+                     System.out.print(rsmd.getColumnName(i) + "\t");
+                  }
+                  System.out.println();
+                  outputHeader = false;
+               }
+               for (int i=1; i<=numCol; ++i)
+                  System.out.print (rs.getString (i) + "\t");
+               System.out.println ();
+               ++printed;
+            }//end while
+            rowCount = printed;
+            return rowCount;
+         }finally{
+            rs.close();
+         }//end try
+      }finally{
+         QueryStats.record (query, params, start, rowCount);
+         this._pool.release (conn);
+      }//end try
    }//end executeQuery
 
    /**
@@ -144,92 +312,467 @@ public class GameRental {
     * method issues the query to the DBMS and returns the results as
     * a list of records. Each record in turn is a list of attribute values
     *
-    * @param query the input query string
+    * @param query the input query string, using ? for parameters
+    * @param params the values bound to the ? placeholders, in order
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      long start = System.nanoTime ();
+      int rowCount = -1;
+      try{
+         // fetches the cached statement and binds the parameters
+         PreparedStatement stmt = prepare (conn, query, params);
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            /*
+             ** obtains the metadata object for the returned result set.  The metadata
+             ** contains row and column info.
+             */
+            ResultSetMetaData rsmd = rs.getMetaData ();
+            int numCol = rsmd.getColumnCount ();
+
+            // iterates through the result set and saves the data returned by the query.
+            List<List<String>> result  = new ArrayList<List<String>>();
+            while (rs.next()){
+               List<String> record = new ArrayList<String>(numCol);
+               for (int i=1; i<=numCol; ++i)
+                  record.add(rs.getString (i));
+               result.add(record);
+            }//end while
+            rowCount = result.size ();
+            return result;
+         }finally{
+            rs.close();
+         }//end try
+      }finally{
+         QueryStats.record (query, params, start, rowCount);
+         this._pool.release (conn);
+      }//end try
    }//end executeQueryAndReturnResult
 
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the results column by
+    * column, each read with its native JDBC getter (see ColumnarResult).
+    *
+    * @param query the input query string, using ? for parameters
+    * @param params the values bound to the ? placeholders, in order
+    * @return the query result as typed columns
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ColumnarResult executeQueryAndReturnColumns (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      long start = System.nanoTime ();
+      int rowCount = -1;
+      try{
+         // fetches the cached statement and binds the parameters
+         PreparedStatement stmt = prepare (conn, query, params);
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            ColumnarResult result = ColumnarResult.read (rs);
+            rowCount = result.size ();
+            return result;
+         }finally{
+            rs.close();
+         }//end try
+      }finally{
+         QueryStats.record (query, params, start, rowCount);
+         this._pool.release (conn);
+      }//end try
+   }//end executeQueryAndReturnColumns
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method streams the results to a callback instead of collecting them.
+    * The query is declared as a server-side cursor inside a read-only
+    * transaction and read with FETCH, -Dgamerental.streamFetchSize rows per round trip, so
+    * memory use does not grow with the number of rows returned.
+    *
+    * @param query the input query string, using ? for parameters
+    * @param handler called once for every batch of rows, in order
+    * @param params the values bound to the ? placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndStream (String query, RowHandler handler, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      Connection connection = conn.getConnection ();
+      long start = System.nanoTime ();
+      int rowCount = -1;
+      try{
+         // a cursor only lives as long as the transaction it was declared in,
+         // and that transaction is read only, so a streamed query never writes
+         connection.setAutoCommit (false);
+         Statement readOnly = connection.createStatement ();
+         try{
+            readOnly.execute ("SET TRANSACTION READ ONLY");
+         }finally{
+            readOnly.close ();
+         }//end try
+
+         // DECLARE cannot be prepared on the server, so it bypasses the statement cache
+         PreparedStatement declare = connection.prepareStatement (
+            "DECLARE " + STREAM_CURSOR + " NO SCROLL CURSOR FOR " + query);
+         try{
+            bind (declare, params).execute ();
+         }finally{
+            declare.close ();
+         }//end try
+
+         Statement fetch = connection.createStatement ();
+         try{
+            int handled = 0;
+            int fetched;
+            do{
+               // hands each batch to the caller as soon as it arrives
+               ResultSet rs = fetch.executeQuery ("FETCH " + STREAM_FETCH_SIZE + " FROM " + STREAM_CURSOR);
+               try{
+                  ColumnarResult rows = ColumnarResult.read (rs);
+                  fetched = rows.size ();
+                  if (fetched > 0){
+                     handler.handleRows (rows);
+                     handled += fetched;
+                  }//end if
+               }finally{
+                  rs.close();
+               }//end try
+            }while (fetched == STREAM_FETCH_SIZE);
+
+            // ending the transaction closes the cursor
+            connection.commit ();
+            rowCount = handled;
+            return rowCount;
+         }finally{
+            fetch.close ();
+         }//end try
+      }finally{
+         try{
+            if (!connection.getAutoCommit ()){
+               connection.rollback ();
+               connection.setAutoCommit (true);
+            }//end if
+         }catch (SQLException e){
+            // the pool discards the connection if it is broken
+         }//end try
+         QueryStats.record (query, params, start, rowCount);
+         this._pool.release (conn);
+      }//end try
+   }//end executeQueryAndStream
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the number of results
     *
-    * @param query the input query string
+    * @param query the input query string, using ? for parameters
+    * @param params the values bound to the ? placeholders, in order
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+   public int executeQuery (String query, Object... params) throws SQLException {
+       ConnectionPool.PooledConnection conn = this._pool.borrow ();
+       long start = System.nanoTime ();
+       int rowCount = -1;
+       try{
+          // fetches the cached statement and binds the parameters
+          PreparedStatement stmt = prepare (conn, query, params);
+
+          // issues the query instruction
+          ResultSet rs = stmt.executeQuery ();
+          try{
+             int counted = 0;
+
+             // iterates through the result set and count nuber of results.
+             while (rs.next()){
+                counted++;
+             }//end while
+             rowCount = counted;
+             return rowCount;
+          }finally{
+             rs.close();
+          }//end try
+       }finally{
+          QueryStats.record (query, params, start, rowCount);
+          this._pool.release (conn);
+       }//end try
+   }
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to check whether a query returns any row at all. The query is
+    * wrapped in SELECT EXISTS(...), so the server stops at the first match
+    * and only a single boolean comes back.
+    *
+    * @param query the input query string, using ? for parameters
+    * @param params the values bound to the ? placeholders, in order
+    * @return true if the query returns at least one row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean exists (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      String sql = "SELECT EXISTS (" + stripSemicolon (query) + ")";
+      long start = System.nanoTime ();
+      int rowCount = -1;
+      try{
+         PreparedStatement stmt = prepare (conn, sql, params);
+
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            boolean found = rs.next () && rs.getBoolean (1);
+            rowCount = 1;
+            return found;
+         }finally{
+            rs.close();
+         }//end try
+      }finally{
+         QueryStats.record (sql, params, start, rowCount);
+         this._pool.release (conn);
+      }//end try
+   }//end exists
 
-       int rowCount = 0;
+   /**
+    * Method to count the rows a query returns. The query is wrapped in
+    * SELECT COUNT(*), so the server does the counting and only a single
+    * number comes back.
+    *
+    * @param query the input query string, using ? for parameters
+    * @param params the values bound to the ? placeholders, in order
+    * @return the number of rows the query returns
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public long count (String query, Object... params) throws SQLException {
+      return queryLong ("SELECT COUNT(*) FROM (" + stripSemicolon (query) + ") AS counted", params);
+   }//end count
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+   /*
+    * Runs a query that returns a single number and reads it.
+    */
+   private long queryLong (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      long start = System.nanoTime ();
+      int rowCount = -1;
+      try{
+         PreparedStatement stmt = prepare (conn, query, params);
+
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            long value = rs.next () ? rs.getLong (1) : 0L;
+            rowCount = 1;
+            return value;
+         }finally{
+            rs.close();
+         }//end try
+      }finally{
+         QueryStats.record (query, params, start, rowCount);
+         this._pool.release (conn);
+      }//end try
+   }//end queryLong
+
+   private static String stripSemicolon (String query) {
+      String trimmed = query.trim ();
+      return trimmed.endsWith (";") ? trimmed.substring (0, trimmed.length () - 1) : trimmed;
+   }
+
+   /**
+    * Places a rental order with a single call to the place_order() database
+    * function, which inserts the order, its games and its tracking row in one
+    * transaction and returns the generated keys. The order total is priced
+    * from the catalog on the server.
+    *
+    * @param login the user placing the order
+    * @param gameIDs the games ordered
+    * @param units the units ordered of each game, parallel to gameIDs
+    * @return {rentalOrderID, trackingID} of the new order
+    * @throws java.sql.SQLException when the order was rejected or failed
+    */
+   public String[] submitOrder (String login, String[] gameIDs, Integer[] units) throws SQLException {
+      List<List<String>> keys = executeQueryAndReturnResult (
+         "SELECT rental_order_id, tracking_id FROM place_order(?, ?::varchar[], ?::int[])", login, gameIDs, units);
+      Metrics.ORDERS_PLACED.increment();
+      return new String[] { keys.get(0).get(0), keys.get(0).get(1) };
+   }//end submitOrder
+
+   /**
+    * Reads an order's tracking ID and its games with their names in one
+    * query. Every lookup goes through an index on rentalOrderID or gameID, so
+    * this costs O(games in order) no matter how big the catalog is.
+    *
+    * @param rentalOrderID the order to read
+    * @return one row per game: trackingID, gameID, gameName, unitsOrdered;
+    *         empty if there is no such order, and a single row of NULL game
+    *         columns if it has no games
+    * @throws java.sql.SQLException when the query fails
+    */
+   public ColumnarResult getOrderDetails (String rentalOrderID) throws SQLException {
+      return executeQueryAndReturnColumns (ORDER_DETAILS_QUERY, rentalOrderID);
+   }
+
+   /**
+    * Reads the tracking row of an order.
+    *
+    * @param rentalOrderID the order to read
+    * @return trackingID, courierName, rentalOrderID, currentLocation, status,
+    *         lastUpdateDate, additionalComments; empty if there is none
+    * @throws java.sql.SQLException when the query fails
+    */
+   public ColumnarResult getTrackingInfo (String rentalOrderID) throws SQLException {
+      return executeQueryAndReturnColumns (TRACKING_BY_ORDER_QUERY, rentalOrderID);
+   }
+
+   /**
+    * Reads a tracking row by its ID, if it belongs to one of login's orders.
+    *
+    * @return the same columns as getTrackingInfo(rentalOrderID); empty if
+    *         there is no such row or it is someone else's
+    * @throws java.sql.SQLException when the query fails
+    */
+   public ColumnarResult getTrackingInfo (String trackingID, String login) throws SQLException {
+      return executeQueryAndReturnColumns (TRACKING_BY_ID_QUERY, trackingID, login);
+   }
+
+   /**
+    * Writes the editable fields of a tracking row; a null field is left as
+    * it is. The trigger stamps lastUpdateDate.
+    *
+    * @return the number of rows updated, 0 if there is no such tracking ID
+    * @throws java.sql.SQLException when the update fails
+    */
+   public int saveTrackingInfo (String trackingID, String courierName, String currentLocation,
+                                String status, String additionalComments) throws SQLException {
+      return executeUpdate (UPDATE_TRACKING_QUERY, courierName, currentLocation, status, additionalComments, trackingID);
    }
 
+   /**
+    * Writes the editable fields of a game; a null field is left as it is.
+    * This instance's catalog cache is refreshed right away, other instances
+    * hear about it through NOTIFY.
+    *
+    * @return the number of rows updated, 0 if there is no such game
+    * @throws java.sql.SQLException when the update fails
+    */
+   public int saveGameInfo (String gameID, String gameName, String genre, BigDecimal price,
+                            String description, String imageURL) throws SQLException {
+      int updated = executeUpdate (UPDATE_GAME_QUERY, gameName, genre, price, description, imageURL, gameID);
+      if (updated > 0) {
+         getCatalogCache ().refresh (gameID);
+      }
+      return updated;
+   }//end saveGameInfo
+
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys.
+    *
+    * Note that currval() is per session: with pooled connections it only
+    * sees nextval() calls made on the same physical connection.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      long start = System.nanoTime ();
+      int rowCount = -1;
+      try{
+         PreparedStatement stmt = prepare (conn, "SELECT currval(?)", sequence);
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            rowCount = 1;
+            if (rs.next())
+               return rs.getInt(1);
+            return -1;
+         }finally{
+            rs.close();
+         }//end try
+      }finally{
+         QueryStats.record ("SELECT currval(?)", new Object[] { sequence }, start, rowCount);
+         this._pool.release (conn);
+      }//end try
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Looks up the cached PreparedStatement for a SQL template on the given
+    * pooled connection and binds the parameters to it. The statement stays
+    * owned by the cache, so callers only close the ResultSet they get from it.
+    *
+    * @param conn the borrowed connection to run the statement on
+    * @param sql the SQL template, using ? for parameters
+    * @param params the values bound to the ? placeholders, in order;
+    *               String[] and Integer[] values are bound as array literals
+    *               ({"a","b"}), which the SQL casts: ?::varchar[], ?::int[]
+    * @return the prepared statement, ready to execute
+    * @throws java.sql.SQLException when the statement could not be prepared
+    */
+   private static PreparedStatement prepare (ConnectionPool.PooledConnection conn, String sql, Object... params) throws SQLException {
+      return bind (conn.getStatementCache().prepare (sql), params);
+   }//end prepare
+
+   /*
+    * Binds the parameters to a statement, as prepare() describes. Arrays go
+    * as text because the bundled driver has no createArrayOf/setArray.
+    */
+   private static PreparedStatement bind (PreparedStatement stmt, Object... params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         if (params[i] == null) {
+            stmt.setNull (i + 1, Types.VARCHAR);
+         } else if (params[i] instanceof String[] || params[i] instanceof Integer[]) {
+            stmt.setString (i + 1, arrayLiteral ((Object[]) params[i]));
+         } else {
+            stmt.setObject (i + 1, params[i]);
+         }
+      }//end for
+      return stmt;
+   }//end bind
+
+   /*
+    * The PostgreSQL array literal of the values: {"a","b \"c\""}. Every
+    * element is quoted, with backslashes and quotes escaped, so commas,
+    * braces and spaces in values are safe; null becomes NULL.
+    */
+   private static String arrayLiteral (Object[] values) {
+      StringBuilder literal = new StringBuilder (values.length * 12 + 2).append ('{');
+      for (int i = 0; i < values.length; ++i) {
+         if (i > 0) {
+            literal.append (',');
+         }
+         if (values[i] == null) {
+            literal.append ("NULL");
+            continue;
+         }
+         String value = values[i].toString ();
+         literal.append ('"');
+         for (int c = 0; c < value.length(); ++c) {
+            char ch = value.charAt (c);
+            if (ch == '"' || ch == '\\') {
+               literal.append ('\\');
+            }
+            literal.append (ch);
+         }//end for
+         literal.append ('"');
+      }//end for
+      return literal.append ('}').toString ();
+   }//end arrayLiteral
+
+   /**
+    * Method to close the pooled physical connections.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      if (this._metricsServer != null){
+         this._metricsServer.stop ();
+      }//end if
+      if (this._catalogCache != null){
+         this._catalogCache.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -267,14 +810,17 @@ public class GameRental {
             System.out.println("1. Create user");
             System.out.println("2. Log in");
             System.out.println("9. < EXIT");
-            String authorisedUser = null;
+            Session session = null;
+            // the statements each choice runs are timed under the name of the method behind it
             switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
+               case 1: QueryStats.setOperation("CreateUser"); CreateUser(esql); break;
+               case 2: QueryStats.setOperation("LogIn"); session = LogIn(esql); break;
                case 9: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
-            if (authorisedUser != null) {
+            QueryStats.setOperation(null);
+            if (session != null) {
+              String authorisedUser = session.getLogin();
               boolean usermenu = true;
               while(usermenu) {
                 System.out.println("MAIN MENU");
@@ -298,23 +844,24 @@ public class GameRental {
                 System.out.println(".........................");
                 System.out.println("20. Log out");
                 switch (readChoice()){
-                   case 1: viewProfile(esql, authorisedUser); break;
-                   case 2: updateProfile(esql, authorisedUser); break;
-                   case 3: viewCatalog(esql); break;
-                   case 4: placeOrder(esql, authorisedUser); break;
-                   case 5: viewAllOrders(esql, authorisedUser); break;
-                   case 6: viewRecentOrders(esql, authorisedUser); break;
-                   case 7: viewOrderInfo(esql, authorisedUser); break;
-                   case 8: viewTrackingInfo(esql, authorisedUser); break;
-                   case 9: updateTrackingInfo(esql, authorisedUser); break;
-                   case 10: updateCatalog(esql, authorisedUser); break;
-                   case 11: updateUser(esql, authorisedUser); break;
+                   case 1: QueryStats.setOperation("viewProfile"); viewProfile(esql, session); break;
+                   case 2: QueryStats.setOperation("updateProfile"); updateProfile(esql, session); break;
+                   case 3: QueryStats.setOperation("viewCatalog"); viewCatalog(esql); break;
+                   case 4: QueryStats.setOperation("placeOrder"); placeOrder(esql, session); break;
+                   case 5: QueryStats.setOperation("viewAllOrders"); viewAllOrders(esql, authorisedUser); break;
+                   case 6: QueryStats.setOperation("viewRecentOrders"); viewRecentOrders(esql, authorisedUser); break;
+                   case 7: QueryStats.setOperation("viewOrderInfo"); viewOrderInfo(esql, authorisedUser); break;
+                   case 8: QueryStats.setOperation("viewTrackingInfo"); viewTrackingInfo(esql, authorisedUser); break;
+                   case 9: QueryStats.setOperation("updateTrackingInfo"); updateTrackingInfo(esql, session); break;
+                   case 10: QueryStats.setOperation("updateCatalog"); updateCatalog(esql, session); break;
+                   case 11: QueryStats.setOperation("updateUser"); updateUser(esql, session); break;
 
 
 
                    case 20: usermenu = false; break;
                    default : System.out.println("Unrecognized choice!"); break;
                 }
+                QueryStats.setOperation(null);
               }
             }
          }//end while
@@ -425,10 +972,10 @@ public class GameRental {
             username = in.readLine();
 
             
-            String checkUserQuery = "SELECT u.login FROM Users AS u WHERE u.login = '" + username + "'";
-            int userRowCount = esql.executeQuery(checkUserQuery);
+            String checkUserQuery = "SELECT 1 FROM Users AS u WHERE u.login = ?";
+            boolean userExists = esql.exists(checkUserQuery, username);
 
-            if(userRowCount == 0){
+            if(!userExists){
                   
                System.out.println("Enter Password: ");
                password = in.readLine();
@@ -436,8 +983,8 @@ public class GameRental {
                System.out.println("Enter Phone Number: ");
                phone_number = in.readLine();
                         
-               String insertUserQuery = "INSERT INTO Users(login, password, phoneNum, favGames) VALUES('" + username + "', '" + password + "', '" + phone_number + "', '')";
-               esql.executeUpdate(insertUserQuery);
+               String insertUserQuery = "INSERT INTO Users(login, password, phoneNum, favGames) VALUES(?, ?, ?, '')";
+               esql.executeUpdate(insertUserQuery, username, password, phone_number);
                made = 1;    
                } else {
                   System.out.println("Sorry, that username is taken. Please try again.");
@@ -453,9 +1000,9 @@ public class GameRental {
 
    /*
     * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
+    * @return the user's session or null is the user does not exist
     **/
-   public static String LogIn(GameRental esql){
+   public static Session LogIn(GameRental esql){
       System.out.println("============================");
       System.out.println("========== Login ===========");
       System.out.println("============================");
@@ -467,13 +1014,10 @@ public class GameRental {
          System.out.println("Enter Password: ");
          password = in.readLine();
            
-         String userQuery = "SELECT * " + 
-                            "FROM Users AS u " + 
-                            "WHERE u.login = '" + username + "' " + 
-                            "AND u.password = '" + password + "' ";
-         int rowCount = esql.executeQuery(userQuery);
-         if(rowCount > 0){
-            return username;
+         // One query checks the credentials and loads role and profile for the whole session.
+         Session session = Session.logIn(esql, username, password);
+         if(session != null){
+            return session;
          } else {
             System.out.println("Wrong Username or Password");
             return null;
@@ -487,22 +1031,18 @@ public class GameRental {
 
 // Rest of the functions definition go in here
 
-   public static void viewProfile(GameRental esql, String user) {
-      int exit = 0;
+   public static void viewProfile(GameRental esql, Session session) {
       try{
-         String profileQuery = "SELECT * FROM Users WHERE Users.login = '" + user + "'";
-         List<List<String>> profile = esql.executeQueryAndReturnResult(profileQuery);
-         List<String> inner = profile.get(0);
-
-         System.out.println("Username: " + inner.get(0));
-         System.out.println("Password: " + inner.get(1));
-         System.out.println("Phone Number: " + inner.get(4));
-         if(inner.get(3) == null || inner.get(3) == ""){
+         // Shown from the session's snapshot; it reloads itself after a profile change.
+         System.out.println("Username: " + session.getLogin());
+         System.out.println("Password: " + session.getPassword());
+         System.out.println("Phone Number: " + session.getPhoneNumber());
+         if(session.getFavoriteGames().isEmpty()){
             System.out.println("You have no favorite games.");
          } else {
-            System.out.println("Favorite Games: " + inner.get(3));
+            System.out.println("Favorite Games: " + session.getFavoriteGames());
          }
-         System.out.println("Number of Overdue Games: " + inner.get(5));
+         System.out.println("Number of Overdue Games: " + session.getNumOverDueGames());
 
          System.out.println();
          
@@ -512,36 +1052,6 @@ public class GameRental {
       }
    }
 
-   private static String getPassword(GameRental esql, String username){
-      try{
-         String passwordQuery = "SELECT u.password FROM Users AS u WHERE u.login = '" + username + "'";
-         return esql.executeQueryAndReturnResult(passwordQuery).get(0).get(0);
-      }catch (Exception e){
-         System.out.print("SQL Exception");
-      }
-      return null;
-   }
-
-   private static String getPhoneNumber(GameRental esql, String username){
-      try{
-         String pnQuery = "SELECT u.phoneNum FROM Users AS  u WHERE u.login = '" + username + "'";
-         return esql.executeQueryAndReturnResult(pnQuery).get(0).get(0);
-      }catch (Exception e){
-         System.out.print("SQL Exception");
-      }
-      return null;
-   }
-
-   private static String getFavoriteGames(GameRental esql, String username){
-       try{
-         String fgQuery = "SELECT u.favGames FROM Users AS u WHERE u.login = '" + username + "'";
-         return esql.executeQueryAndReturnResult(fgQuery).get(0).get(0);
-      }catch (Exception e){
-         System.out.print("SQL Exception");
-      }
-      return null;
-   }
-
    private static void changePassword(GameRental esql, String truePassword, String authorisedUser){
       String newPassword = "";
       String oldPassword = "";
@@ -572,8 +1082,8 @@ public class GameRental {
             }
             
          }
-         String updatePassQuery = "UPDATE Users SET password = '" + newPassword + "'WHERE login = '" + authorisedUser + "'";       
-         esql.executeUpdate(updatePassQuery);
+         String updatePassQuery = "UPDATE Users SET password = ? WHERE login = ?";       
+         esql.executeUpdate(updatePassQuery, newPassword, authorisedUser);
       } catch(Exception e){
          System.out.println("Unrecognized Entry");
          return;
@@ -611,8 +1121,8 @@ public class GameRental {
             }
            
          }
-         String updatePassQuery = "UPDATE Users SET phoneNum = '" + newPhoneNumber + "'WHERE login = '" + authorisedUser + "'";       
-         esql.executeUpdate(updatePassQuery);
+         String updatePassQuery = "UPDATE Users SET phoneNum = ? WHERE login = ?";       
+         esql.executeUpdate(updatePassQuery, newPhoneNumber, authorisedUser);
       } catch(Exception e){
          System.out.println("Unrecognized Entry");
          return;
@@ -639,8 +1149,8 @@ public class GameRental {
          if(outputString.length() > 0){
             outputString = outputString.substring(0, outputString.length() - 1);
          }
-         String updateFav = "UPDATE Users SET favGames = '" + outputString + "' WHERE login = '" + authorisedUser + "'";
-         esql.executeUpdate(updateFav);
+         String updateFav = "UPDATE Users SET favGames = ? WHERE login = ?";
+         esql.executeUpdate(updateFav, outputString, authorisedUser);
       } catch (Exception e){
          System.out.println("Unrecognized Entry1");
          return;
@@ -658,8 +1168,8 @@ public class GameRental {
          } else {
             favGames += "," + inputFav;
          }
-         String updateFav  = "UPDATE Users SET favGames = '" + favGames + "' WHERE login = '" + authorisedUser + "'";
-         esql.executeUpdate(updateFav);
+         String updateFav  = "UPDATE Users SET favGames = ? WHERE login = ?";
+         esql.executeUpdate(updateFav, favGames, authorisedUser);
          return;
       } catch(Exception e){
          System.out.println("Unrecognized Entry 3");
@@ -676,8 +1186,8 @@ public class GameRental {
          inputPass = in.readLine();
          if(inputPass.equals(truePassword)){
             
-            String deleteGames = "UPDATE Users SET favGames = '' WHERE login = '" + authorisedUser + "'";
-            esql.executeUpdate(deleteGames);
+            String deleteGames = "UPDATE Users SET favGames = '' WHERE login = ?";
+            esql.executeUpdate(deleteGames, authorisedUser);
             
          } else{
             System.out.println("Password incorrect. Returning to main menu");
@@ -702,13 +1212,22 @@ public class GameRental {
       return;
    }
 
-   public static void updateProfile(GameRental esql, String authorisedUser) {
+   public static void updateProfile(GameRental esql, Session session) {
       System.out.println("===========================");
       System.out.println("===    Update Profile   ===");
       System.out.println("===========================");
-      String truePassword = getPassword(esql, authorisedUser);
-      String truePhoneNumber = getPhoneNumber(esql, authorisedUser);
-      String trueFavGames = getFavoriteGames(esql, authorisedUser);
+      String authorisedUser = session.getLogin();
+      String truePassword;
+      String truePhoneNumber;
+      String trueFavGames;
+      try{
+         truePassword = session.getPassword();
+         truePhoneNumber = session.getPhoneNumber();
+         trueFavGames = session.getFavoriteGames();
+      } catch (Exception e){
+         System.out.println("Query Error");
+         return;
+      }
 
       System.out.println("What do you want to change?");
       System.out.println("1. Password");
@@ -720,10 +1239,100 @@ public class GameRental {
          case 2: changePhoneNumber(esql, truePhoneNumber, authorisedUser, truePassword); break;
          case 3: changeFavoriteGames(esql, truePassword, authorisedUser, trueFavGames); break;
          case 9: return;
-         default : System.out.println("Unrecognized choice!"); break;
+         default : System.out.println("Unrecognized choice!"); return;
       }
+      // The profile may have changed; the session reloads it on next use.
+      session.invalidate();
+   }
 
+   /*
+    * Writes one row of a (rentalOrderID, noOfGames, totalPrice, orderTimestamp, dueDate)
+    * result the way every order listing shows it, into a table laid out with
+    * ORDER_TABLE_WIDTHS.
+    */
+   static void RenderOrderRow(TableRenderer table, ColumnarResult orders, int row)
+   {
+      table.cell(orders.getString(row, 0))
+           .cell(orders.getInt(row, 1))
+           .cellCents(orders.getCents(row, 2))
+           .cellTimestamp(orders.getMillis(row, 3))
+           .cellTimestamp(orders.getMillis(row, 4))
+           .endRow();
+   }
 
+   /*
+    * Writes the heading of an order listing.
+    */
+   private static void RenderOrderHeader(TableRenderer table)
+   {
+      table.row("Order ID", "Num Games", "Total Price", "Order Time", "Due Date");
+      table.line("----------------------------------------------------------------------------------------------");
+   }
+
+   /*
+    * Lists the user's orders a page at a time, latest due date first, and
+    * lets them pick one. Returns the picked row of history.getPage(), or -1
+    * if they cancel or have no orders.
+    */
+   private static int ChooseOrderFromHistory(OrderHistory history) throws Exception
+   {
+      TableRenderer table = TableRenderer.toConsole(ORDER_TABLE_WIDTHS);
+      while(true)
+      {
+         ColumnarResult page = history.getPage();
+         // the order IDs are numbered, so the first heading takes their "1. " too
+         table.line(ORDER_PICK_HEADER);
+         table.line("----------------------------------------------------------------------------------------------");
+         for(int i = 0; i < page.size(); i++)
+         {
+            RenderOrderRow(table.text(i + 1).text(". "), page, i);
+         }
+         table.flush();
+
+         if(page.size() <= 0)
+         {
+            System.out.println("No games rented on this account!");
+            PressEnterToContinue();
+            return -1;
+         }
+
+         int option = page.size() + 1;
+         int nextChoice = history.hasNext() ? option++ : -1;
+         int previousChoice = history.hasPrevious() ? option++ : -1;
+         int cancelChoice = option;
+         if(nextChoice > 0)
+         {
+            System.out.println(String.format("%d. Next Page", nextChoice));
+         }
+         if(previousChoice > 0)
+         {
+            System.out.println(String.format("%d. Previous Page", previousChoice));
+         }
+         System.out.println(String.format("%d. Cancel", cancelChoice));
+
+         int choice = readChoice();
+         if(choice < 1 || choice > cancelChoice)
+         {
+            throw new Exception("Invalid choice!");
+         }
+
+         if(choice == cancelChoice)
+         {
+            return -1;
+         }
+         else if(choice == nextChoice)
+         {
+            history.next();
+         }
+         else if(choice == previousChoice)
+         {
+            history.previous();
+         }
+         else
+         {
+            return choice - 1;
+         }
+      }
    }
 
    private static void PressEnterToContinue()
@@ -758,35 +1367,44 @@ public class GameRental {
 
    /*
     * Convenience method for getting a distinct set of genres that currently exist in the database.
-    * Useful for searching for a game via genre.
+    * Useful for searching for a game via genre. The list is cached by the genre
+    * dictionary and only re-read once it expires or the catalog changes.
     */
    private static SortedSet<String> GetGenresFromDatabase(GameRental gameRental)
    {
       SortedSet<String> result = new TreeSet<String>(); 
-      String genresQuery = "SELECT DISTINCT c.genre FROM Catalog c;";
 
       try
       {
-         List<List<String>> queryResult = gameRental.executeQueryAndReturnResult(genresQuery);
-         for(List<String> row : queryResult)
-         {
-            result.add(row.get(0));
-         }
+         result = gameRental.getCatalogCache().getGenreDictionary().getGenres();
       }
       catch(Exception e)
       {
          System.out.println("Genre query failed");
       }
 
-      return result; // cache?
+      return result;
    }
 
 // Rest of the functions definition go in here
 
+   /*
+    * Writes one game the way the catalog search lists it, into a table laid
+    * out with CATALOG_TABLE_WIDTHS.
+    */
+   static void RenderCatalogRow(TableRenderer table, CatalogCache.Game game)
+   {
+      table.cell(game.getGameName())
+           .cell(game.getGenre())
+           .cell(game.getDescription())
+           .cellCents(game.getPriceCents())
+           .endRow();
+   }
+
    public static void viewCatalog(GameRental esql) {
       /*
        * Filter Options
-       *    1. Game Name (contains, use "sql like")
+       *    1. Game Name (contains, ignoring case, via the catalog cache's title index)
        *    2. Game Genre (poll genres from db)
        *    3. Price (sort by ascending or descending)
        */
@@ -898,54 +1516,35 @@ public class GameRental {
    
       if(doSearch)
       {
-         boolean hasWhereClause = false;
-         String query = "";
-         query += "SELECT c.gameName, c.genre, c.description, c.price \n";
-         query += "FROM Catalog c \n";
-         if(gameNameFilter != null || gameGenreFilter != null || gamePriceSortType != 1)
+         try
          {
-            query += "WHERE ";
-
-            if(gameNameFilter != null)
+            // Filtered and sorted in memory from the catalog cache.
+            List<CatalogCache.Game> games = esql.getCatalogCache().search(gameNameFilter, gameGenreFilter, gamePriceSortType);
+            TableRenderer table = TableRenderer.toConsole(CATALOG_TABLE_WIDTHS);
+            for(CatalogCache.Game game : games)
             {
-               query += "c.gameName LIKE '%" + gameNameFilter + "%' ";
-               hasWhereClause = true;
+               RenderCatalogRow(table, game);
             }
+            table.flush();
+            int numRows = games.size();
 
-            if(gameGenreFilter != null)
+            if(numRows <= 0)
             {
-               if(hasWhereClause)
-               {
-                  query += "AND ";
-               }
-
-               query += "c.genre = '" + gameGenreFilter + "' ";
-               hasWhereClause = true;
-            }
+               System.out.println("No entries matched your search...");
 
-           if(gamePriceSortType != 1)
-           {
-               query += "\nORDER BY price";
-               switch(gamePriceSortType)
+               // Probably a typo; suggest the closest titles instead of making them guess again.
+               if(gameNameFilter != null)
                {
-                  case 2: query += " ASC "; break;
-                  case 3: query += " DESC "; break;
+                  List<CatalogCache.Game> suggestions = esql.getCatalogCache().closest(gameNameFilter, FUZZY_SUGGESTIONS);
+                  if(!suggestions.isEmpty())
+                  {
+                     System.out.println("Did you mean:");
+                     for(CatalogCache.Game game : suggestions)
+                     {
+                        System.out.println(String.format("   %s", game.getGameName()));
+                     }
+                  }
                }
-           } 
-         } // END filter query 
-         query += "; ";
-         
-         try
-         {
-            List<List<String>> rows = esql.executeQueryAndReturnResult(query);
-            for(List<String> row : rows)
-            {
-               System.out.println(String.format("%50s | %10s | %55s | %5s", row.get(0), row.get(1), row.get(2), row.get(3)));
-            }
-
-            if(rows.size() <= 0)
-            {
-               System.out.println("No entries matched your search...");
             }
 
             PressEnterToContinue();
@@ -959,49 +1558,27 @@ public class GameRental {
    }
 
 
-   private static boolean isValidGame(GameRental esql, String gameID){
-      String gameIDQuery = "SELECT c.gameID FROM catalog AS c WHERE c.gameID = '" + gameID + "'";
-      try{
-         int rowCount = esql.executeQuery(gameIDQuery);
-         if(rowCount == 1){
-            return true;
-         } else {
-            return false;
-      }
-      } catch (Exception e){
-         System.out.println("Error: " + e.getMessage());
-         return false;
-      }
-      
-   }
-
-   private static double getCost(GameRental esql, List<String> gamesOrdered, List<Integer> numUnits){
-      try{
-         double cost = 0.0;
-         for(int i = 0; i < gamesOrdered.size(); i++){
-            String findCostQuery = "SELECT c.price FROM catalog AS c WHERE c.gameID = '" + gamesOrdered.get(i) + "'";
-            List<List<String>> query = esql.executeQueryAndReturnResult(findCostQuery);
-            cost += (1.0 * Double.parseDouble(query.get(0).get(0)) * numUnits.get(i));
-         }  
-         double scale = Math.pow(10, 2);  // 2 is the number of decimal places
-         double roundedValue = Math.round(cost * scale) / scale;
-         return roundedValue;
-      } catch (Exception e){
-         System.out.println("Error: " + e.getMessage());
-         return 0.0;
+   /*
+    * Reads a game ID and how many units of it to rent, and adds them to the cart.
+    */
+   private static void readCartLine(Cart cart) throws Exception {
+      System.out.println("Enter the Game ID: ");
+      String gameID = in.readLine().trim();
+      while(true){
+         System.out.println("Enter how many units of " + gameID + ": ");
+         try{
+            cart.add(gameID, Integer.parseInt(in.readLine().trim()));
+            return;
+         } catch (IllegalArgumentException e) {
+            System.out.println("Please enter a positive number of units.");
+         }
       }
    }
 
-
-   public static void placeOrder(GameRental esql, String authorisedUser) {
+   public static void placeOrder(GameRental esql, Session session) {
+      RentalService service = new RentalService(esql);
       int numGames = 0;
-      String gameID = "";
-      int unitsOrdered = 0;
-      double cost = 0.0;
-      boolean validValue = false;
-      List<String> gamesOrdered = new ArrayList<>();
-      List<Integer> numUnits = new ArrayList<>();
-      int totalGames = 0;
+      Cart cart = new Cart();
       System.out.println("=================================================");
       System.out.println("============          Order          ============");
       System.out.println("=================================================");
@@ -1010,29 +1587,25 @@ public class GameRental {
       try{
          numGames = Integer.parseInt(in.readLine());
          for(int i = 0; i < numGames; i++){
-            while(true){
-               System.out.println("Enter the Game ID: ");
-               gameID = in.readLine();
-               if(isValidGame(esql, gameID)){
-                  gamesOrdered.add(gameID);
-                  while(!validValue){    
-                     System.out.println("Enter how many units of " + gameID + ": ");
-                     unitsOrdered = Integer.parseInt(in.readLine());
-                     totalGames += unitsOrdered;
-                     numUnits.add(unitsOrdered);
-                     validValue = true;                  
-                  }
-                  validValue = false;
-                  break;
-               } else {
-                  System.out.println("Invalid Game ID. Please try again.");
-               }
+            readCartLine(cart);
+         }
+
+         // Validate and price the whole cart in one lookup, then replace any unknown games.
+         List<String> unknownGames = service.priceCart(cart);
+         while(!unknownGames.isEmpty()){
+            System.out.println("Invalid Game ID(s): " + String.join(", ", unknownGames) + ". Please try again.");
+            for(String unknownGame : unknownGames){
+               cart.remove(unknownGame);
+               readCartLine(cart);
             }
-            
+            unknownGames = service.priceCart(cart);
          }
 
-         cost = getCost(esql, gamesOrdered, numUnits);
-         System.out.println("The total cost of this rental is " + cost);
+         if(cart.isEmpty()){
+            return;
+         }
+
+         System.out.println("The total cost of this rental is " + ColumnarResult.formatCents(cart.getTotalCents()));
          String cont = "";
          while(true){
             System.out.println("Do you want to continue with the purchase? (Yes/No)");
@@ -1046,22 +1619,9 @@ public class GameRental {
             }
          }
          
-         String insertIntoRental = "INSERT INTO RentalOrder(login, noOfGames, totalPrice) VALUES('" + authorisedUser + "', " + totalGames + ", " + cost + ")";
-         esql.executeUpdate(insertIntoRental);
-
-         List<List<String>> rentalID = esql.executeQueryAndReturnResult("SELECT r.rentalOrderID FROM rentalOrder AS r WHERE login = '" + authorisedUser + "' ORDER BY r.orderTimestamp DESC LIMIT 1");  
-         
-         String insertIntoGIO = "INSERT INTO GamesInOrder(rentalOrderId, gameID, unitsOrdered) VALUES";
-         for(int i = 0; i < numGames; i++){
-            insertIntoGIO += "('" + rentalID.get(rentalID.size() - 1).get(0) + "', '" + gamesOrdered.get(i) + "', " + numUnits.get(i) + ")";
-            if(i < numGames - 1){
-               insertIntoGIO += ",";
-            }
-         }
-         esql.executeUpdate(insertIntoGIO);         
-
-         String insertIntoTracking = "INSERT INTO TrackingInfo(rentalOrderID) VALUES('" + rentalID.get(rentalID.size() -1).get(0) + "')";
-         esql.executeUpdate(insertIntoTracking);
+         // One round trip: the order, its games and its tracking row are inserted atomically.
+         String[] orderKeys = service.placeOrder(session, cart);
+         System.out.println("Order placed! Rental Order ID: " + orderKeys[0] + ", Tracking ID: " + orderKeys[1]);
       } catch (Exception e) {
          System.out.println("Error: " + e.getMessage());
          return;
@@ -1074,24 +1634,66 @@ public class GameRental {
       System.out.println("==                                     Rental History                                       ==");
       System.out.println("==============================================================================================");
 
-      String query = "SELECT rentalOrderID, noOfGames, totalPrice, orderTimestamp, dueDate FROM RentalOrder WHERE login = '" 
-      + authorizedUser + "' ORDER BY dueDate DESC;";
-
       try
       {
-         System.out.println(String.format("%-20s | %-9s | %-12s | %-22s | %-22s", "Order ID", "Num Games", "Total Price", "Order Time", "Due Date"));
-         System.out.println("----------------------------------------------------------------------------------------------");
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
-         for(List<String> row : result)
+         // Heavy renters can have a long history, so it is shown a page at a time.
+         OrderHistory history = new OrderHistory(esql, authorizedUser, ORDER_PAGE_SIZE);
+         TableRenderer table = TableRenderer.toConsole(ORDER_TABLE_WIDTHS);
+         while(true)
          {
-            System.out.println(String.format("%-20s | %-9s | %-12s | %-22s | %-22s", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4)));
-         }
+            ColumnarResult page = history.getPage();
+            RenderOrderHeader(table);
+            for(int i = 0; i < page.size(); i++)
+            {
+               RenderOrderRow(table, page, i);
+            }
+            table.flush();
 
-         if(result.size() <= 0)
-         {
-            System.out.println("No games rented on this account!");
+            if(page.size() <= 0)
+            {
+               System.out.println("No games rented on this account!");
+               PressEnterToContinue();
+               return;
+            }
+
+            int option = 1;
+            int nextChoice = history.hasNext() ? option++ : -1;
+            int previousChoice = history.hasPrevious() ? option++ : -1;
+            int backChoice = option;
+            if(backChoice == 1)
+            {
+               // everything fit on one page
+               PressEnterToContinue();
+               return;
+            }
+            if(nextChoice > 0)
+            {
+               System.out.println(String.format("%d. Next Page", nextChoice));
+            }
+            if(previousChoice > 0)
+            {
+               System.out.println(String.format("%d. Previous Page", previousChoice));
+            }
+            System.out.println(String.format("%d. Back", backChoice));
+
+            int choice = readChoice();
+            if(choice == nextChoice)
+            {
+               history.next();
+            }
+            else if(choice == previousChoice)
+            {
+               history.previous();
+            }
+            else if(choice == backChoice)
+            {
+               return;
+            }
+            else
+            {
+               System.out.println("Unrecognized choice!");
+            }
          }
-         PressEnterToContinue();
       }
       catch(Exception e)
       {
@@ -1108,18 +1710,18 @@ public class GameRental {
       System.out.println("==                                     Recent Orders                                        ==");
       System.out.println("==============================================================================================");
 
-      String query = "SELECT rentalOrderID, noOfGames, totalPrice, orderTimestamp, dueDate FROM RentalOrder WHERE login = '" 
-      + authorizedUser + "' ORDER BY orderTimestamp DESC LIMIT 5;";
+      String query = RECENT_ORDERS_QUERY;
 
       try
       {
-         System.out.println(String.format("%-20s | %-9s | %-12s | %-22s | %-22s", "Order ID", "Num Games", "Total Price", "Order Time", "Due Date"));
-         System.out.println("----------------------------------------------------------------------------------------------");
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
-         for(List<String> row : result)
+         ColumnarResult result = esql.executeQueryAndReturnColumns(query, authorizedUser);
+         TableRenderer table = TableRenderer.toConsole(ORDER_TABLE_WIDTHS);
+         RenderOrderHeader(table);
+         for(int i = 0; i < result.size(); i++)
          {
-            System.out.println(String.format("%-20s | %-9s | %-12s | %-22s | %-22s", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4)));
+            RenderOrderRow(table, result, i);
          }
+         table.flush();
 
          if(result.size() <= 0)
          {
@@ -1142,53 +1744,27 @@ public class GameRental {
          System.out.println("==            View Order Info           ==");
          System.out.println("==========================================");
 
-         // View all orders for user (choose)
-         String query = "SELECT rentalOrderID, noOfGames, totalPrice, orderTimestamp, dueDate FROM RentalOrder WHERE login = '" 
-         + authorizedUser + "' ORDER BY dueDate DESC;";
+         // View all orders for user (choose), a page at a time.
+         // The page stays loaded between picks, so coming back to the list costs nothing.
+         OrderHistory history = new OrderHistory(esql, authorizedUser, ORDER_PAGE_SIZE);
 
          boolean loopChooseOrder = true;
          while(loopChooseOrder)
          {
-            System.out.println(String.format("%-23s | %-9s | %-12s | %-22s | %-22s", "Order ID", "Num Games", "Total Price", "Order Time", "Due Date"));
-            System.out.println("----------------------------------------------------------------------------------------------");
-            List<List<String>> result = esql.executeQueryAndReturnResult(query);
-            for(int i = 0; i < result.size(); i++)
-            {
-               List<String> row = result.get(i);
-               System.out.println(String.format("%d. %-20s | %-9s | %-12s | %-22s | %-22s", i + 1, row.get(0), row.get(1), row.get(2), row.get(3), row.get(4)));
-            }
-
-            if(result.size() <= 0)
-            {
-               System.out.println("No games rented on this account!");
-               PressEnterToContinue();
-               loopChooseOrder = false;
-               return;
-            }
-
-            int numResults = result.size();
-            System.out.println(String.format("%d. Cancel", numResults + 1));
-
-            int choice = readChoice();
-            if(choice < 1 || choice > numResults + 1)
-            {
-               throw new Exception("Invalid choice!");
-            }
-
-            if(choice == numResults + 1)
+            int chosenOrder = ChooseOrderFromHistory(history);
+            if(chosenOrder < 0)
             {
                return;
             }
-
-            List<String> chosenOrder = result.get(choice - 1);
+            ColumnarResult result = history.getPage();
             // With our chosen row, we need the tracking id, and list of games for the order.
             // tracking id is from a single row
             // list of games is multiple rows where a rental order id matches
-            String rentalOrderId = chosenOrder.get(0);
+            String rentalOrderId = result.getString(chosenOrder, 0);
 
-            String trackingIdQuery = "SELECT t.trackingID FROM TrackingInfo t WHERE t.rentalOrderID = '" + rentalOrderId + "';";
-            List<List<String>> trackingResults = esql.executeQueryAndReturnResult(trackingIdQuery);
-            if(trackingResults.size() <= 0)
+            // One query for the tracking id and the order's games with their names.
+            ColumnarResult orderDetails = esql.getOrderDetails(rentalOrderId);
+            if(orderDetails.size() <= 0 || orderDetails.isNull(0, 0))
             {
                System.out.println("No tracking info for this order!");
                PressEnterToContinue();
@@ -1196,11 +1772,9 @@ public class GameRental {
                return;
             }
 
-            String trackingID = trackingResults.get(0).get(0); // Assume only 1 exists. The id is the first col
+            String trackingID = orderDetails.getString(0, 0); // Assume only 1 exists. Every row carries it.
 
-            String gamesQuery = "SELECT gameID, unitsOrdered FROM GamesInOrder WHERE rentalOrderID = '" + rentalOrderId + "';";
-            List<List<String>> gamesInOrder = esql.executeQueryAndReturnResult(gamesQuery);
-            if(gamesInOrder.size() <= 0)
+            if(orderDetails.isNull(0, 1))
             {
                System.out.println("No games in this order!");
                PressEnterToContinue();
@@ -1208,10 +1782,6 @@ public class GameRental {
                return;
             }
 
-            String catalogQuery = "SELECT * FROM Catalog;";
-            List<List<String>> catalog = esql.executeQueryAndReturnResult(catalogQuery);
-
-           
             // Order generic information
             // Then, list of game x(n)
             System.out.println("====================================================================================");
@@ -1219,23 +1789,21 @@ public class GameRental {
             System.out.println("====================================================================================");
             System.out.println(String.format("%-25s | %-25s | %-11s | %-15s", "Order Time", "Due Date", "Total Price", "Tracking ID"));
             System.out.println("____________________________________________________________________________________");
-            System.out.println(String.format("%-25s | %-25s | %-11s | %-40s", chosenOrder.get(3), chosenOrder.get(4), chosenOrder.get(2), trackingID));
+            System.out.println(String.format("%-25s | %-25s | %-11s | %-40s",
+               result.format(chosenOrder, 3),
+               result.format(chosenOrder, 4),
+               result.format(chosenOrder, 2),
+               trackingID));
             System.out.println("------------------------------------------------------------------------------------");
             System.out.println("--                                    Games                                       --");
             System.out.println("------------------------------------------------------------------------------------");
-            for(int i = 0; i < gamesInOrder.size(); i++)
+            TableRenderer table = TableRenderer.toConsole(-50);
+            for(int i = 0; i < orderDetails.size(); i++)
             {
-               List<String> gameRow = gamesInOrder.get(i);
-               String gameID = gameRow.get(0);
-               String gameIDNumStr = gameID.substring(4);
-               int gameIDNum = Integer.parseInt(gameIDNumStr);
-               String numUnits = gameRow.get(1);
-
-               List<String> gameCatalogRow = catalog.get(gameIDNum - 1);
-               String gameFriendlyName = gameCatalogRow.get(1);
-
-               System.out.println(String.format("%-50s x%s", gameFriendlyName, numUnits));
+               // game name, then x units
+               table.cell(orderDetails.getString(i, 2)).text(" x").text(orderDetails.getInt(i, 3)).endRow();
             }
+            table.flush();
 
 
             PressEnterToContinue();
@@ -1274,76 +1842,41 @@ public class GameRental {
                return;
             }
 
-            List<String> trackingInfo = null;
+            ColumnarResult trackingInfo = null;
             if(userTrackMethod == 1)
             {
                String trackingID = readString("Enter exact Tracking ID: ");
 
-               String trackingInfoQuery = "SELECT t.courierName, t.rentalOrderID, t.currentLocation, t.status, t.lastUpdateDate, t.additionalComments\n";
-               trackingInfoQuery += "FROM TrackingInfo t WHERE t.trackingID = '" + trackingID + "' AND EXISTS ";
-               trackingInfoQuery += "(SELECT 1 FROM RentalOrder r WHERE r.login = '" + authorizedUser + "' AND r.rentalOrderID = t.rentalOrderID );";
-
-               List<List<String>> result = esql.executeQueryAndReturnResult(trackingInfoQuery);
+               ColumnarResult result = esql.getTrackingInfo(trackingID, authorizedUser);
                if(result.size() <= 0)
                {
                   throw new Exception("No tracking info for this id! (Maybe not allowed)");
                }
 
-               trackingInfo = result.get(0);
+               trackingInfo = result;
             }
             else if(userTrackMethod == 2)
             {
-               // List all orders, then find the tracking id from that
-               // View all orders for user (choose)
-               String query = "SELECT rentalOrderID, noOfGames, totalPrice, orderTimestamp, dueDate FROM RentalOrder WHERE login = '" 
-               + authorizedUser + "' ORDER BY dueDate DESC;";
+               // List the orders a page at a time, then find the tracking id from the one picked
+               OrderHistory history = new OrderHistory(esql, authorizedUser, ORDER_PAGE_SIZE);
 
                boolean loopChooseOrder = true;
                while(loopChooseOrder)
                {
-                  System.out.println(String.format("%-23s | %-9s | %-12s | %-22s | %-22s", "Order ID", "Num Games", "Total Price", "Order Time", "Due Date"));
-                  System.out.println("----------------------------------------------------------------------------------------------");
-                  List<List<String>> ordersResults = esql.executeQueryAndReturnResult(query);
-                  for(int i = 0; i < ordersResults.size(); i++)
-                  {
-                     List<String> row = ordersResults.get(i);
-                     System.out.println(String.format("%d. %-20s | %-9s | %-12s | %-22s | %-22s", i + 1, row.get(0), row.get(1), row.get(2), row.get(3), row.get(4)));
-                  }
-
-                  if(ordersResults.size() <= 0)
-                  {
-                     System.out.println("No games rented on this account!");
-                     PressEnterToContinue();
-                     loopChooseOrder = false;
-                     return;
-                  }
-
-                  int numResults = ordersResults.size();
-                  System.out.println(String.format("%d. Cancel", numResults + 1));
-
-                  int choice = readChoice();
-                  if(choice < 1 || choice > numResults + 1)
-                  {
-                     throw new Exception("Invalid choice!");
-                  }
-
-                  if(choice == numResults + 1)
+                  int chosenOrder = ChooseOrderFromHistory(history);
+                  if(chosenOrder < 0)
                   {
                      return;
                   }
 
-                  List<String> chosenOrder = ordersResults.get(choice - 1);
-                  String rentalOrderID = chosenOrder.get(0);
-                  String trackingInfoQuery = "SELECT courierName, rentalOrderID, currentLocation, status, lastUpdateDate, additionalComments\n";
-                  trackingInfoQuery += "FROM TrackingInfo WHERE rentalOrderID = '" + rentalOrderID + "';";
-   
-                  List<List<String>> trackingResults = esql.executeQueryAndReturnResult(trackingInfoQuery);
+                  String rentalOrderID = history.getPage().getString(chosenOrder, 0);
+                  ColumnarResult trackingResults = esql.getTrackingInfo(rentalOrderID);
                   if(trackingResults.size() <= 0)
                   {
                      throw new Exception("No tracking info for this order!");
                   }
    
-                  trackingInfo = trackingResults.get(0);
+                  trackingInfo = trackingResults;
                   loopChooseOrder = false;
                }
             }
@@ -1360,12 +1893,12 @@ public class GameRental {
             
             System.out.println("-------------------------------------------------------------------------------------------------------------------------------");
             System.out.println(String.format("%-12s | %-20s | %-30s | %-16s | %-27s | %-25s",
-               trackingInfo.get(0),
-               trackingInfo.get(1),
-               trackingInfo.get(2),
-               trackingInfo.get(3),
-               trackingInfo.get(4),
-               trackingInfo.get(5)));
+               trackingInfo.format(0, 1),
+               trackingInfo.format(0, 2),
+               trackingInfo.format(0, 3),
+               trackingInfo.format(0, 4),
+               trackingInfo.format(0, 5),
+               trackingInfo.format(0, 6)));
 
             PressEnterToContinue();
          }
@@ -1377,19 +1910,16 @@ public class GameRental {
       }
    }
 
-   public static void updateTrackingInfo(GameRental esql, String authorizedUser) 
+   public static void updateTrackingInfo(GameRental esql, Session session) 
    {
+      RentalService service = new RentalService(esql);
+      String authorizedUser = session.getLogin();
       // Choose Rental Order
       try
       {
 
          // Check if current user is a manager, return if not
-         String checkIsManagerQuery = "SELECT role FROM Users WHERE login = '" + authorizedUser + "' AND role = 'manager'";
-         int numRows = esql.executeQuery(checkIsManagerQuery);
-         if(numRows <= 0)
-         {
-            throw new Exception("User is not a manager! Updating catalog is disallowed.");
-         }
+         RentalService.requirePrivilege(session, Session.PRIVILEGE_UPDATE_TRACKING);
 
          boolean loopChooseViewTrackingInfoMethod = true;
          while(loopChooseViewTrackingInfoMethod)
@@ -1417,71 +1947,36 @@ public class GameRental {
             {
                String trackingID = readString("Enter exact Tracking ID: ");
 
-               String trackingInfoQuery = "SELECT t.trackingID, t.courierName, t.rentalOrderID, t.currentLocation, t.status, t.lastUpdateDate, t.additionalComments\n";
-               trackingInfoQuery += "FROM TrackingInfo t WHERE t.trackingID = '" + trackingID + "' AND EXISTS ";
-               trackingInfoQuery += "(SELECT 1 FROM RentalOrder r WHERE r.login = '" + authorizedUser + "' AND r.rentalOrderID = t.rentalOrderID );";
-
-               List<List<String>> result = esql.executeQueryAndReturnResult(trackingInfoQuery);
+               ColumnarResult result = esql.getTrackingInfo(trackingID, authorizedUser);
                if(result.size() <= 0)
                {
                   throw new Exception("No tracking info for this id! (Maybe not allowed)");
                }
 
-               trackingInfo = result.get(0);
+               trackingInfo = RowAsStrings(result, 0);
             }
             else if(userTrackMethod == 2)
             {
-               // List all orders, then find the tracking id from that
-               // View all orders for user (choose)
-               String query = "SELECT rentalOrderID, noOfGames, totalPrice, orderTimestamp, dueDate FROM RentalOrder WHERE login = '" 
-               + authorizedUser + "' ORDER BY dueDate DESC;";
+               // List the orders a page at a time, then find the tracking id from the one picked
+               OrderHistory history = new OrderHistory(esql, authorizedUser, ORDER_PAGE_SIZE);
 
                boolean loopChooseOrder = true;
                while(loopChooseOrder)
                {
-                  System.out.println(String.format("%-23s | %-9s | %-12s | %-22s | %-22s", "Order ID", "Num Games", "Total Price", "Order Time", "Due Date"));
-                  System.out.println("----------------------------------------------------------------------------------------------");
-                  List<List<String>> ordersResults = esql.executeQueryAndReturnResult(query);
-                  for(int i = 0; i < ordersResults.size(); i++)
-                  {
-                     List<String> row = ordersResults.get(i);
-                     System.out.println(String.format("%d. %-20s | %-9s | %-12s | %-22s | %-22s", i + 1, row.get(0), row.get(1), row.get(2), row.get(3), row.get(4)));
-                  }
-
-                  if(ordersResults.size() <= 0)
+                  int chosenOrder = ChooseOrderFromHistory(history);
+                  if(chosenOrder < 0)
                   {
-                     System.out.println("No games rented on this account!");
-                     PressEnterToContinue();
-                     loopChooseOrder = false;
                      return;
                   }
 
-                  int numResults = ordersResults.size();
-                  System.out.println(String.format("%d. Cancel", numResults + 1));
-
-                  int choice = readChoice();
-                  if(choice < 1 || choice > numResults + 1)
-                  {
-                     throw new Exception("Invalid choice!");
-                  }
-
-                  if(choice == numResults + 1)
-                  {
-                     return;
-                  }
-
-                  List<String> chosenOrder = ordersResults.get(choice - 1);
-                  String rentalOrderID = chosenOrder.get(0);
-                  String trackingInfoQuery = "SELECT trackingID, courierName, rentalOrderID, currentLocation, status, lastUpdateDate, additionalComments\n";
-                  trackingInfoQuery += "FROM TrackingInfo WHERE rentalOrderID = '" + rentalOrderID + "';";
-   
-                  List<List<String>> trackingResults = esql.executeQueryAndReturnResult(trackingInfoQuery);
+                  String rentalOrderID = history.getPage().getString(chosenOrder, 0);
+                  ColumnarResult trackingResults = esql.getTrackingInfo(rentalOrderID);
                   if(trackingResults.size() <= 0)
                   {
                      throw new Exception("No tracking info for this order!");
                   }
    
-                  trackingInfo = trackingResults.get(0);
+                  trackingInfo = RowAsStrings(trackingResults, 0);
                   loopChooseOrder = false;
                }
             }
@@ -1516,32 +2011,13 @@ public class GameRental {
                else if(fieldSelection == 6)
                {
                   // Apply Changes
-                  String updateTrackingInfoQuery = "";
-                  updateTrackingInfoQuery += "UPDATE TrackingInfo\n";
-
-                  updateTrackingInfoQuery += "SET ";
-                  updateTrackingInfoQuery += "courierName = '"          + newVals.get(1) + "', ";
-                  updateTrackingInfoQuery += "currentLocation = '"      + newVals.get(3) + "', ";
-                  updateTrackingInfoQuery += "status = '"               + newVals.get(4) + "', ";
-                  updateTrackingInfoQuery += "additionalComments = '"   + newVals.get(6) + "'\n";
-
-                  updateTrackingInfoQuery += "WHERE trackingID = '"     + trackingInfo.get(0) + "';";
-
-                  esql.executeUpdate(updateTrackingInfoQuery);
+                  service.updateTracking(session, trackingInfo.get(0), newVals.get(1), newVals.get(3), newVals.get(4), newVals.get(6));
                   return;
                }
                else if(fieldSelection == 1)
                {
                   // Edit status, should be only a limited set of values.
-                  List<String> allowedValues = Arrays.asList(
-                     "Delayed",
-                     "In Transit",
-                     "Arrived at Facility",
-                     "Out for Delivery",
-                     "Returned to Sender",
-                     "Attempted Delivery",
-                     "Ready for Pickup",
-                     "Delivered");
+                  List<String> allowedValues = TRACKING_STATUSES;
 
                   // Print edit menu
                   for(int i = 0; i < allowedValues.size(); i++)
@@ -1578,6 +2054,19 @@ public class GameRental {
       }
    }
 
+   /*
+    * One row of a result as text, the way executeQueryAndReturnResult returns rows.
+    */
+   private static List<String> RowAsStrings(ColumnarResult result, int row)
+   {
+      List<String> values = new ArrayList<>(result.getColumnCount());
+      for(int col = 0; col < result.getColumnCount(); col++)
+      {
+         values.add(result.format(row, col));
+      }
+      return values;
+   }
+
    private static String GetFieldChangeString(String oldVal, String newVal)
    {
       if(oldVal.equals(newVal))
@@ -1600,42 +2089,10 @@ public class GameRental {
       destArray.set(arrayIdx, newVal);
    }
 
-   /*
-    * Builds the UPDATE query for editing game information.
-    */
-   private static String BuildEditGameInformationQuery(List<String> colNames, List<String> values, String gameID)
-   {
-      String updateGameQuery = "";
-      updateGameQuery += "UPDATE Catalog \n SET ";
-      for(int x = 1; x < colNames.size(); x++)
-      {
-         if(x != 3)
-         {
-            updateGameQuery += String.format("%s = '%s' ", colNames.get(x), values.get(x));
-         }
-         else // price
-         {
-            updateGameQuery += String.format("%s = %s ", colNames.get(x), values.get(x));
-         }
-
-         if(x < colNames.size() - 1)
-         {
-            updateGameQuery += ", ";
-         }
-         else
-         {
-            updateGameQuery += "\n";
-         }
-      }
-
-      updateGameQuery += "WHERE gameID = '" + gameID + "';";
-      return updateGameQuery;
-   }
-
    /*
     * Wrapper function for editing game information. Will also send the update query.
     */
-   private static void EditGameInformation(GameRental esql, List<String> curVals, List<String> newVals, String gameId)
+   private static void EditGameInformation(RentalService service, Session session, List<String> curVals, List<String> newVals, String gameId)
    {
       // Now we ask which field(s) the manager wants to update.
       List<String> colNames = Arrays.asList("gameID", "gameName", "genre", "price", "description", "imageURL");
@@ -1678,10 +2135,7 @@ public class GameRental {
             }
             else if(editFieldChoice == 7)
             {
-               String updateGameQuery = BuildEditGameInformationQuery(colNames, newVals, gameId);
-
-               System.out.println(updateGameQuery);
-               esql.executeUpdate(updateGameQuery);
+               service.updateGame(session, gameId, newVals.get(1), newVals.get(2), new BigDecimal(newVals.get(3)), newVals.get(4), newVals.get(5));
                loopFieldEditorMenu = false;
                return;
             }
@@ -1694,17 +2148,13 @@ public class GameRental {
       }
    }
 
-   public static void updateCatalog(GameRental esql, String authorizedUser) {
+   public static void updateCatalog(GameRental esql, Session session) {
+      RentalService service = new RentalService(esql);
 
       // Check if current user is a manager, return if not
-      String checkIsManagerQuery = "SELECT role FROM Users WHERE login = '" + authorizedUser + "' AND role = 'manager'";
       try
       {
-         int numRows = esql.executeQuery(checkIsManagerQuery);
-         if(numRows <= 0)
-         {
-            throw new Exception("User is not a manager! Updating catalog is disallowed.");
-         }
+         RentalService.requirePrivilege(session, Session.PRIVILEGE_UPDATE_CATALOG);
       }
       catch(Exception e)
       {
@@ -1743,8 +2193,7 @@ public class GameRental {
                {
                   String gameId = readString("Enter exact Game ID: ");
 
-                  String gameIDSearchQuery = "SELECT * FROM Catalog WHERE gameID = '" + gameId + "';";
-                  List<List<String>> result = esql.executeQueryAndReturnResult(gameIDSearchQuery);
+                  List<List<String>> result = esql.executeQueryAndReturnResult(GAME_BY_ID_QUERY, gameId);
                   if(result.size() <= 0)
                   {
                      throw new Exception("Could not find game!");
@@ -1752,7 +2201,7 @@ public class GameRental {
 
                   List<String> currentGameRow = result.get(0); // Since we filter on the unique gameID, there should only be 1 result, if any.
                   List<String> newGameRow = new ArrayList<String>(currentGameRow);
-                  EditGameInformation(esql, currentGameRow, newGameRow, gameId);
+                  EditGameInformation(service, session, currentGameRow, newGameRow, gameId);
                }
                catch(Exception e)
                {
@@ -1766,8 +2215,7 @@ public class GameRental {
                try
                {
                   String gameTitleContainsStr = readString("Enter Game Title (Contains): ");
-                  String gameTitleLikeQuery = "SELECT * FROM Catalog WHERE gameName LIKE '%" + gameTitleContainsStr + "%';";
-                  List<List<String>> likeGames = esql.executeQueryAndReturnResult(gameTitleLikeQuery);
+                  List<List<String>> likeGames = esql.executeQueryAndReturnResult(TITLE_SEARCH_QUERY, "%" + gameTitleContainsStr + "%", gameTitleContainsStr);
 
                   if(likeGames.size() <= 0)
                   {
@@ -1795,7 +2243,7 @@ public class GameRental {
                         List<String> selectedGameRow = likeGames.get(gameChoiceIdx - 1);
                         List<String> newGameRow = new ArrayList<String>(selectedGameRow);
                         String gameId = selectedGameRow.get(0);
-                        EditGameInformation(esql, selectedGameRow, newGameRow, gameId);
+                        EditGameInformation(service, session, selectedGameRow, newGameRow, gameId);
                         break;
                      }
                      catch(Exception e)
@@ -1949,23 +2397,7 @@ public class GameRental {
                   if(editChoice == 1)
                   {
                      // Change Game
-                     String favGamesSqlList = "(";
-                     for(int i = 0; i < favGames.size(); i++)
-                     {
-                        favGamesSqlList += "'" + favGames.get(i) + "'";
-                        if(i < favGames.size() - 1)
-                        {
-                           favGamesSqlList += ", ";
-                        }
-                     }
-
-                     if(favGames.size() <= 0)
-                     {
-                        favGamesSqlList += "''";
-                     }
-                     favGamesSqlList += ")";
-
-                     String newGame = ChooseGameByTitleContains(esql, false, favGamesSqlList);
+                     String newGame = ChooseGameByTitleContains(esql, false, favGames);
                      if(newGame == null)
                      {
                         break;
@@ -1996,21 +2428,21 @@ public class GameRental {
    }
 
    /*
-    * Overload for ChooseGame function. This doesn't require a sql string, 
+    * Overload for ChooseGame function. This doesn't require an exclude list, 
     * in case you don't want to use it.
     */
    private static String ChooseGameByTitleContains(GameRental esql, boolean retID)
    {
-      return ChooseGameByTitleContains(esql, retID, "('')");
+      return ChooseGameByTitleContains(esql, retID, new ArrayList<String>());
    }
 
    /*
     * Convenience method to choose a game by title, using a "contains" filter.
     *
-    * Exclude string is a sql string, i.e. a list (value1, value2, ...) that filters out the game name using the values
-    * in the list. If you don't want to deal with it, use the overloaded function that provides a default value for the exclude str.
+    * Exclude names is a list of game names that are filtered out of the results. If you don't want to deal with it,
+    * use the overloaded function that provides an empty exclude list.
     */
-   private static String ChooseGameByTitleContains(GameRental esql, boolean retID, String excludeSqlStr)
+   private static String ChooseGameByTitleContains(GameRental esql, boolean retID, List<String> excludeNames)
    {
       while(true)
       {
@@ -2020,9 +2452,22 @@ public class GameRental {
             System.out.println("-------------------------------------------------------------------");
             String searchStr = readString("Enter Game Title (Contains): ");
 
-            String gamesQuery = "SELECT g.gameID, g.gameName FROM Catalog g WHERE g.gameName LIKE '%" + searchStr + "%' AND g.gameName NOT IN " + excludeSqlStr + ";";
-            System.out.println(gamesQuery);
-            List<List<String>> gameRows = esql.executeQueryAndReturnResult(gamesQuery);
+            List<CatalogCache.Game> gameRows = esql.getCatalogCache().search(searchStr, null, CatalogCache.SORT_NONE);
+            gameRows.removeIf(game -> excludeNames.contains(game.getGameName()));
+            if(gameRows.isEmpty())
+            {
+               // Nothing contains it, probably a typo: offer the closest titles instead.
+               gameRows = esql.getCatalogCache().closest(searchStr, FUZZY_SUGGESTIONS + excludeNames.size());
+               gameRows.removeIf(game -> excludeNames.contains(game.getGameName()));
+               if(gameRows.size() > FUZZY_SUGGESTIONS)
+               {
+                  gameRows = gameRows.subList(0, FUZZY_SUGGESTIONS);
+               }
+               if(!gameRows.isEmpty())
+               {
+                  System.out.println("No games contain '" + searchStr + "'. Closest titles:");
+               }
+            }
             int numRows = gameRows.size();
             if(numRows <= 0)
             {
@@ -2034,7 +2479,7 @@ public class GameRental {
             System.out.println("Edit Game Menu\n-----------------------------");
             for(int i = 0; i < numRows; i++)
             {
-               System.out.println(String.format("%d. %-64s", i + 1, gameRows.get(i).get(1)));
+               System.out.println(String.format("%d. %-64s", i + 1, gameRows.get(i).getGameName()));
             }
 
             System.out.println(String.format("%d. Cancel", numRows + 1));
@@ -2050,8 +2495,8 @@ public class GameRental {
                return null;
             }
 
-            List<String> chosenGameRow = gameRows.get(userChoice - 1);
-            return (retID ? chosenGameRow.get(0) : chosenGameRow.get(1));
+            CatalogCache.Game chosenGame = gameRows.get(userChoice - 1);
+            return (retID ? chosenGame.getGameID() : chosenGame.getGameName());
          }
          catch(Exception e)
          {
@@ -2062,14 +2507,12 @@ public class GameRental {
       }
    }
 
-   public static void updateUser(GameRental esql, String authorizedUser) {
+   public static void updateUser(GameRental esql, Session session) {
 
       // Check if current user is a manager, return if not
-      String checkIsManagerQuery = "SELECT role FROM Users WHERE login = '" + authorizedUser + "' AND role = 'manager'";
       try
       {
-         int numRows = esql.executeQuery(checkIsManagerQuery);
-         if(numRows <= 0)
+         if(!session.hasPrivilege(Session.PRIVILEGE_UPDATE_USERS))
          {
             throw new Exception("User is not a manager! Updating catalog is disallowed.");
          }
@@ -2087,34 +2530,64 @@ public class GameRental {
 
             try
             {
-               String searchLogin = readString("Enter user login to edit (contains): ");
-               String searchUserQuery = "SELECT * FROM Users WHERE login LIKE '%" + searchLogin + "%';";
-               List<List<String>> matchingUsers = esql.executeQueryAndReturnResult(searchUserQuery);
-
-               for(int i = 0; i < matchingUsers.size(); i++)
-               {
-                  System.out.println(String.format("%d. %-25s", i + 1, matchingUsers.get(i).get(0)));
-               }
+               String searchLogin = readString("Enter user login to edit (starts with or contains): ");
 
-               System.out.println(String.format("%d. Cancel", matchingUsers.size() + 1));
+               // Index-backed, logins only, one page at a time; prefix matches come first.
+               LoginSearch loginSearch = new LoginSearch(esql, searchLogin, LOGIN_PAGE_SIZE);
+               List<String> matchingUsers = loginSearch.nextPage();
 
                try
                {
-                  int choice = readChoice();
-                  if(choice < 1 || choice > matchingUsers.size() + 1)
+                  String userLogin = null;
+                  while(userLogin == null)
                   {
-                     throw new Exception("Choice is invalid!");
+                     if(matchingUsers.isEmpty())
+                     {
+                        throw new Exception("No users matched your search...");
+                     }
+
+                     for(int i = 0; i < matchingUsers.size(); i++)
+                     {
+                        System.out.println(String.format("%d. %-25s", i + 1, matchingUsers.get(i)));
+                     }
+
+                     boolean hasNextPage = loginSearch.hasMore();
+                     int cancelChoice = matchingUsers.size() + (hasNextPage ? 2 : 1);
+                     if(hasNextPage)
+                     {
+                        System.out.println(String.format("%d. Next Page", matchingUsers.size() + 1));
+                     }
+                     System.out.println(String.format("%d. Cancel", cancelChoice));
+
+                     int choice = readChoice();
+                     if(choice < 1 || choice > cancelChoice)
+                     {
+                        throw new Exception("Choice is invalid!");
+                     }
+
+                     if(choice == cancelChoice)
+                     {
+                        return;
+                     }
+                     else if(hasNextPage && choice == matchingUsers.size() + 1)
+                     {
+                        matchingUsers = loginSearch.nextPage();
+                     }
+                     else
+                     {
+                        userLogin = matchingUsers.get(choice - 1);
+                     }
                   }
 
-                  if(choice == matchingUsers.size() + 1)
+                  // Only now load the whole row of the chosen user.
+                  List<List<String>> userRows = esql.executeQueryAndReturnResult("SELECT * FROM Users WHERE login = ?;", userLogin);
+                  if(userRows.size() <= 0)
                   {
-                     loopUpdateUser = false;
-                     break;
+                     throw new Exception("User no longer exists!");
                   }
 
-                  List<String> userRow = matchingUsers.get(choice - 1);
+                  List<String> userRow = userRows.get(0);
                   List<String> newVals = new ArrayList<String>(userRow);
-                  String userLogin = userRow.get(0);
                   List<String> colDisplayNames = Arrays.asList("Password", "Role", "Favorite Games", "Phone Num");
                   List<String> colDataNames = Arrays.asList("password", "role", "favGames", "phoneNum");
 
@@ -2176,16 +2649,24 @@ public class GameRental {
                      {
                         // Built query string and execute
                         String updateQuery = "UPDATE Users\nSET ";
+                        List<Object> updateParams = new ArrayList<Object>();
                         for(int x = 0; x < colDataNames.size(); x++)
                         {
-                           updateQuery += String.format("%s = '%s'", colDataNames.get(x), newVals.get(x + 1));
+                           updateQuery += String.format("%s = ?", colDataNames.get(x));
+                           updateParams.add(newVals.get(x + 1));
                            if(x < colDataNames.size() - 1)
                            {
                               updateQuery += ", ";
                            }
                         }
-                        updateQuery += "\nWHERE login = '" + userRow.get(0) + "';";
-                        esql.executeUpdate(updateQuery);
+                        updateQuery += "\nWHERE login = ?;";
+                        updateParams.add(userRow.get(0));
+                        esql.executeUpdate(updateQuery, updateParams.toArray());
+                        if(userRow.get(0).equals(session.getLogin()))
+                        {
+                           // A manager edited their own account, maybe their own role.
+                           session.invalidate();
+                        }
                         return;
                      }
                      else
@@ -0,0 +1,133 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class dictionary-encodes game genres as small ints and caches the
+ * list of genres currently in the catalog.
+ *
+ * Codes are handed out in first-seen order and never change or get reused
+ * for the life of the process, so cached games can hold a genre code and
+ * filtering by genre is an int compare instead of a string compare.
+ *
+ * The genre list shown in the catalog menu is read with one
+ * SELECT DISTINCT and kept until its time-to-live runs out or the catalog
+ * changes (see invalidate()), whichever comes first.
+ *
+ * Thread safe; all methods synchronize on the dictionary.
+ */
+public class GenreDictionary {
+
+   // returned by lookup() for a genre that has no code
+   public static final int UNKNOWN = -1;
+
+   static final String GENRES_QUERY = "SELECT DISTINCT c.genre FROM Catalog c";
+
+   private final GameRental _esql;
+   private final long _ttlNanos;
+
+   // code -> genre and genre -> code
+   private final List<String> _names = new ArrayList<String>();
+   private final Map<String, Integer> _codes = new HashMap<String, Integer>();
+
+   // genres in the catalog as of the last load, sorted; null when not loaded
+   private SortedSet<String> _genres = null;
+   private long _loadedNanos = 0;
+
+   // getGenres() calls answered from the cached list, and those that read it
+   private final LongAdder _hits = new LongAdder();
+   private final LongAdder _misses = new LongAdder();
+
+   /**
+    * Creates an empty dictionary
+    *
+    * @param esql the store genres are read from
+    * @param ttlMillis how long the genre list is reused before it is read again
+    */
+   public GenreDictionary(GameRental esql, long ttlMillis) {
+      this._esql = esql;
+      this._ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+   }//end GenreDictionary
+
+   /**
+    * Returns the code of a genre, assigning the next free code if the
+    * genre has not been seen before.
+    */
+   public synchronized int code(String genre) {
+      Integer code = this._codes.get(genre);
+      if (code == null) {
+         code = this._names.size();
+         this._names.add(genre);
+         this._codes.put(genre, code);
+      }
+      return code;
+   }//end code
+
+   /**
+    * @return the code of a genre, or UNKNOWN if it has never been seen
+    */
+   public synchronized int lookup(String genre) {
+      Integer code = this._codes.get(genre);
+      return code == null ? UNKNOWN : code;
+   }
+
+   /**
+    * @return the genre a code stands for
+    */
+   public synchronized String name(int code) {
+      return this._names.get(code);
+   }
+
+   /**
+    * @return the number of codes handed out so far
+    */
+   public synchronized int size() {
+      return this._names.size();
+   }
+
+   /**
+    * Returns the distinct genres in the catalog, sorted, reading them from
+    * the database only if the cached list expired or was invalidated.
+    *
+    * @return the genres in the catalog
+    * @throws java.sql.SQLException when the genres could not be read
+    */
+   public synchronized SortedSet<String> getGenres() throws SQLException {
+      long now = System.nanoTime();
+      if (this._genres == null || now - this._loadedNanos >= this._ttlNanos) {
+         this._misses.increment();
+         ColumnarResult rows = this._esql.executeQueryAndReturnColumns(GENRES_QUERY);
+         SortedSet<String> genres = new TreeSet<String>();
+         for (int i = 0; i < rows.size(); i++) {
+            genres.add(name(code(rows.getString(i, 0))));
+         }//end for
+         this._genres = genres;
+         this._loadedNanos = now;
+      } else {
+         this._hits.increment();
+      }//end if
+      return new TreeSet<String>(this._genres);
+   }//end getGenres
+
+   public long getHits() {
+      return this._hits.sum();
+   }
+
+   public long getMisses() {
+      return this._misses.sum();
+   }
+
+   /**
+    * Drops the cached genre list after a catalog change. Codes are kept.
+    */
+   public synchronized void invalidate() {
+      this._genres = null;
+   }
+
+}//end GenreDictionary
@@ -0,0 +1,124 @@
+/**
+ * Writes the JSON that CommandRunner and ApiServer send out. Only what they
+ * need: objects of named values, arrays of them, strings, numbers, booleans
+ * and null. Numbers (BigDecimal prices included) are written bare, anything
+ * else that is not null or a Boolean as a string.
+ */
+public class Json {
+
+   private Json() {
+   }
+
+   /**
+    * Appends one value.
+    *
+    * @return out
+    */
+   public static StringBuilder appendValue(StringBuilder out, Object value) {
+      if (value == null) {
+         out.append("null");
+      } else if (value instanceof Number || value instanceof Boolean) {
+         out.append(value);
+      } else {
+         appendString(out, value.toString());
+      }
+      return out;
+   }//end appendValue
+
+   /**
+    * Appends a quoted, escaped string.
+    *
+    * @return out
+    */
+   public static StringBuilder appendString(StringBuilder out, String value) {
+      out.append('"');
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         if (c == '"' || c == '\\') {
+            out.append('\\').append(c);
+         } else if (c == '\n') {
+            out.append("\\n");
+         } else if (c == '\r') {
+            out.append("\\r");
+         } else if (c == '\t') {
+            out.append("\\t");
+         } else if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+         } else {
+            out.append(c);
+         }
+      }//end for
+      out.append('"');
+      return out;
+   }//end appendString
+
+   /**
+    * Appends an object with one member per name.
+    *
+    * @param names the member names
+    * @param values their values, in the same order
+    * @return out
+    */
+   public static StringBuilder appendObject(StringBuilder out, String[] names, Object... values) {
+      out.append('{');
+      for (int i = 0; i < values.length; i++) {
+         if (i > 0) {
+            out.append(',');
+         }
+         appendString(out, names[i]).append(':');
+         appendValue(out, values[i]);
+      }//end for
+      return out.append('}');
+   }//end appendObject
+
+   /**
+    * Appends one row of a result as an object, the first names.length
+    * columns named in order.
+    *
+    * @return out
+    */
+   public static StringBuilder appendRow(StringBuilder out, String[] names, ColumnarResult result, int row) {
+      return appendObject(out, names, values(result, row, names.length));
+   }
+
+   /**
+    * Appends every row of a result as an array of objects.
+    *
+    * @return out
+    */
+   public static StringBuilder appendRows(StringBuilder out, String[] names, ColumnarResult result) {
+      out.append('[');
+      for (int row = 0; row < result.size(); row++) {
+         if (row > 0) {
+            out.append(',');
+         }
+         appendRow(out, names, result, row);
+      }//end for
+      return out.append(']');
+   }//end appendRows
+
+   /**
+    * The first columns of a result row, typed: numbers stay numbers, prices
+    * become BigDecimal, timestamps become text.
+    */
+   public static Object[] values(ColumnarResult result, int row, int columns) {
+      Object[] values = new Object[columns];
+      for (int col = 0; col < columns; col++) {
+         if (result.isNull(row, col)) {
+            values[col] = null;
+         } else if (result.getColumnType(col) == ColumnarResult.TYPE_INT) {
+            values[col] = result.getInt(row, col);
+         } else if (result.getColumnType(col) == ColumnarResult.TYPE_LONG) {
+            values[col] = result.getLong(row, col);
+         } else if (result.getColumnType(col) == ColumnarResult.TYPE_CENTS) {
+            values[col] = ColumnarResult.fromCents(result.getCents(row, col));
+         } else if (result.getColumnType(col) == ColumnarResult.TYPE_DECIMAL) {
+            values[col] = result.getDecimal(row, col);
+         } else {
+            values[col] = result.format(row, col);
+         }
+      }//end for
+      return values;
+   }//end values
+
+}//end Json
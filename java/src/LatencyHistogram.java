@@ -0,0 +1,124 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies, in microseconds, from any number of threads at once.
+ *
+ * Buckets double in width every four buckets (log-linear), so a bucket is
+ * at most a quarter of its lower bound wide: percentiles come out within
+ * ~25% from a microsecond up to days, in a fixed, small number of buckets.
+ * Every power of two of microseconds is a bucket boundary, which is where
+ * exported cumulative counts can be taken exactly (countBelow).
+ *
+ * Each bucket is a LongAdder, so threads recording at the same time update
+ * separate cells instead of contending on one counter; reading adds the
+ * cells up and is meant for the occasional report, not the hot path.
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BUCKET_BITS = 2;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   // up to 2^40 microseconds (about 12 days); anything longer goes in the last bucket
+   private static final int MAX_EXPONENT = 40 - SUB_BUCKET_BITS;
+   private static final int BUCKETS = (MAX_EXPONENT + 2) * SUB_BUCKETS;
+
+   private final LongAdder[] _counts = new LongAdder[BUCKETS];
+   private final LongAdder _sumNanos = new LongAdder();
+
+   public LatencyHistogram() {
+      for (int b = 0; b < BUCKETS; b++) {
+         this._counts[b] = new LongAdder();
+      }
+   }
+
+   /**
+    * Counts one call.
+    *
+    * @param nanos how long it took
+    */
+   public void record(long nanos) {
+      long value = Math.max(0, nanos);
+      this._counts[bucket(value / 1000)].increment();
+      this._sumNanos.add(value);
+   }//end record
+
+   /**
+    * @return how many calls were counted
+    */
+   public long getCount() {
+      long count = 0;
+      for (LongAdder bucket : this._counts) {
+         count += bucket.sum();
+      }
+      return count;
+   }//end getCount
+
+   /**
+    * @return the total time of the calls counted
+    */
+   public long getSumNanos() {
+      return this._sumNanos.sum();
+   }
+
+   /**
+    * @param micros a power of two
+    * @return how many calls took less than that many microseconds
+    */
+   public long countBelow(long micros) {
+      long count = 0;
+      for (int b = 0; b < BUCKETS && upperBound(b) <= micros; b++) {
+         count += this._counts[b].sum();
+      }
+      return count;
+   }//end countBelow
+
+   /**
+    * @param fraction e.g. 0.99 for the 99th percentile
+    * @return the latency at that percentile in microseconds, as the middle
+    *         of its bucket; 0 if nothing was counted
+    */
+   public double percentileMicros(double fraction) {
+      long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int b = 0; b < BUCKETS; b++) {
+         counts[b] = this._counts[b].sum();
+         total += counts[b];
+      }
+      long rank = Math.max(1, (long) Math.ceil(fraction * total));
+      long seen = 0;
+      for (int b = 0; b < BUCKETS; b++) {
+         seen += counts[b];
+         if (seen >= rank && counts[b] > 0) {
+            return (lowerBound(b) + upperBound(b) - 1) / 2.0;
+         }
+      }//end for
+      return 0;
+   }//end percentileMicros
+
+   private static int bucket(long micros) {
+      if (micros < SUB_BUCKETS) {
+         return (int) micros;
+      }
+      int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS);
+      long subBucket = Math.min(SUB_BUCKETS - 1, (micros >>> exponent) - SUB_BUCKETS);
+      return (exponent + 1) * SUB_BUCKETS + (int) subBucket;
+   }//end bucket
+
+   private static long lowerBound(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+         return bucket;
+      }
+      int exponent = bucket / SUB_BUCKETS - 1;
+      return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << exponent;
+   }
+
+   // exclusive
+   private static long upperBound(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+         return bucket + 1;
+      }
+      int exponent = bucket / SUB_BUCKETS - 1;
+      return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << exponent;
+   }
+
+}//end LatencyHistogram
@@ -0,0 +1,137 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class pages through the logins matching a search string, for the
+ * manager's user picker. Only the login column is read; the full row is
+ * loaded once a user has been picked.
+ *
+ * Logins that start with the search string come first, then logins that
+ * merely contain it, each in login order:
+ *
+ *    prefix matches    -> a range scan of the text_pattern_ops index on
+ *                         Users(login), written as an explicit ~>=~ / ~<~
+ *                         range so it stays indexable as a prepared
+ *                         statement (LIKE 'x%' only is for literal patterns)
+ *    substring matches -> the trigram GIN index on Users(login)
+ *
+ * Pages are fetched with keyset pagination: each page starts after the last
+ * login of the previous one, so a page costs the same however deep it is.
+ */
+public class LoginSearch {
+
+   static final String PREFIX_QUERY =
+      "SELECT login FROM Users WHERE login ~>=~ ? AND login ~<~ ? AND login ~>~ ? ORDER BY login USING ~<~ LIMIT ?";
+
+   static final String ALL_QUERY =
+      "SELECT login FROM Users WHERE login ~>~ ? ORDER BY login USING ~<~ LIMIT ?";
+
+   static final String SUBSTRING_QUERY =
+      "SELECT login FROM Users WHERE login LIKE ? AND NOT (login ~>=~ ? AND login ~<~ ?) AND login ~>~ ? "
+      + "ORDER BY login USING ~<~ LIMIT ?";
+
+   private static final int PHASE_PREFIX = 0;
+   private static final int PHASE_SUBSTRING = 1;
+   private static final int PHASE_DONE = 2;
+
+   private final GameRental _esql;
+   private final String _search;
+   private final String _upperBound;
+   private final int _pageSize;
+
+   private int _phase = PHASE_PREFIX;
+   private String _lastLogin = "";
+
+   /**
+    * Starts a search. Nothing is read until the first page is asked for.
+    *
+    * @param esql the store to query
+    * @param search the text logins must start with or contain
+    * @param pageSize the most logins per page
+    */
+   public LoginSearch(GameRental esql, String search, int pageSize) {
+      if (pageSize < 1) {
+         throw new IllegalArgumentException("Page size must be positive");
+      }
+      this._esql = esql;
+      this._search = search;
+      this._upperBound = search.isEmpty() ? null : upperBound(search);
+      this._pageSize = pageSize;
+   }//end LoginSearch
+
+   /**
+    * @return true while there are logins left to page through
+    */
+   public boolean hasMore() {
+      return this._phase != PHASE_DONE;
+   }
+
+   /**
+    * Fetches the next page of matching logins.
+    *
+    * @return up to pageSize logins; empty once the search is exhausted
+    * @throws java.sql.SQLException when the search fails
+    */
+   public List<String> nextPage() throws SQLException {
+      List<String> page = new ArrayList<String>();
+      while (page.size() < this._pageSize && this._phase != PHASE_DONE) {
+         int wanted = this._pageSize - page.size();
+         // one extra row tells whether this phase has more after the page
+         List<String> rows = fetch(wanted + 1);
+         boolean phaseHasMore = rows.size() > wanted;
+         if (phaseHasMore) {
+            rows = rows.subList(0, wanted);
+         }
+         page.addAll(rows);
+
+         if (phaseHasMore) {
+            this._lastLogin = rows.get(rows.size() - 1);
+         } else {
+            // move on to the substring matches, which start from the lowest login again
+            boolean noSubstringPhase = this._phase == PHASE_SUBSTRING || this._search.isEmpty();
+            this._phase = noSubstringPhase ? PHASE_DONE : PHASE_SUBSTRING;
+            this._lastLogin = "";
+            if (this._phase == PHASE_SUBSTRING && page.size() == this._pageSize && fetch(1).isEmpty()) {
+               // the page ended with the last prefix match: only offer a next page if it has rows
+               this._phase = PHASE_DONE;
+            }
+         }
+      }//end while
+      return page;
+   }//end nextPage
+
+   private List<String> fetch(int limit) throws SQLException {
+      ColumnarResult rows;
+      if (this._phase == PHASE_PREFIX && this._search.isEmpty()) {
+         rows = this._esql.executeQueryAndReturnColumns(ALL_QUERY, this._lastLogin, limit);
+      } else if (this._phase == PHASE_PREFIX) {
+         rows = this._esql.executeQueryAndReturnColumns(PREFIX_QUERY, this._search, this._upperBound, this._lastLogin, limit);
+      } else {
+         rows = this._esql.executeQueryAndReturnColumns(SUBSTRING_QUERY, "%" + escapeLike(this._search) + "%",
+                                                        this._search, this._upperBound, this._lastLogin, limit);
+      }
+      List<String> logins = new ArrayList<String>(rows.size());
+      for (int i = 0; i < rows.size(); i++) {
+         logins.add(rows.getString(i, 0));
+      }//end for
+      return logins;
+   }//end fetch
+
+   /*
+    * The smallest string greater than every string starting with prefix:
+    * the prefix with its last character incremented.
+    */
+   private static String upperBound(String prefix) {
+      int last = prefix.length() - 1;
+      return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+   }
+
+   /*
+    * Makes LIKE treat %, _ and \ in the search text literally.
+    */
+   private static String escapeLike(String text) {
+      return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+   }
+
+}//end LoginSearch
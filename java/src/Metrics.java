@@ -0,0 +1,31 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters bumped on the hot paths, for MetricsServer to export.
+ *
+ * They are LongAdders: concurrent increments land in separate cells
+ * instead of contending on one value, so counting an order or a login
+ * costs next to nothing however many threads do it at once. Reading sums
+ * the cells, which only the exporter does.
+ */
+public class Metrics {
+
+   // orders place_order() accepted
+   public static final LongAdder ORDERS_PLACED = new LongAdder();
+
+   // searches of the catalog cache
+   public static final LongAdder CATALOG_SEARCHES = new LongAdder();
+
+   // login attempts, and those with a wrong login or password
+   public static final LongAdder LOGINS = new LongAdder();
+   public static final LongAdder FAILED_LOGINS = new LongAdder();
+
+   // StatementCache.prepare() calls over all connections; kept here, not per
+   // cache, so they survive the connections the pool closes
+   public static final LongAdder STATEMENT_CACHE_HITS = new LongAdder();
+   public static final LongAdder STATEMENT_CACHE_MISSES = new LongAdder();
+
+   private Metrics() {
+   }
+
+}//end Metrics
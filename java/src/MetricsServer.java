@@ -0,0 +1,184 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the operational counters on a local port, GET /metrics, in the
+ * Prometheus text format:
+ *
+ *    gamerental_orders_placed_total             orders placed (rate() gives orders/s)
+ *    gamerental_catalog_searches_total          catalog searches
+ *    gamerental_logins_total, _failed_total     login attempts, and the failed ones
+ *    gamerental_catalog_cache_*                 hits, misses, hit ratio, games cached
+ *    gamerental_genre_cache_*                   genre list reads served cached, and reloads
+ *    gamerental_statement_cache_*               prepared statements reused, and prepared,
+ *                                               over all connections
+ *    gamerental_pool_*                          open, busy and maximum connections,
+ *                                               threads waiting, waits and timeouts
+ *    gamerental_query_duration_seconds          SQL latency histogram per operation
+ *                                               (QueryStats)
+ *
+ * Only the loopback address is bound: the numbers are for a scraper or an
+ * agent on the same host, not for the network. Everything is read at
+ * scrape time from counters the hot paths already keep (Metrics, the
+ * caches, the pool), so serving metrics adds no work to a request.
+ *
+ * GameRental starts one when -Dgamerental.metrics.port is set.
+ */
+public class MetricsServer {
+
+   // histogram bucket bounds, powers of two of microseconds (LatencyHistogram counts them exactly): 128us to 8.4s
+   private static final long[] LATENCY_BOUNDS_MICROS = {
+      1L << 7, 1L << 9, 1L << 11, 1L << 13, 1L << 15, 1L << 17, 1L << 19, 1L << 21, 1L << 23 };
+
+   // the same bounds in seconds, as the le labels print them
+   private static final String[] LATENCY_BOUNDS_SECONDS = new String[LATENCY_BOUNDS_MICROS.length];
+   static {
+      for (int b = 0; b < LATENCY_BOUNDS_MICROS.length; b++) {
+         LATENCY_BOUNDS_SECONDS[b] = BigDecimal.valueOf(LATENCY_BOUNDS_MICROS[b], 6).stripTrailingZeros().toPlainString();
+      }
+   }
+
+   private final GameRental _esql;
+   private final HttpServer _server;
+
+   private MetricsServer(GameRental esql, HttpServer server) {
+      this._esql = esql;
+      this._server = server;
+   }
+
+   /**
+    * Starts serving the metrics of a store on localhost.
+    *
+    * @param esql the store whose pool and caches are reported
+    * @param port the port to listen on
+    * @return the running server, for stop()
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public static MetricsServer start(GameRental esql, int port) throws IOException {
+      HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 16);
+      final MetricsServer metrics = new MetricsServer(esql, server);
+      server.createContext("/metrics", new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            metrics.handle(exchange);
+         }
+      });
+      // scrapes are rare and quick; the server's own thread answers them
+      server.start();
+      return metrics;
+   }//end start
+
+   /**
+    * Stops serving.
+    */
+   public void stop() {
+      this._server.stop(0);
+   }
+
+   private void handle(HttpExchange exchange) throws IOException {
+      try {
+         if (!exchange.getRequestMethod().equals("GET")) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+         }
+         byte[] body = render().getBytes(StandardCharsets.UTF_8);
+         exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+         exchange.sendResponseHeaders(200, body.length);
+         OutputStream out = exchange.getResponseBody();
+         out.write(body);
+      }finally {
+         exchange.close();
+      }//end try
+   }//end handle
+
+   /**
+    * @return every metric, in the Prometheus text format
+    */
+   public String render() {
+      StringBuilder out = new StringBuilder(4096);
+      counter(out, "gamerental_orders_placed_total", "Rental orders placed.", Metrics.ORDERS_PLACED.sum());
+      counter(out, "gamerental_catalog_searches_total", "Catalog searches.", Metrics.CATALOG_SEARCHES.sum());
+      counter(out, "gamerental_logins_total", "Login attempts.", Metrics.LOGINS.sum());
+      counter(out, "gamerental_logins_failed_total", "Login attempts with a wrong login or password.",
+              Metrics.FAILED_LOGINS.sum());
+
+      CatalogCache catalog = this._esql.peekCatalogCache();
+      if (catalog != null) {
+         long hits = catalog.getHits();
+         long misses = catalog.getMisses();
+         counter(out, "gamerental_catalog_cache_hits_total", "Game lookups the catalog cache answered.", hits);
+         counter(out, "gamerental_catalog_cache_misses_total", "Game lookups that went to the database.", misses);
+         gauge(out, "gamerental_catalog_cache_hit_ratio", "Hits over all game lookups since start.",
+               hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+         gauge(out, "gamerental_catalog_cache_games", "Games in the catalog cache.", catalog.size());
+
+         GenreDictionary genres = catalog.getGenreDictionary();
+         counter(out, "gamerental_genre_cache_hits_total", "Genre list reads answered from the cache.", genres.getHits());
+         counter(out, "gamerental_genre_cache_misses_total", "Genre list reads that went to the database.",
+                 genres.getMisses());
+      }//end if
+
+      counter(out, "gamerental_statement_cache_hits_total", "Statements reused from a connection's statement cache.",
+              Metrics.STATEMENT_CACHE_HITS.sum());
+      counter(out, "gamerental_statement_cache_misses_total", "Statements prepared because they were not cached.",
+              Metrics.STATEMENT_CACHE_MISSES.sum());
+
+      ConnectionPool pool = this._esql.getPool();
+      gauge(out, "gamerental_pool_connections", "Open database connections.", pool.getTotalCount());
+      gauge(out, "gamerental_pool_connections_busy", "Connections borrowed right now.", pool.getActiveCount());
+      gauge(out, "gamerental_pool_connections_max", "Most connections the pool opens.", pool.getMaxSize());
+      gauge(out, "gamerental_pool_waiting_threads", "Threads waiting for a connection.", pool.getWaitingCount());
+      counter(out, "gamerental_pool_waits_total", "Borrows that found every connection busy.", pool.getWaitCount());
+      counter(out, "gamerental_pool_timeouts_total", "Borrows that timed out waiting.", pool.getTimeoutCount());
+
+      String name = "gamerental_query_duration_seconds";
+      header(out, name, "SQL statement latency by operation.", "histogram");
+      for (String operation : QueryStats.getOperations()) {
+         LatencyHistogram latency = QueryStats.latencyOf(operation);
+         String label = "operation=\"" + escapeLabel(operation) + "\"";
+         for (int b = 0; b < LATENCY_BOUNDS_MICROS.length; b++) {
+            out.append(name).append("_bucket{").append(label).append(",le=\"").append(LATENCY_BOUNDS_SECONDS[b])
+               .append("\"} ").append(latency.countBelow(LATENCY_BOUNDS_MICROS[b])).append('\n');
+         }
+         // read last, so it is never below a bucket read before it
+         long count = latency.getCount();
+         out.append(name).append("_bucket{").append(label).append(",le=\"+Inf\"} ").append(count).append('\n');
+         out.append(name).append("_sum{").append(label).append("} ").append(latency.getSumNanos() / 1e9).append('\n');
+         out.append(name).append("_count{").append(label).append("} ").append(count).append('\n');
+      }//end for
+      return out.toString();
+   }//end render
+
+   private static void counter(StringBuilder out, String name, String help, long value) {
+      header(out, name, help, "counter");
+      out.append(name).append(' ').append(value).append('\n');
+   }
+
+   private static void gauge(StringBuilder out, String name, String help, long value) {
+      header(out, name, help, "gauge");
+      out.append(name).append(' ').append(value).append('\n');
+   }
+
+   private static void gauge(StringBuilder out, String name, String help, double value) {
+      header(out, name, help, "gauge");
+      out.append(name).append(' ').append(value).append('\n');
+   }
+
+   private static void header(StringBuilder out, String name, String help, String type) {
+      out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+   }
+
+   private static String escapeLabel(String value) {
+      return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+   }
+
+}//end MetricsServer
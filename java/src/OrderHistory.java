@@ -0,0 +1,212 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * This class pages through one user's rental orders, latest due date first,
+ * for the order history screens and the order pickers.
+ *
+ * Pages are fetched with keyset pagination on (dueDate, rentalOrderID): the
+ * next page starts after the last order shown, the previous page ends before
+ * the first one. Each fetch is a short range scan of the
+ * (login, dueDate, rentalOrderID) index on RentalOrder, so a page costs the
+ * same however long the account's history is. rentalOrderID breaks ties
+ * between orders due at the same moment.
+ *
+ * Pages hold the columns RenderOrderRow expects: rentalOrderID, noOfGames,
+ * totalPrice, orderTimestamp, dueDate. A sixth column carries dueDate as
+ * text, at full precision, to start the neighbouring pages from.
+ *
+ * Callers that cannot keep this object between pages, like the HTTP API,
+ * keep getNextCursor() instead and resume with after().
+ */
+public class OrderHistory {
+
+   static final String COLUMNS =
+      "SELECT rentalOrderID, noOfGames, totalPrice, orderTimestamp, dueDate, dueDate::text AS dueDateKey FROM RentalOrder ";
+
+   static final String FIRST_QUERY =
+      COLUMNS + "WHERE login = ? ORDER BY dueDate DESC, rentalOrderID DESC LIMIT ?";
+
+   static final String OLDER_QUERY =
+      COLUMNS + "WHERE login = ? AND (dueDate, rentalOrderID) < (?::timestamp, ?) "
+      + "ORDER BY dueDate DESC, rentalOrderID DESC LIMIT ?";
+
+   // read forwards from the first order shown, then put back in display order
+   static final String NEWER_QUERY =
+      "SELECT * FROM (" + COLUMNS + "WHERE login = ? AND (dueDate, rentalOrderID) > (?::timestamp, ?) "
+      + "ORDER BY dueDate, rentalOrderID LIMIT ?) AS newer ORDER BY dueDate DESC, rentalOrderID DESC";
+
+   private static final int ORDER_ID_COLUMN = 0;
+   private static final int DUE_DATE_KEY_COLUMN = 5;
+
+   // between the due date and the order ID in a cursor
+   private static final char CURSOR_SEPARATOR = ',';
+
+   private final GameRental _esql;
+   private final String _login;
+   private final int _pageSize;
+
+   private ColumnarResult _page = null;
+   private boolean _hasNext = false;
+   private boolean _hasPrevious = false;
+
+   /**
+    * Starts at the first page. Nothing is read until a page is asked for.
+    *
+    * @param esql the store to query
+    * @param login the user whose orders are listed
+    * @param pageSize the most orders per page
+    */
+   public OrderHistory(GameRental esql, String login, int pageSize) {
+      if (pageSize < 1) {
+         throw new IllegalArgumentException("Page size must be positive");
+      }
+      this._esql = esql;
+      this._login = login;
+      this._pageSize = pageSize;
+   }//end OrderHistory
+
+   /**
+    * @return the current page, fetching the first one if none has been yet;
+    *         empty only if the user has no orders
+    * @throws java.sql.SQLException when the fetch fails
+    */
+   public ColumnarResult getPage() throws SQLException {
+      if (this._page == null) {
+         first();
+      }
+      return this._page;
+   }
+
+   /**
+    * @return true if there are older orders after the current page
+    */
+   public boolean hasNext() {
+      return this._hasNext;
+   }
+
+   /**
+    * @return true if there are newer orders before the current page
+    */
+   public boolean hasPrevious() {
+      return this._hasPrevious;
+   }
+
+   /**
+    * Moves to the page of orders with the latest due dates.
+    *
+    * @return the new current page
+    * @throws java.sql.SQLException when the fetch fails
+    */
+   public ColumnarResult first() throws SQLException {
+      // one extra row tells whether there is a page after this one
+      ColumnarResult rows = this._esql.executeQueryAndReturnColumns(FIRST_QUERY, this._login, this._pageSize + 1);
+      this._hasNext = rows.size() > this._pageSize;
+      this._hasPrevious = false;
+      this._page = rows.slice(0, Math.min(rows.size(), this._pageSize));
+      return this._page;
+   }//end first
+
+   /**
+    * Moves to the page of older orders after the current one.
+    *
+    * @return the new current page
+    * @throws java.sql.SQLException when the fetch fails
+    */
+   public ColumnarResult next() throws SQLException {
+      ColumnarResult page = getPage();
+      if (page.size() == 0) {
+         return page;
+      }
+      int last = page.size() - 1;
+      ColumnarResult rows = older(page.getString(last, DUE_DATE_KEY_COLUMN), page.getString(last, ORDER_ID_COLUMN));
+      if (rows.size() == 0) {
+         // the orders after this page are gone, start over
+         return first();
+      }
+      return this._page;
+   }//end next
+
+   /**
+    * Moves to the page of orders after a cursor, which may have come from
+    * another OrderHistory of the same user.
+    *
+    * @param cursor a value getNextCursor() returned
+    * @return the new current page; empty if nothing is left after the cursor
+    * @throws java.lang.IllegalArgumentException if the cursor is malformed
+    * @throws java.sql.SQLException when the fetch fails
+    */
+   public ColumnarResult after(String cursor) throws SQLException {
+      int separator = cursor.indexOf(CURSOR_SEPARATOR);
+      if (separator <= 0 || separator == cursor.length() - 1) {
+         throw new IllegalArgumentException("Malformed cursor " + cursor);
+      }
+      String dueDateKey = cursor.substring(0, separator);
+      // rejects anything that is not a timestamp before it reaches the cast in the query
+      Timestamp.valueOf(dueDateKey);
+      older(dueDateKey, cursor.substring(separator + 1));
+      return this._page;
+   }//end after
+
+   /**
+    * @return where the page after the current one starts, for after(); null
+    *         if the current page is the last
+    */
+   public String getNextCursor() {
+      if (!this._hasNext || this._page == null || this._page.size() == 0) {
+         return null;
+      }
+      int last = this._page.size() - 1;
+      return this._page.getString(last, DUE_DATE_KEY_COLUMN) + CURSOR_SEPARATOR + this._page.getString(last, ORDER_ID_COLUMN);
+   }
+
+   /**
+    * Streams up to limit of a user's orders, latest due date first, in the
+    * page columns, without paging: for listings that write every order out
+    * in one go, where a cursor is cheaper than a query per page.
+    *
+    * @return how many orders were streamed
+    * @throws java.sql.SQLException when the query fails
+    */
+   public static int stream(GameRental esql, String login, int limit, RowHandler handler) throws SQLException {
+      return esql.executeQueryAndStream(FIRST_QUERY, handler, login, limit);
+   }
+
+   /*
+    * Reads the page of orders older than (dueDateKey, rentalOrderID) and,
+    * unless there are none, makes it the current page. Returns the rows read.
+    */
+   private ColumnarResult older(String dueDateKey, String rentalOrderID) throws SQLException {
+      ColumnarResult rows = this._esql.executeQueryAndReturnColumns(OLDER_QUERY, this._login,
+         dueDateKey, rentalOrderID, this._pageSize + 1);
+      this._hasNext = rows.size() > this._pageSize;
+      this._hasPrevious = true;
+      this._page = rows.slice(0, Math.min(rows.size(), this._pageSize));
+      return rows;
+   }//end older
+
+   /**
+    * Moves to the page of newer orders before the current one.
+    *
+    * @return the new current page
+    * @throws java.sql.SQLException when the fetch fails
+    */
+   public ColumnarResult previous() throws SQLException {
+      ColumnarResult page = getPage();
+      if (page.size() == 0) {
+         return page;
+      }
+      ColumnarResult rows = this._esql.executeQueryAndReturnColumns(NEWER_QUERY, this._login,
+         page.getString(0, DUE_DATE_KEY_COLUMN), page.getString(0, ORDER_ID_COLUMN), this._pageSize + 1);
+      if (rows.size() <= this._pageSize) {
+         // the previous page is the first one, and may have grown since
+         return first();
+      }
+      // the extra row is the newest, at the top
+      this._hasNext = true;
+      this._hasPrevious = true;
+      this._page = rows.slice(1, rows.size());
+      return this._page;
+   }//end previous
+
+}//end OrderHistory
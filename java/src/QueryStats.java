@@ -0,0 +1,281 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Times every statement GameRental runs, per operation.
+ *
+ * The operation is whatever the running thread was tagged with last (see
+ * setOperation): the menus tag each choice with the name of the method
+ * behind it (placeOrder, viewOrderInfo, ...), RentalService each of its
+ * calls. Statements run outside any tagged operation count as "other".
+ * Each operation has a LatencyHistogram, so recording from many threads at
+ * once costs a thread-local read, a map lookup and two LongAdder updates.
+ *
+ * Statements that take gamerental.slowQueryMillis (250) or longer, or fail,
+ * are also written to the slow-query log, one line each with the operation,
+ * the time, the row count, the SQL and the parameters (passwords masked):
+ * gamerental.slowQueryLog names the file (slow_queries.log), "-" for
+ * stderr; a negative threshold turns the log off.
+ *
+ * The statement's thread only formats the line and queues it: one
+ * background thread, started with the first slow statement, writes the
+ * queue out and flushes whenever it runs dry. gamerental.slowQueryQueue
+ * (1024) bounds the queue; when the writer falls that far behind, lines
+ * are dropped and the count is logged once it catches up.
+ */
+public class QueryStats {
+
+   public static final String UNTAGGED = "other";
+
+   private static final long SLOW_QUERY_MS = Long.getLong("gamerental.slowQueryMillis", 250L);
+   private static final String SLOW_QUERY_LOG = System.getProperty("gamerental.slowQueryLog", "slow_queries.log");
+   private static final int SLOW_QUERY_QUEUE = Integer.getInteger("gamerental.slowQueryQueue", 1024);
+
+   // INSERT INTO table (columns) VALUES: the column list, and where the values start
+   private static final Pattern INSERT_COLUMNS =
+      Pattern.compile("\\s*INSERT\\s+INTO\\s+[^\\s(]+\\s*\\(([^)]*)\\)\\s*VALUES\\s*", Pattern.CASE_INSENSITIVE);
+
+   private static final ThreadLocal<String> OPERATION = new ThreadLocal<String>();
+
+   private static final ConcurrentHashMap<String, LatencyHistogram> LATENCIES =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+
+   private QueryStats() {
+   }
+
+   /**
+    * Tags the statements this thread runs from now on with an operation.
+    *
+    * @param operation the operation's name; null for none
+    * @return the previous tag, to put back with setOperation when the operation ends
+    */
+   public static String setOperation(String operation) {
+      String previous = OPERATION.get();
+      if (operation == null) {
+         OPERATION.remove();
+      } else {
+         OPERATION.set(operation);
+      }
+      return previous;
+   }//end setOperation
+
+   /**
+    * @return the operation the running thread is tagged with, or UNTAGGED
+    */
+   public static String getOperation() {
+      String operation = OPERATION.get();
+      return operation == null ? UNTAGGED : operation;
+   }
+
+   /**
+    * Counts one statement for the running thread's operation, and logs it
+    * if it was slow or failed.
+    *
+    * @param sql the statement
+    * @param params what was bound to it
+    * @param startNanos System.nanoTime() before it was prepared
+    * @param rows the rows it returned or changed; negative if it failed
+    */
+   public static void record(String sql, Object[] params, long startNanos, long rows) {
+      long nanos = System.nanoTime() - startNanos;
+      String operation = getOperation();
+      latencyOf(operation).record(nanos);
+      if (SLOW_QUERY_MS >= 0 && (rows < 0 || nanos >= SLOW_QUERY_MS * 1000000L)) {
+         logSlow(operation, sql, params, nanos, rows);
+      }
+   }//end record
+
+   /**
+    * @return the latencies of one operation's statements so far
+    */
+   public static LatencyHistogram latencyOf(String operation) {
+      LatencyHistogram latency = LATENCIES.get(operation);
+      if (latency == null) {
+         LatencyHistogram created = new LatencyHistogram();
+         latency = LATENCIES.putIfAbsent(operation, created);
+         if (latency == null) {
+            latency = created;
+         }
+      }//end if
+      return latency;
+   }//end latencyOf
+
+   /**
+    * @return the operations that ran statements so far, sorted by name
+    */
+   public static List<String> getOperations() {
+      List<String> operations = new ArrayList<String>(LATENCIES.keySet());
+      Collections.sort(operations);
+      return operations;
+   }
+
+   /**
+    * Prints a line per operation: statements, mean, p50, p99 and p99.9.
+    */
+   public static void printReport(PrintStream out) {
+      out.println(String.format("%-22s | %10s | %10s | %10s | %10s | %10s", "Operation", "statements", "mean ms", "p50 ms", "p99 ms", "p99.9 ms"));
+      out.println("---------------------------------------------------------------------------------------");
+      for (String operation : getOperations()) {
+         LatencyHistogram latency = LATENCIES.get(operation);
+         long count = latency.getCount();
+         out.println(String.format("%-22s | %10d | %10.2f | %10.2f | %10.2f | %10.2f", operation, count,
+                                   count == 0 ? 0 : latency.getSumNanos() / 1e6 / count,
+                                   latency.percentileMicros(0.50) / 1e3, latency.percentileMicros(0.99) / 1e3,
+                                   latency.percentileMicros(0.999) / 1e3));
+      }//end for
+   }//end printReport
+
+   private static void logSlow(String operation, String sql, Object[] params, long nanos, long rows) {
+      String line = Instant.now() + " op=" + operation + " ms=" + String.format("%.1f", nanos / 1e6)
+         + " rows=" + (rows < 0 ? "failed" : Long.toString(rows))
+         + " sql=" + sql.replaceAll("\\s+", " ").trim() + " params=" + describe(sql, params);
+      if (!SlowLog.LINES.offer(line)) {
+         SlowLog.DROPPED.increment();
+      }
+   }//end logSlow
+
+   /*
+    * The slow-query log's queue and its writer. The thread starts when
+    * logSlow first touches the class; lines still queued at exit are
+    * written by a shutdown hook.
+    */
+   private static class SlowLog implements Runnable {
+      static final ArrayBlockingQueue<String> LINES = new ArrayBlockingQueue<String>(SLOW_QUERY_QUEUE);
+      static final LongAdder DROPPED = new LongAdder();
+
+      // opened on the first write; only touched under the class lock
+      private static PrintWriter _out = null;
+
+      static {
+         Thread writer = new Thread(new SlowLog(), "slow-query-log");
+         writer.setDaemon(true);
+         writer.start();
+         Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+               write(null);
+            }
+         });
+      }//end static
+
+      public void run() {
+         try {
+            while (true) {
+               write(LINES.take());
+            }
+         }catch (InterruptedException e) {
+            // exiting
+         }//end try
+      }//end run
+
+      /*
+       * Writes first (unless null) and whatever else is queued, then flushes.
+       */
+      private static synchronized void write(String first) {
+         if (first == null && LINES.isEmpty() && DROPPED.sum() == 0) {
+            return;
+         }
+         try {
+            if (_out == null) {
+               _out = SLOW_QUERY_LOG.equals("-")
+                  ? new PrintWriter(System.err)
+                  : new PrintWriter(new FileWriter(SLOW_QUERY_LOG, true));
+            }//end if
+            for (String line = first == null ? LINES.poll() : first; line != null; line = LINES.poll()) {
+               _out.println(line);
+            }
+            long dropped = DROPPED.sumThenReset();
+            if (dropped > 0) {
+               _out.println(Instant.now() + " dropped=" + dropped + " slow-query lines, the log fell behind");
+            }
+            _out.flush();
+         }catch (IOException e) {
+            // the log must never break anything; lose these lines
+         }//end try
+      }//end write
+   }//end SlowLog
+
+   /*
+    * The parameters as text, with the ones bound to a password column
+    * masked (see passwordParams).
+    */
+   private static String describe(String sql, Object[] params) {
+      boolean[] masked = passwordParams(sql, params.length);
+      StringBuilder text = new StringBuilder("[");
+      for (int param = 0; param < params.length; param++) {
+         if (param > 0) {
+            text.append(", ");
+         }
+         Object value = params[param];
+         if (masked[param]) {
+            text.append("***");
+         } else if (value instanceof Object[]) {
+            text.append(Arrays.toString((Object[]) value));
+         } else if (value instanceof String) {
+            text.append('\'').append(value).append('\'');
+         } else {
+            text.append(value);
+         }
+      }//end for
+      return text.append(']').toString();
+   }//end describe
+
+   /*
+    * Which parameters are bound to a password column: compared with or
+    * assigned to it ("password = ?"), or given for it in the VALUES of an
+    * INSERT with a column list. A ? inside a quoted literal is not a
+    * parameter.
+    */
+   private static boolean[] passwordParams(String sql, int count) {
+      boolean[] masked = new boolean[count];
+      String[] columns = null;
+      int valuesStart = sql.length();
+      Matcher insert = INSERT_COLUMNS.matcher(sql);
+      if (insert.lookingAt()) {
+         columns = insert.group(1).split(",");
+         for (int c = 0; c < columns.length; c++) {
+            columns[c] = columns[c].replace("\"", "").trim().toLowerCase();
+         }
+         valuesStart = insert.end();
+      }//end if
+
+      int param = 0;
+      int depth = 0;
+      int column = 0;
+      boolean quoted = false;
+      for (int i = 0; i < sql.length() && param < count; i++) {
+         char ch = sql.charAt(i);
+         if (ch == '\'') {
+            quoted = !quoted;
+         } else if (quoted) {
+            continue;
+         } else if (i >= valuesStart && ch == '(') {
+            // each row of VALUES starts over at the first column
+            if (depth++ == 0) {
+               column = 0;
+            }
+         } else if (i >= valuesStart && ch == ')') {
+            --depth;
+         } else if (i >= valuesStart && ch == ',' && depth == 1) {
+            ++column;
+         } else if (ch == '?') {
+            String before = sql.substring(Math.max(0, i - 24), i).replaceAll("\\s+", "").toLowerCase();
+            masked[param++] = before.endsWith("password=")
+               || (i >= valuesStart && column < columns.length && columns[column].equals("password"));
+         }
+      }//end for
+      return masked;
+   }//end passwordParams
+
+}//end QueryStats
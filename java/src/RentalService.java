@@ -0,0 +1,252 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class is the rental operations without the console: what the menus
+ * do once they have read their input. The menus call it for the steps that
+ * check or change anything (pricing and placing an order, the privilege
+ * checks, updating tracking and games), and so do the callers that have no
+ * terminal (CommandRunner, ApiServer). Each call checks what the user may
+ * do and either returns the result or throws:
+ *
+ *    IllegalArgumentException   the input is wrong (unknown game, bad units,
+ *                               unknown status or sort)
+ *    SecurityException          the user's role does not allow the call
+ *    NoSuchElementException     the order, tracking row or game does not
+ *                               exist, or is not the user's to see
+ *
+ * Each call tags its statements (QueryStats) with the menu method it
+ * stands for. It holds no state of its own, so one instance serves any
+ * number of threads; the sessions belong to the callers.
+ */
+public class RentalService {
+
+   // what the columns of the results are called outside the program
+   static final String[] GAME_COLUMNS = { "gameID", "gameName", "genre", "price", "description", "imageURL" };
+   static final String[] ORDER_PLACED_COLUMNS = { "rentalOrderID", "trackingID", "noOfGames", "totalPrice" };
+   static final String[] ORDER_COLUMNS = { "rentalOrderID", "noOfGames", "totalPrice", "orderTimestamp", "dueDate" };
+   static final String[] ORDER_DETAILS_COLUMNS = { "trackingID", "gameID", "gameName", "unitsOrdered" };
+   static final String[] TRACKING_COLUMNS = {
+      "trackingID", "courierName", "rentalOrderID", "currentLocation", "status", "lastUpdateDate", "additionalComments" };
+
+   private static final String OWN_ORDER_QUERY = "SELECT 1 FROM RentalOrder WHERE rentalOrderID = ? AND login = ?";
+
+   private final GameRental _esql;
+
+   /**
+    * @param esql the store to run the operations against
+    */
+   public RentalService(GameRental esql) {
+      this._esql = esql;
+   }
+
+   public GameRental getStore() {
+      return this._esql;
+   }
+
+   /**
+    * @return the session, or null if no user has this login and password
+    * @throws java.sql.SQLException when the query fails
+    */
+   public Session logIn(String login, String password) throws SQLException {
+      String previous = QueryStats.setOperation("LogIn");
+      try {
+         return Session.logIn(this._esql, login, password);
+      }finally {
+         QueryStats.setOperation(previous);
+      }//end try
+   }
+
+   /**
+    * The viewCatalog search: games whose title contains a string and that
+    * are in a genre, in catalog order or by price.
+    *
+    * @param title a substring of the title, or null for any
+    * @param genre the genre, or null for any
+    * @param sort "none", "asc" or "desc" by price; null for none
+    * @throws java.lang.IllegalArgumentException on another sort
+    * @throws java.sql.SQLException when the catalog has to be loaded and that fails
+    */
+   public List<CatalogCache.Game> searchCatalog(String title, String genre, String sort) throws SQLException {
+      String previous = QueryStats.setOperation("viewCatalog");
+      try {
+         int sortType;
+         if (sort == null || sort.equals("none")) {
+            sortType = CatalogCache.SORT_NONE;
+         } else if (sort.equals("asc")) {
+            sortType = CatalogCache.SORT_PRICE_ASC;
+         } else if (sort.equals("desc")) {
+            sortType = CatalogCache.SORT_PRICE_DESC;
+         } else {
+            throw new IllegalArgumentException("Sort must be none, asc or desc");
+         }
+         return this._esql.getCatalogCache().search(title, genre, sortType);
+      }finally {
+         QueryStats.setOperation(previous);
+      }//end try
+   }//end searchCatalog
+
+   /**
+    * Prices every game in the cart through the catalog cache, which reads
+    * the ones it does not hold with one query (see Cart.price).
+    *
+    * @return the game IDs that are not in the catalog, in cart order; empty if all are valid
+    * @throws java.sql.SQLException when the lookup fails
+    */
+   public List<String> priceCart(Cart cart) throws SQLException {
+      String previous = QueryStats.setOperation("placeOrder");
+      try {
+         return cart.price(this._esql);
+      }finally {
+         QueryStats.setOperation(previous);
+      }//end try
+   }//end priceCart
+
+   /**
+    * The placeOrder steps: prices the cart, refuses unknown games, then
+    * places the order with one call. The cart is left priced.
+    *
+    * @return the new rentalOrderID and trackingID
+    * @throws java.lang.IllegalArgumentException if the cart is empty or has unknown games
+    * @throws java.sql.SQLException when pricing or placing fails
+    */
+   public String[] placeOrder(Session session, Cart cart) throws SQLException {
+      String previous = QueryStats.setOperation("placeOrder");
+      try {
+         if (cart.isEmpty()) {
+            throw new IllegalArgumentException("The order has no games");
+         }
+         List<String> unknownGames = priceCart(cart);
+         if (!unknownGames.isEmpty()) {
+            throw new IllegalArgumentException("Invalid Game ID(s): " + String.join(", ", unknownGames));
+         }
+         return this._esql.submitOrder(session.getLogin(), cart.gameIDArray(), cart.unitsArray());
+      }finally {
+         QueryStats.setOperation(previous);
+      }//end try
+   }//end placeOrder
+
+   /**
+    * The user's orders, newest due date first, a page at a time.
+    */
+   public OrderHistory getOrderHistory(Session session, int pageSize) throws SQLException {
+      return new OrderHistory(this._esql, session.getLogin(), pageSize);
+   }
+
+   /**
+    * Streams up to limit of the user's orders, as OrderHistory.stream.
+    *
+    * @throws java.sql.SQLException when the query fails
+    */
+   public int streamOrderHistory(Session session, int limit, RowHandler handler) throws SQLException {
+      String previous = QueryStats.setOperation("viewAllOrders");
+      try {
+         return OrderHistory.stream(this._esql, session.getLogin(), limit, handler);
+      }finally {
+         QueryStats.setOperation(previous);
+      }//end try
+   }//end streamOrderHistory
+
+   /**
+    * The games of one of the user's orders, as GameRental.getOrderDetails.
+    *
+    * @throws java.util.NoSuchElementException if the user has no such order
+    * @throws java.sql.SQLException when a query fails
+    */
+   public ColumnarResult getOrderDetails(Session session, String rentalOrderID) throws SQLException {
+      String previous = QueryStats.setOperation("viewOrderInfo");
+      try {
+         if (!this._esql.exists(OWN_ORDER_QUERY, rentalOrderID, session.getLogin())) {
+            throw new NoSuchElementException("No order " + rentalOrderID + " on your account");
+         }
+         return this._esql.getOrderDetails(rentalOrderID);
+      }finally {
+         QueryStats.setOperation(previous);
+      }//end try
+   }//end getOrderDetails
+
+   /**
+    * The tracking row of one of the user's orders, as GameRental.getTrackingInfo.
+    *
+    * @throws java.util.NoSuchElementException if none of the user's orders has it
+    * @throws java.sql.SQLException when the query fails
+    */
+   public ColumnarResult getTrackingInfo(Session session, String trackingID) throws SQLException {
+      String previous = QueryStats.setOperation("viewTrackingInfo");
+      try {
+         ColumnarResult tracking = this._esql.getTrackingInfo(trackingID, session.getLogin());
+         if (tracking.size() == 0) {
+            throw new NoSuchElementException("No tracking info " + trackingID + " on your orders");
+         }
+         return tracking;
+      }finally {
+         QueryStats.setOperation(previous);
+      }//end try
+   }//end getTrackingInfo
+
+   /**
+    * The updateTrackingInfo change, for managers. Null fields are left as
+    * they are.
+    *
+    * @throws java.lang.SecurityException if the user may not update tracking
+    * @throws java.lang.IllegalArgumentException if the status is not one of GameRental.TRACKING_STATUSES
+    * @throws java.util.NoSuchElementException if there is no such tracking row
+    * @throws java.sql.SQLException when the update fails
+    */
+   public void updateTracking(Session session, String trackingID, String courierName, String currentLocation,
+                              String status, String additionalComments) throws SQLException {
+      String previous = QueryStats.setOperation("updateTrackingInfo");
+      try {
+         requirePrivilege(session, Session.PRIVILEGE_UPDATE_TRACKING);
+         if (status != null && !GameRental.TRACKING_STATUSES.contains(status)) {
+            throw new IllegalArgumentException("Status must be one of " + GameRental.TRACKING_STATUSES);
+         }
+         if (this._esql.saveTrackingInfo(trackingID, courierName, currentLocation, status, additionalComments) == 0) {
+            throw new NoSuchElementException("No tracking info " + trackingID);
+         }
+      }finally {
+         QueryStats.setOperation(previous);
+      }//end try
+   }//end updateTracking
+
+   /**
+    * The updateCatalog change, for managers. Null fields are left as they are.
+    *
+    * @throws java.lang.SecurityException if the user may not update the catalog
+    * @throws java.lang.IllegalArgumentException if the price is negative
+    * @throws java.util.NoSuchElementException if there is no such game
+    * @throws java.sql.SQLException when the update fails
+    */
+   public void updateGame(Session session, String gameID, String gameName, String genre, BigDecimal price,
+                          String description, String imageURL) throws SQLException {
+      String previous = QueryStats.setOperation("updateCatalog");
+      try {
+         requirePrivilege(session, Session.PRIVILEGE_UPDATE_CATALOG);
+         if (price != null && price.signum() < 0) {
+            throw new IllegalArgumentException("Price must not be negative");
+         }
+         if (this._esql.saveGameInfo(gameID, gameName, genre, price, description, imageURL) == 0) {
+            throw new NoSuchElementException("No game " + gameID);
+         }
+      }finally {
+         QueryStats.setOperation(previous);
+      }//end try
+   }//end updateGame
+
+   /**
+    * Refuses a user whose role lacks a privilege. The update calls check
+    * it themselves; the menus also call it up front, before asking for input.
+    *
+    * @param privilege one of the Session.PRIVILEGE_ bits
+    * @throws java.lang.SecurityException if the user's role does not grant it
+    * @throws java.sql.SQLException when the session has to be reloaded and that fails
+    */
+   public static void requirePrivilege(Session session, int privilege) throws SQLException {
+      if (!session.hasPrivilege(privilege)) {
+         throw new SecurityException("User " + session.getLogin() + " is not allowed to do this");
+      }
+   }
+
+}//end RentalService
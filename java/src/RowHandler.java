@@ -0,0 +1,16 @@
+import java.sql.SQLException;
+
+/**
+ * Callback used by GameRental.executeQueryAndStream. It is invoked once per
+ * batch of rows fetched from the cursor, in order, so it should handle the
+ * rows it is given and not keep the batch around.
+ */
+public interface RowHandler {
+
+   /**
+    * @param rows the next batch of rows, never empty
+    * @throws java.sql.SQLException when handling the rows needs the database and that fails
+    */
+   void handleRows(ColumnarResult rows) throws SQLException;
+
+}//end RowHandler
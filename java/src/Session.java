@@ -0,0 +1,176 @@
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is the logged-in user: who they are, what their role lets them
+ * do, and a snapshot of their profile.
+ *
+ * Everything is read in one query when the user logs in, so the menu
+ * actions check privileges and show the profile without asking the database
+ * again. Whatever changes the user's row (a profile update, or a manager
+ * editing their own account) calls invalidate(); the next getter then
+ * reloads the row, again in one query.
+ *
+ * The role is taken as of login (or the last reload): a role another
+ * manager changes while the user is logged in applies from their next login.
+ *
+ * Thread safe: a session may be shared by request threads. The snapshot is
+ * immutable and published through one volatile field, so a reader sees one
+ * whole row, never a half-reloaded one, and reloads are serialized.
+ */
+public class Session {
+
+   public static final String ROLE_CUSTOMER = "customer";
+   public static final String ROLE_EMPLOYEE = "employee";
+   public static final String ROLE_MANAGER = "manager";
+
+   // privilege bits, see hasPrivilege()
+   public static final int PRIVILEGE_UPDATE_TRACKING = 1;
+   public static final int PRIVILEGE_UPDATE_CATALOG = 2;
+   public static final int PRIVILEGE_UPDATE_USERS = 4;
+
+   static final String LOGIN_QUERY =
+      "SELECT role, password, phoneNum, favGames, numOverDueGames FROM Users WHERE login = ? AND password = ?";
+
+   static final String RELOAD_QUERY =
+      "SELECT role, password, phoneNum, favGames, numOverDueGames FROM Users WHERE login = ?";
+
+   /*
+    * The user's row as of one read. Never changed; a reload replaces it.
+    */
+   private static class Profile {
+      private final String _role;
+      private final int _privileges;
+      private final String _password;
+      private final String _phoneNum;
+      private final String _favGames;
+      private final int _numOverDueGames;
+
+      // the invalidate() count the row was read at
+      private final long _version;
+
+      private Profile(ColumnarResult row, long version) {
+         // role is a char(20), so it comes back padded
+         this._role = row.getString(0, 0).trim();
+         this._privileges = privilegesOf(this._role);
+         this._password = row.getString(0, 1);
+         this._phoneNum = row.getString(0, 2);
+         this._favGames = row.isNull(0, 3) ? "" : row.getString(0, 3);
+         this._numOverDueGames = row.isNull(0, 4) ? 0 : row.getInt(0, 4);
+         this._version = version;
+      }
+   }//end Profile
+
+   private final GameRental _esql;
+   private final String _login;
+
+   // the snapshot; out of date once its version is behind _invalidations
+   private volatile Profile _profile;
+   private final AtomicLong _invalidations = new AtomicLong(0);
+
+   private Session(GameRental esql, String login, ColumnarResult row) {
+      this._esql = esql;
+      this._login = login;
+      this._profile = new Profile(row, 0);
+   }
+
+   /**
+    * Checks the credentials and, if they match, loads the user.
+    *
+    * @param esql the store to query
+    * @param login the login typed in
+    * @param password the password typed in
+    * @return the session, or null if no user has this login and password
+    * @throws java.sql.SQLException when the query fails
+    */
+   public static Session logIn(GameRental esql, String login, String password) throws SQLException {
+      Metrics.LOGINS.increment();
+      ColumnarResult row = esql.executeQueryAndReturnColumns(LOGIN_QUERY, login, password);
+      if (row.size() == 0) {
+         Metrics.FAILED_LOGINS.increment();
+         return null;
+      }
+      return new Session(esql, login, row);
+   }//end logIn
+
+   public String getLogin() {
+      return this._login;
+   }
+
+   public String getRole() throws SQLException {
+      return profile()._role;
+   }
+
+   /**
+    * @param privilege one of the PRIVILEGE_ bits
+    * @return true if the user's role grants it
+    */
+   public boolean hasPrivilege(int privilege) throws SQLException {
+      return (profile()._privileges & privilege) == privilege;
+   }
+
+   public String getPassword() throws SQLException {
+      return profile()._password;
+   }
+
+   public String getPhoneNumber() throws SQLException {
+      return profile()._phoneNum;
+   }
+
+   /**
+    * @return the comma separated favorite games; empty, never null, if there are none
+    */
+   public String getFavoriteGames() throws SQLException {
+      return profile()._favGames;
+   }
+
+   public int getNumOverDueGames() throws SQLException {
+      return profile()._numOverDueGames;
+   }
+
+   /**
+    * Marks the snapshot out of date after the user's row was changed. It is
+    * reloaded the next time anything is read from it.
+    */
+   public void invalidate() {
+      this._invalidations.incrementAndGet();
+   }
+
+   /**
+    * @return the privileges a role grants; none for an unknown role
+    */
+   public static int privilegesOf(String role) {
+      if (ROLE_MANAGER.equals(role)) {
+         return PRIVILEGE_UPDATE_TRACKING | PRIVILEGE_UPDATE_CATALOG | PRIVILEGE_UPDATE_USERS;
+      }
+      return 0;
+   }
+
+   /*
+    * The current snapshot, reloading it first if it is out of date. One
+    * thread reloads at a time; the others wait and reuse its row. An
+    * invalidate() that lands while the row is read leaves the new snapshot
+    * out of date too, so the change is read on the next call.
+    */
+   private Profile profile() throws SQLException {
+      Profile profile = this._profile;
+      if (profile._version == this._invalidations.get()) {
+         return profile;
+      }
+      synchronized (this) {
+         profile = this._profile;
+         long version = this._invalidations.get();
+         if (profile._version == version) {
+            return profile;
+         }
+         ColumnarResult row = this._esql.executeQueryAndReturnColumns(RELOAD_QUERY, this._login);
+         if (row.size() == 0) {
+            throw new SQLException("User " + this._login + " no longer exists");
+         }
+         profile = new Profile(row, version);
+         this._profile = profile;
+         return profile;
+      }//end synchronized
+   }//end profile
+
+}//end Session
@@ -0,0 +1,130 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.postgresql.PGStatement;
+
+/**
+ * This class keeps a bounded set of PreparedStatements for a single physical
+ * connection, keyed by their SQL template. Each statement is switched to a
+ * server-side prepared statement (PGStatement.setUseServerPrepare) when it
+ * is cached: the driver otherwise substitutes the parameters itself and
+ * sends plain SQL, which the server parses and plans on every call. With
+ * it, the first execution PREPAREs the query and later ones only EXECUTE.
+ * Only SELECT, INSERT, UPDATE, DELETE and VALUES statements are switched,
+ * since those are all PREPARE accepts; anything else is cached as it is.
+ *
+ * The cache is least-recently-used: when it is full, the statement that was
+ * used the longest time ago is closed and dropped.
+ *
+ * Not thread safe. A cache belongs to exactly one connection, and a
+ * connection is only ever used by one caller at a time.
+ */
+public class StatementCache {
+
+   // statements the server can PREPARE, by their first keyword.
+   private static final Pattern PREPARABLE =
+      Pattern.compile("\\s*(SELECT|INSERT|UPDATE|DELETE|VALUES)\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+   // connection the cached statements were prepared on.
+   private final Connection _connection;
+
+   // maximum number of statements kept open at once.
+   private final int _capacity;
+
+   // SQL template -> prepared statement, in access order.
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   // simple counters, handy when tuning the capacity.
+   private long _hits = 0;
+   private long _misses = 0;
+
+   /**
+    * Creates an empty cache for the given connection
+    *
+    * @param connection the physical connection statements are prepared on
+    * @param capacity the maximum number of statements to keep open
+    */
+   public StatementCache(Connection connection, int capacity) {
+      if (capacity < 1) {
+         throw new IllegalArgumentException("Statement cache capacity must be positive");
+      }
+      this._connection = connection;
+      this._capacity = capacity;
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+   }//end StatementCache
+
+   /**
+    * Returns a prepared statement for the SQL template, preparing it on a
+    * cache miss. Callers must not close the returned statement.
+    *
+    * @param sql the SQL template, using ? for parameters
+    * @return the cached prepared statement
+    * @throws java.sql.SQLException when the statement could not be prepared
+    */
+   public PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt != null) {
+         ++this._hits;
+         Metrics.STATEMENT_CACHE_HITS.increment();
+         return stmt;
+      }//end if
+
+      ++this._misses;
+      Metrics.STATEMENT_CACHE_MISSES.increment();
+      stmt = this._connection.prepareStatement(sql);
+      if (stmt instanceof PGStatement && PREPARABLE.matcher(sql).matches()) {
+         ((PGStatement) stmt).setUseServerPrepare(true);
+      }
+      this._statements.put(sql, stmt);
+      evictOverflow();
+      return stmt;
+   }//end prepare
+
+   public int size() {
+      return this._statements.size();
+   }
+
+   public long getHits() {
+      return this._hits;
+   }
+
+   public long getMisses() {
+      return this._misses;
+   }
+
+   /**
+    * Closes every cached statement. The connection itself is left open.
+    */
+   public void close() {
+      for (PreparedStatement stmt : this._statements.values()) {
+         closeQuietly(stmt);
+      }//end for
+      this._statements.clear();
+   }//end close
+
+   private void evictOverflow() {
+      Iterator<Map.Entry<String, PreparedStatement>> it = this._statements.entrySet().iterator();
+      while (this._statements.size() > this._capacity && it.hasNext()) {
+         PreparedStatement eldest = it.next().getValue();
+         it.remove();
+         closeQuietly(eldest);
+      }//end while
+   }//end evictOverflow
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      if (stmt == null) {
+         return;
+      }
+      try {
+         stmt.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
@@ -0,0 +1,317 @@
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+
+/**
+ * Writes fixed-width text tables the way the menus lay them out with
+ * String.format("%-20s | %-9s | ..."), but without a format string parsed,
+ * a String built and System.out locked and flushed for every row.
+ *
+ * The column widths are set once. Cells are padded straight into a char
+ * buffer that is reused from row to row and page to page; numbers, prices
+ * and timestamps are written as digits without making a String first. The
+ * buffer goes out when it fills up and when flush() is called, which the
+ * menus do once per page, before they prompt.
+ *
+ * Widths work like the printf flag: negative pads on the right (left
+ * aligned, "%-20s"), positive pads on the left ("%20s"). A longer value is
+ * written whole, so the output matches String.format's.
+ *
+ * Like the menus that use it, not thread safe.
+ */
+public class TableRenderer {
+
+   private static final String SEPARATOR = " | ";
+   private static final String LINE_SEPARATOR = System.lineSeparator();
+
+   // the zone ColumnarResult.formatTimestamp prints in
+   private static final ZoneRules ZONE_RULES = ZoneId.systemDefault().getRules();
+
+   private final Writer _out;
+   private final int[] _widths;
+
+   private char[] _buffer;
+   private int _length = 0;
+
+   // the column the next cell goes in
+   private int _column = 0;
+
+   /**
+    * @param out where the table goes; written to when the buffer fills and on flush()
+    * @param widths the width of each column, negative to left align
+    */
+   public TableRenderer(Writer out, int... widths) {
+      this._out = out;
+      this._widths = widths.clone();
+      int lineWidth = LINE_SEPARATOR.length();
+      for (int width : widths) {
+         lineWidth += Math.abs(width) + SEPARATOR.length();
+      }
+      // room for a page of typical rows before anything is written
+      this._buffer = new char[Math.max(1024, lineWidth * 16)];
+   }//end TableRenderer
+
+   /**
+    * A table on stdout, in the default charset.
+    */
+   public static TableRenderer toConsole(int... widths) {
+      return new TableRenderer(new OutputStreamWriter(System.out), widths);
+   }
+
+   /**
+    * Writes the next cell of the current row.
+    *
+    * @param value the text; null is written as "null", as String.format does
+    * @return this
+    */
+   public TableRenderer cell(String value) {
+      String text = value == null ? "null" : value;
+      int start = startCell(text.length());
+      text.getChars(0, text.length(), this._buffer, start);
+      return endCell(start);
+   }//end cell
+
+   /**
+    * Writes a whole number as the next cell.
+    *
+    * @return this
+    */
+   public TableRenderer cell(long value) {
+      int digits = digitsOf(value);
+      int start = startCell(digits);
+      writeNumber(value, start + digits);
+      return endCell(start);
+   }//end cell
+
+   /**
+    * Writes a price as the next cell, like ColumnarResult.formatCents.
+    *
+    * @return this
+    */
+   public TableRenderer cellCents(long cents) {
+      long abs = Math.abs(cents);
+      int wholeDigits = digitsOf(abs / 100);
+      int length = (cents < 0 ? 1 : 0) + wholeDigits + 3;
+      int start = startCell(length);
+      int end = start + length;
+      this._buffer[end - 1] = (char) ('0' + abs % 10);
+      this._buffer[end - 2] = (char) ('0' + abs / 10 % 10);
+      this._buffer[end - 3] = '.';
+      writeNumber(abs / 100, end - 3);
+      if (cents < 0) {
+         this._buffer[start] = '-';
+      }
+      return endCell(start);
+   }//end cellCents
+
+   /**
+    * Writes a timestamp as the next cell, like ColumnarResult.formatTimestamp
+    * (yyyy-MM-dd HH:mm:ss in the default zone).
+    *
+    * @return this
+    */
+   public TableRenderer cellTimestamp(long millis) {
+      long seconds = Math.floorDiv(millis, 1000L);
+      LocalDateTime time = LocalDateTime.ofEpochSecond(seconds, 0,
+                                                       ZONE_RULES.getOffset(Instant.ofEpochSecond(seconds)));
+      if (time.getYear() < 0 || time.getYear() > 9999) {
+         return cell(ColumnarResult.formatTimestamp(millis));
+      }
+      int start = startCell(19);
+      char[] b = this._buffer;
+      writeDigits(time.getYear(), start, 4);
+      b[start + 4] = '-';
+      writeDigits(time.getMonthValue(), start + 5, 2);
+      b[start + 7] = '-';
+      writeDigits(time.getDayOfMonth(), start + 8, 2);
+      b[start + 10] = ' ';
+      writeDigits(time.getHour(), start + 11, 2);
+      b[start + 13] = ':';
+      writeDigits(time.getMinute(), start + 14, 2);
+      b[start + 16] = ':';
+      writeDigits(time.getSecond(), start + 17, 2);
+      return endCell(start);
+   }//end cellTimestamp
+
+   /**
+    * Writes text as it is, outside the columns: before the first cell of a
+    * row (a "1. " numbering the rows), or as a line of its own before endRow().
+    *
+    * @return this
+    */
+   public TableRenderer text(String text) {
+      ensure(text.length());
+      text.getChars(0, text.length(), this._buffer, this._length);
+      this._length += text.length();
+      return this;
+   }//end text
+
+   /**
+    * Writes a whole number as it is, outside the columns; see text().
+    *
+    * @return this
+    */
+   public TableRenderer text(long value) {
+      int digits = digitsOf(value);
+      ensure(digits);
+      writeNumber(value, this._length + digits);
+      this._length += digits;
+      return this;
+   }//end text
+
+   /**
+    * Ends the current row (or line of text) and starts the next.
+    *
+    * @return this
+    */
+   public TableRenderer endRow() {
+      text(LINE_SEPARATOR);
+      this._column = 0;
+      return this;
+   }
+
+   /**
+    * Writes a row of strings, e.g. the header.
+    *
+    * @return this
+    */
+   public TableRenderer row(String... values) {
+      for (String value : values) {
+         cell(value);
+      }
+      return endRow();
+   }//end row
+
+   /**
+    * Writes a line of text of its own, e.g. a rule under the header.
+    *
+    * @return this
+    */
+   public TableRenderer line(String text) {
+      return text(text).endRow();
+   }
+
+   /**
+    * Writes out everything buffered and flushes the writer.
+    *
+    * @throws java.io.IOException when the writer fails
+    */
+   public void flush() throws IOException {
+      drain();
+      this._out.flush();
+   }
+
+   /*
+    * Writes the separator if this is not the first cell, makes room for the
+    * padded cell and writes the left padding. Returns where the value goes;
+    * the caller writes exactly length chars there and calls endCell.
+    */
+   private int startCell(int length) {
+      int width = this._column < this._widths.length ? this._widths[this._column] : 0;
+      int padding = Math.max(0, Math.abs(width) - length);
+      ensure(SEPARATOR.length() + padding + length);
+      if (this._column > 0) {
+         SEPARATOR.getChars(0, SEPARATOR.length(), this._buffer, this._length);
+         this._length += SEPARATOR.length();
+      }
+      if (width > 0) {
+         pad(padding);
+      }
+      int start = this._length;
+      this._length += length;
+      return start;
+   }//end startCell
+
+   /*
+    * Writes the right padding of a left-aligned cell that started at start.
+    */
+   private TableRenderer endCell(int start) {
+      int width = this._column < this._widths.length ? this._widths[this._column] : 0;
+      if (width < 0) {
+         pad(Math.max(0, -width - (this._length - start)));
+      }
+      this._column++;
+      return this;
+   }//end endCell
+
+   private void pad(int count) {
+      for (int i = 0; i < count; i++) {
+         this._buffer[this._length++] = ' ';
+      }
+   }
+
+   /*
+    * Makes room for count more chars, writing the buffer out first if it is
+    * too full, and growing it if a single cell does not fit.
+    */
+   private void ensure(int count) {
+      if (this._length + count <= this._buffer.length) {
+         return;
+      }
+      try {
+         drain();
+      }catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }//end try
+      if (count > this._buffer.length) {
+         this._buffer = new char[count * 2];
+      }
+   }//end ensure
+
+   private void drain() throws IOException {
+      if (this._length > 0) {
+         this._out.write(this._buffer, 0, this._length);
+         this._length = 0;
+      }
+   }
+
+   /*
+    * Writes the digits of value (and its sign) so the last one is just
+    * before end.
+    */
+   private void writeNumber(long value, int end) {
+      if (value == Long.MIN_VALUE) {
+         String text = Long.toString(value);
+         text.getChars(0, text.length(), this._buffer, end - text.length());
+         return;
+      }
+      long abs = Math.abs(value);
+      int i = end;
+      do {
+         this._buffer[--i] = (char) ('0' + abs % 10);
+         abs /= 10;
+      } while (abs != 0);
+      if (value < 0) {
+         this._buffer[--i] = '-';
+      }
+   }//end writeNumber
+
+   private void writeDigits(int value, int at, int digits) {
+      for (int i = at + digits - 1; i >= at; i--) {
+         this._buffer[i] = (char) ('0' + value % 10);
+         value /= 10;
+      }
+   }
+
+   /*
+    * How many chars value takes, its sign included.
+    */
+   private static int digitsOf(long value) {
+      if (value == Long.MIN_VALUE) {
+         return 20;
+      }
+      int digits = value < 0 ? 2 : 1;
+      long abs = Math.abs(value);
+      while (abs >= 10) {
+         abs /= 10;
+         digits++;
+      }
+      return digits;
+   }//end digitsOf
+
+}//end TableRenderer
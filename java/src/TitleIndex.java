@@ -0,0 +1,229 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is an in-memory trigram index for case-insensitive substring
+ * search over game titles, the in-process counterpart of a pg_trgm index.
+ *
+ * Every title is lower-cased and split into its overlapping three-character
+ * sequences; for each trigram the index keeps a sorted array of the titles
+ * containing it. A query of three or more characters intersects the posting
+ * lists of its own trigrams, shortest first, and only the few surviving
+ * candidates are checked with a real substring test. Shorter queries have no
+ * trigram to look up and fall back to scanning the lower-cased titles.
+ *
+ * Matches are ranked: exact title, then title prefix, then a match at the
+ * start of a word, then anywhere else; ties go to the earlier match and then
+ * the shorter title.
+ *
+ * Immutable once built, so it can be shared between threads.
+ */
+public class TitleIndex {
+
+   /*
+    * A growable posting list, only used while building.
+    */
+   private static class Postings {
+      private int[] _docs = new int[4];
+      private int _size = 0;
+
+      private void add(int doc) {
+         if (this._size == this._docs.length) {
+            this._docs = Arrays.copyOf(this._docs, this._size * 2);
+         }
+         this._docs[this._size++] = doc;
+      }
+
+      private int[] toArray() {
+         return Arrays.copyOf(this._docs, this._size);
+      }
+   }//end Postings
+
+   private static final int[] NO_POSTINGS = new int[0];
+
+   private static final int RANK_EXACT = 0;
+   private static final int RANK_PREFIX = 1;
+   private static final int RANK_WORD = 2;
+   private static final int RANK_INFIX = 3;
+
+   // low bits of a packed sort key that hold the title's position
+   private static final long DOC_MASK = (1L << 28) - 1;
+
+   private final String[] _keys;
+   private final String[] _folded;
+
+   // trigram -> ascending positions of the titles containing it
+   private final Map<Long, int[]> _postings;
+
+   /**
+    * Builds the index
+    *
+    * @param keys what search() returns for each title, e.g. the gameID
+    * @param titles the titles to index, parallel to keys
+    */
+   public TitleIndex(List<String> keys, List<String> titles) {
+      if (keys.size() != titles.size()) {
+         throw new IllegalArgumentException("Got " + keys.size() + " keys but " + titles.size() + " titles");
+      }
+      if (titles.size() > DOC_MASK) {
+         throw new IllegalArgumentException("Too many titles to index: " + titles.size());
+      }
+      int n = titles.size();
+      this._keys = keys.toArray(new String[n]);
+      this._folded = new String[n];
+
+      Map<Long, Postings> building = new HashMap<Long, Postings>();
+      for (int doc = 0; doc < n; doc++) {
+         String folded = fold(titles.get(doc));
+         this._folded[doc] = folded;
+         for (long trigram : trigrams(folded)) {
+            Postings postings = building.get(trigram);
+            if (postings == null) {
+               postings = new Postings();
+               building.put(trigram, postings);
+            }
+            postings.add(doc);
+         }//end for
+      }//end for
+
+      // trim every posting list to its length
+      this._postings = new HashMap<Long, int[]>(building.size() * 2);
+      for (Map.Entry<Long, Postings> entry : building.entrySet()) {
+         this._postings.put(entry.getKey(), entry.getValue().toArray());
+      }//end for
+   }//end TitleIndex
+
+   public int size() {
+      return this._keys.length;
+   }
+
+   /**
+    * @return the number of distinct trigrams indexed
+    */
+   public int getTrigramCount() {
+      return this._postings.size();
+   }
+
+   /**
+    * Finds the titles containing the query, ignoring case.
+    *
+    * @param query the substring to look for
+    * @param limit the most results to return, or 0 for all
+    * @return the keys of the matching titles, best match first
+    */
+   public List<String> search(String query, int limit) {
+      String needle = fold(query);
+      int[] docs;
+      if (needle.length() < 3) {
+         docs = new int[this._folded.length];
+         for (int doc = 0; doc < docs.length; doc++) {
+            docs[doc] = doc;
+         }//end for
+      } else {
+         docs = candidates(needle);
+      }
+
+      // one sort key per match: rank, match position, title length, position in the index
+      long[] matches = new long[docs.length];
+      int n = 0;
+      for (int doc : docs) {
+         String title = this._folded[doc];
+         int at = title.indexOf(needle);
+         if (at >= 0) {
+            matches[n++] = ((long) rank(title, needle, at) << 60)
+                         | ((long) Math.min(at, 0xFFFF) << 44)
+                         | ((long) Math.min(title.length(), 0xFFFF) << 28)
+                         | doc;
+         }
+      }//end for
+      Arrays.sort(matches, 0, n);
+
+      int count = limit > 0 ? Math.min(limit, n) : n;
+      List<String> result = new ArrayList<String>(count);
+      for (int i = 0; i < count; i++) {
+         result.add(this._keys[(int) (matches[i] & DOC_MASK)]);
+      }//end for
+      return result;
+   }//end search
+
+   /**
+    * Lower-cases text the same way for titles and queries.
+    */
+   public static String fold(String text) {
+      return text == null ? "" : text.toLowerCase(Locale.ROOT);
+   }
+
+   /*
+    * Titles that contain every trigram of the query: the intersection of
+    * the query's posting lists, starting from the shortest.
+    */
+   private int[] candidates(String needle) {
+      Set<Long> grams = trigrams(needle);
+      int[][] lists = new int[grams.size()][];
+      int i = 0;
+      for (long trigram : grams) {
+         int[] list = this._postings.get(trigram);
+         if (list == null) {
+            return NO_POSTINGS; // some trigram appears in no title at all
+         }
+         lists[i++] = list;
+      }//end for
+      Arrays.sort(lists, new Comparator<int[]>() {
+         public int compare(int[] a, int[] b) {
+            return Integer.compare(a.length, b.length);
+         }
+      });
+
+      int[] result = lists[0];
+      for (int l = 1; l < lists.length && result.length > 0; l++) {
+         result = intersect(result, lists[l]);
+      }//end for
+      return result;
+   }//end candidates
+
+   private static int[] intersect(int[] a, int[] b) {
+      int[] out = new int[Math.min(a.length, b.length)];
+      int i = 0, j = 0, n = 0;
+      while (i < a.length && j < b.length) {
+         if (a[i] < b[j]) {
+            i++;
+         } else if (a[i] > b[j]) {
+            j++;
+         } else {
+            out[n++] = a[i];
+            i++;
+            j++;
+         }
+      }//end while
+      return Arrays.copyOf(out, n);
+   }//end intersect
+
+   private static Set<Long> trigrams(String folded) {
+      Set<Long> grams = new LinkedHashSet<Long>();
+      for (int i = 0; i + 3 <= folded.length(); i++) {
+         grams.add(((long) folded.charAt(i) << 32) | ((long) folded.charAt(i + 1) << 16) | folded.charAt(i + 2));
+      }//end for
+      return grams;
+   }//end trigrams
+
+   private static int rank(String title, String needle, int at) {
+      if (at == 0) {
+         return title.length() == needle.length() ? RANK_EXACT : RANK_PREFIX;
+      }
+      while (at > 0) {
+         if (!Character.isLetterOrDigit(title.charAt(at - 1))) {
+            return RANK_WORD;
+         }
+         at = title.indexOf(needle, at + 1);
+      }//end while
+      return RANK_INFIX;
+   }//end rank
+
+}//end TitleIndex
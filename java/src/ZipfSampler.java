@@ -0,0 +1,102 @@
+import java.util.SplittableRandom;
+
+/**
+ * This class draws ranks 1..n from a Zipf distribution: rank k comes up in
+ * proportion to 1 / k^exponent, so a few ranks take most of the draws and the
+ * rest form a long tail, the way a few games are rented far more than others.
+ *
+ * It uses rejection-inversion sampling (Hormann and Derflinger, "Rejection-
+ * inversion to generate variates from monotone discrete distributions",
+ * 1996): a draw costs a few logarithms and rarely a retry, and no table of
+ * n probabilities is ever built, so n can be in the hundreds of millions.
+ *
+ * Immutable; the caller supplies the random source, so it can be shared
+ * between threads that each have their own.
+ */
+public class ZipfSampler {
+
+   private final int _n;
+   private final double _exponent;
+
+   // precomputed bounds of the inversion, see the paper
+   private final double _hIntegralX1;
+   private final double _hIntegralN;
+   private final double _s;
+
+   /**
+    * @param n the number of ranks
+    * @param exponent how skewed the draws are; 1 is classic Zipf, larger is steeper
+    */
+   public ZipfSampler(int n, double exponent) {
+      if (n < 1) {
+         throw new IllegalArgumentException("Need at least one rank, got " + n);
+      }
+      if (!(exponent > 0)) {
+         throw new IllegalArgumentException("Exponent must be positive, got " + exponent);
+      }
+      this._n = n;
+      this._exponent = exponent;
+      this._hIntegralX1 = hIntegral(1.5) - 1.0;
+      this._hIntegralN = hIntegral(n + 0.5);
+      this._s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+   }//end ZipfSampler
+
+   public int getN() {
+      return this._n;
+   }
+
+   /**
+    * @return a rank between 1 (the most likely) and n
+    */
+   public int sample(SplittableRandom random) {
+      while (true) {
+         double u = this._hIntegralN + random.nextDouble() * (this._hIntegralX1 - this._hIntegralN);
+         double x = hIntegralInverse(u);
+         int k = (int) (x + 0.5);
+         if (k < 1) {
+            k = 1;
+         } else if (k > this._n) {
+            k = this._n;
+         }
+         // accept straight away near the center of the bucket, else test against the hat
+         if (k - x <= this._s || u >= hIntegral(k + 0.5) - h(k)) {
+            return k;
+         }
+      }//end while
+   }//end sample
+
+   private double h(double x) {
+      return Math.exp(-this._exponent * Math.log(x));
+   }
+
+   /*
+    * The integral of h, shifted so that it is well defined at exponent 1.
+    */
+   private double hIntegral(double x) {
+      double logX = Math.log(x);
+      return helper2((1.0 - this._exponent) * logX) * logX;
+   }
+
+   private double hIntegralInverse(double x) {
+      double t = x * (1.0 - this._exponent);
+      if (t < -1.0) {
+         t = -1.0; // rounding can push it past the pole
+      }
+      return Math.exp(helper1(t) * x);
+   }
+
+   /*
+    * log(1 + x) / x, accurate near 0
+    */
+   private static double helper1(double x) {
+      return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+   }
+
+   /*
+    * (exp(x) - 1) / x, accurate near 0
+    */
+   private static double helper2(double x) {
+      return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x * (1.0 / 3.0) * (1.0 + 0.25 * x));
+   }
+
+}//end ZipfSampler
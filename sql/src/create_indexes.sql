@@ -1,12 +1,16 @@
 DROP INDEX IF EXISTS gameID_index;
 DROP INDEX IF EXISTS gamePrice_index;
 DROP INDEX IF EXISTS gameGenre_index;
+DROP INDEX IF EXISTS trackingRentalOrderID_index;
+DROP INDEX IF EXISTS gameName_trgm_index;
+DROP INDEX IF EXISTS userLogin_pattern_index;
+DROP INDEX IF EXISTS userLogin_trgm_index;
+DROP INDEX IF EXISTS orderLoginDueDate_index;
+DROP INDEX IF EXISTS orderLoginTimestamp_index;
+DROP INDEX IF EXISTS gamesInOrderGameID_index;
 
-CREATE INDEX gameID_index
-ON Catalog
-USING BTREE
-(gameID);
-
+-- Catalog(gameID) needs no index of its own, the primary key already is one;
+-- gameID_index is only dropped above for databases that still have it.
 CREATE INDEX gamePrice_index
 ON Catalog
 USING BTREE
@@ -17,3 +21,56 @@ ON Catalog
 USING BTREE
 (genre);
 
+-- viewOrderInfo, viewTrackingInfo and updateTrackingInfo find an order's
+-- tracking row by rentalOrderID. GamesInOrder by rentalOrderID is covered by
+-- its primary key's leading column.
+CREATE INDEX trackingRentalOrderID_index
+ON TrackingInfo
+USING BTREE
+(rentalOrderID);
+
+-- Title searches use gameName ILIKE '%...%', which no BTREE can serve.
+-- A trigram GIN index can, for patterns of three or more characters.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX gameName_trgm_index
+ON Catalog
+USING GIN
+(gameName gin_trgm_ops);
+
+-- The manager's user search pages through logins that start with, then
+-- contain, the search text. Prefix ranges use the pattern-ops BTREE (it
+-- compares byte-wise whatever the database collation), substrings the
+-- trigram GIN.
+CREATE INDEX userLogin_pattern_index
+ON Users
+USING BTREE
+(login text_pattern_ops);
+
+CREATE INDEX userLogin_trgm_index
+ON Users
+USING GIN
+(login gin_trgm_ops);
+
+-- viewAllOrders and the order pickers list one user's orders by dueDate,
+-- newest first. The index returns them already sorted (scanned backwards),
+-- and rentalOrderID breaks ties between orders due at the same time.
+-- It also serves the RentalOrder lookup of the cascade when a user is deleted.
+CREATE INDEX orderLoginDueDate_index
+ON RentalOrder
+USING BTREE
+(login, dueDate, rentalOrderID);
+
+-- viewRecentOrders reads a user's five latest orders by orderTimestamp,
+-- which this index can stop after instead of sorting them all.
+CREATE INDEX orderLoginTimestamp_index
+ON RentalOrder
+USING BTREE
+(login, orderTimestamp);
+
+-- Deleting a game cascades to GamesInOrder by gameID, which the primary key
+-- (rentalOrderID, gameID) cannot look up.
+CREATE INDEX gamesInOrderGameID_index
+ON GamesInOrder
+USING BTREE
+(gameID);
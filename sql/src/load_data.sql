@@ -1,4 +1,5 @@
 /* Replace the location to where you saved the data files*/
+/* (java/scripts/load.sh loads the same files from any directory, in parallel, see BulkLoader) */
 
 \! echo "USER: " $USER
 \! echo "Working Directory: '$(pwd)'"
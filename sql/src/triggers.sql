@@ -2,6 +2,8 @@ DROP TRIGGER IF EXISTS user_role_trigger ON Users;
 DROP TRIGGER IF EXISTS trackinginfo_last_update_time ON TrackingInfo;
 DROP TRIGGER IF EXISTS generate_rentalorderid ON RentalOrder;
 DROP TRIGGER IF EXISTS generate_trackingid ON TrackingInfo;
+DROP TRIGGER IF EXISTS catalog_changed ON Catalog;
+DROP TRIGGER IF EXISTS catalog_truncated ON Catalog;
 DROP SEQUENCE IF EXISTS rentalorder_seq;
 
 CREATE SEQUENCE rentalorder_seq START WITH 4147 INCREMENT BY 1;
@@ -34,7 +36,8 @@ CREATE OR REPLACE FUNCTION generate_rentalorder()
         next_val INT;
     BEGIN
         next_val := nextval('rentalorder_seq');
-        NEW.rentalOrderID := 'gamerentalorder' || LPAD(next_val::TEXT, 4, '0');
+        -- LPAD alone would cut numbers past 9999 down to 4 digits and repeat IDs
+        NEW.rentalOrderID := 'gamerentalorder' || LPAD(next_val::TEXT, GREATEST(4, length(next_val::TEXT)), '0');
         NEW.orderTimestamp := NOW();
         NEW.dueDate := NOW() + INTERVAL '1 month';
 
@@ -83,6 +86,86 @@ CREATE OR REPLACE FUNCTION generate_trackinginfo()
 
 
 
+-- Places a whole rental order in one call and one transaction: the order
+-- row, its games and its tracking row. Prices come from Catalog, duplicate
+-- game IDs are merged, and unknown game IDs abort the order.
+CREATE OR REPLACE FUNCTION place_order(p_login VARCHAR, p_game_ids VARCHAR[], p_units INTEGER[])
+    RETURNS TABLE(rental_order_id VARCHAR, tracking_id VARCHAR) AS
+    $BODY$
+    DECLARE
+        v_num_lines INT;
+        v_num_known INT;
+        v_total_games INT;
+        v_total_price DECIMAL(10,2);
+    BEGIN
+        v_num_lines := COALESCE(array_length(p_game_ids, 1), 0);
+        IF v_num_lines = 0 THEN
+            RAISE EXCEPTION 'An order needs at least one game';
+        END IF;
+        IF v_num_lines <> COALESCE(array_length(p_units, 1), 0) THEN
+            RAISE EXCEPTION 'Got % game IDs but % unit counts', v_num_lines, COALESCE(array_length(p_units, 1), 0);
+        END IF;
+
+        SELECT COUNT(c.gameID), SUM(p_units[i]), SUM(c.price * p_units[i])
+          INTO v_num_known, v_total_games, v_total_price
+          FROM generate_subscripts(p_game_ids, 1) AS i
+          LEFT JOIN Catalog c ON c.gameID = p_game_ids[i];
+
+        IF v_num_known <> v_num_lines THEN
+            RAISE EXCEPTION 'Unknown game ID(s): %',
+                (SELECT string_agg(p_game_ids[i], ', ')
+                   FROM generate_subscripts(p_game_ids, 1) AS i
+                  WHERE NOT EXISTS (SELECT 1 FROM Catalog c WHERE c.gameID = p_game_ids[i]));
+        END IF;
+        IF EXISTS (SELECT 1 FROM unnest(p_units) AS u WHERE u IS NULL OR u <= 0) THEN
+            RAISE EXCEPTION 'Units ordered must be positive';
+        END IF;
+
+        -- rentalOrderID, orderTimestamp and dueDate are filled in by generate_rentalorder()
+        INSERT INTO RentalOrder(login, noOfGames, totalPrice)
+        VALUES (p_login, v_total_games, v_total_price)
+        RETURNING rentalOrderID INTO rental_order_id;
+
+        INSERT INTO GamesInOrder(rentalOrderID, gameID, unitsOrdered)
+        SELECT rental_order_id, p_game_ids[i], SUM(p_units[i])
+          FROM generate_subscripts(p_game_ids, 1) AS i
+         GROUP BY p_game_ids[i];
+
+        -- everything else is filled in by generate_trackinginfo()
+        INSERT INTO TrackingInfo(rentalOrderID)
+        VALUES (rental_order_id)
+        RETURNING trackingID INTO tracking_id;
+
+        RETURN NEXT;
+    END;
+    $BODY$
+    LANGUAGE plpgsql VOLATILE;
+
+
+-- Tells every listening application instance that a catalog row changed,
+-- so in-process catalog caches can drop it. The payload is the gameID; an
+-- empty payload (TRUNCATE) means the whole catalog changed.
+CREATE OR REPLACE FUNCTION notify_catalog_changed()
+    RETURNS TRIGGER AS
+    $BODY$
+    BEGIN
+       IF TG_LEVEL = 'STATEMENT' THEN
+          PERFORM pg_notify('catalog_changed', '');
+       ELSIF TG_OP = 'DELETE' THEN
+          PERFORM pg_notify('catalog_changed', OLD.gameID);
+       ELSE
+          PERFORM pg_notify('catalog_changed', NEW.gameID);
+          IF TG_OP = 'UPDATE' AND OLD.gameID <> NEW.gameID THEN
+             PERFORM pg_notify('catalog_changed', OLD.gameID);
+          END IF;
+       END IF;
+       RETURN NULL;
+    END;
+    $BODY$
+    LANGUAGE plpgsql VOLATILE;
+
+
+
 CREATE TRIGGER user_role_trigger 
 BEFORE INSERT ON Users
 FOR EACH ROW
@@ -101,4 +184,14 @@ EXECUTE PROCEDURE generate_rentalorder();
 CREATE TRIGGER generate_trackingid
 BEFORE INSERT ON TrackingInfo
 FOR EACH ROW 
-EXECUTE PROCEDURE generate_trackinginfo();
\ No newline at end of file
+EXECUTE PROCEDURE generate_trackinginfo();
+
+CREATE TRIGGER catalog_changed
+AFTER INSERT OR UPDATE OR DELETE ON Catalog
+FOR EACH ROW
+EXECUTE PROCEDURE notify_catalog_changed();
+
+CREATE TRIGGER catalog_truncated
+AFTER TRUNCATE ON Catalog
+FOR EACH STATEMENT
+EXECUTE PROCEDURE notify_catalog_changed();